@@ -13,17 +13,16 @@ import java.util.Random;
 class ActiveDataSocket extends DataSocket
 {
 	private ServerSocket mServerSocket;
-	private boolean mStopped;
+	private volatile Socket mSocket;
 
 
 	/**
 	 * Creates a socket for sending data to the FTP server.
 	 */
-	public static ActiveDataSocket createOutputSocket(InputStream aInputStream, ProgressListener aProgressListener) throws IOException
+	public static ActiveDataSocket createOutputSocket(InputStream aInputStream) throws IOException
 	{
 		ActiveDataSocket socket = new ActiveDataSocket();
 		socket.mInputStream = aInputStream;
-		socket.mProgressListener = aProgressListener != null ? aProgressListener : (e)->{};
 		return socket;
 	}
 
@@ -31,11 +30,10 @@ class ActiveDataSocket extends DataSocket
 	/**
 	 * Creates a socket for receiving data from the FTP server.
 	 */
-	public static ActiveDataSocket createInputSocket(OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException
+	public static ActiveDataSocket createInputSocket(OutputStream aOutputStream) throws IOException
 	{
 		ActiveDataSocket socket = new ActiveDataSocket();
 		socket.mOutputStream = aOutputStream;
-		socket.mProgressListener = aProgressListener != null ? aProgressListener : (e)->{};
 		return socket;
 	}
 
@@ -50,24 +48,11 @@ class ActiveDataSocket extends DataSocket
 	}
 
 
-	/**
-	 * Blocks until this DataSocket has finished it's transfer.
-	 */
-	@Override
-	public void block()
-	{
-		while (!mStopped)
-		{
-			try{Thread.sleep(1);}catch(Exception e){}
-		}
-	}
-
-
 	/**
 	 * Initializes the ServerSocket and starts listening on a port.
 	 */
 	@Override
-	public void start() throws IOException
+	void open() throws IOException
 	{
 		InetAddress [] addresses = InetAddress.getAllByName(InetAddress.getLocalHost().getHostName());
 
@@ -111,59 +96,54 @@ class ActiveDataSocket extends DataSocket
 			{
 			}
 		}
+	}
 
-		WorkerThread workerThread = new WorkerThread();
-		workerThread.start();
 
-		while (!workerThread.mIsStarted)
+	/**
+	 * Waits for the server to connect to the listening port.
+	 */
+	@Override
+	Socket acceptSocket() throws IOException
+	{
+		try
 		{
-			try
-			{
-				Thread.sleep(10);
-			}
-			catch (Exception e)
+			mServerSocket.setSoTimeout(60_000);
+
+			Socket socket = mServerSocket.accept();
+			socket.setSoTimeout(60_000);
+			mSocket = socket;
+
+			// the sockets may have been closed by an abort while waiting for the server
+			if (mAborted)
 			{
+				socket.close();
 			}
+
+			return socket;
+		}
+		finally
+		{
+			mServerSocket.close();
 		}
 	}
 
 
-	private class WorkerThread extends Thread
+	@Override
+	void closeSockets() throws IOException
 	{
-		public boolean mIsStarted;
-
-
-		/** Waits for server connection and transmits data with the server. */
-		@Override
-		public void run()
+		try
 		{
-			mIsStarted = true;
-
-			try
+			if (mServerSocket != null)
 			{
-				try
-				{
-					mServerSocket.setSoTimeout(60_000);
-
-					try (Socket socket = mServerSocket.accept())
-					{
-						socket.setSoTimeout(60_000);
-						transfer(socket);
-					}
-				}
-				finally
-				{
-					mServerSocket.close();
-				}
+				mServerSocket.close();
 			}
-			catch (IOException e)
-			{
-				e.printStackTrace(System.out);
-			}
-			finally
+		}
+		finally
+		{
+			if (mSocket != null)
 			{
-				mStopped = true;
+				mSocket.close();
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * An FTPLogger queueing messages in a bounded ring buffer that a daemon thread passes on to another FTPLogger. Logging never blocks the
+ * threads of the client: when the buffer is full the oldest message is discarded.
+ */
+public class AsyncLogger implements FTPLogger, Closeable
+{
+	private final static AtomicInteger LOGGER_COUNTER = new AtomicInteger();
+	private final static Entry CLOSE = new Entry(0, null, null);
+
+	private final FTPLogger mLogger;
+	private final ArrayBlockingQueue<Entry> mBuffer;
+	private final AtomicLong mDroppedCount;
+	private final Thread mThread;
+
+
+	/**
+	 * Creates a new AsyncLogger.
+	 *
+	 * @param aLogger the FTPLogger receiving the messages.
+	 * @param aCapacity the number of messages the ring buffer holds.
+	 */
+	public AsyncLogger(FTPLogger aLogger, int aCapacity)
+	{
+		if (aLogger == null || aCapacity < 1)
+		{
+			throw new IllegalArgumentException("aLogger must not be null and aCapacity must be positive.");
+		}
+
+		mLogger = aLogger;
+		mBuffer = new ArrayBlockingQueue<>(aCapacity);
+		mDroppedCount = new AtomicLong();
+
+		mThread = new Thread(this::run, "ftp-log-" + LOGGER_COUNTER.incrementAndGet());
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+
+	@Override
+	public boolean isEnabled(LogLevel aLevel)
+	{
+		return mLogger.isEnabled(aLevel);
+	}
+
+
+	@Override
+	public void log(long aTime, LogLevel aLevel, String aMessage)
+	{
+		Entry entry = new Entry(aTime, aLevel, aMessage);
+
+		while (!mBuffer.offer(entry))
+		{
+			if (mBuffer.poll() != null)
+			{
+				mDroppedCount.incrementAndGet();
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of messages discarded because the ring buffer was full.
+	 */
+	public long getDroppedCount()
+	{
+		return mDroppedCount.get();
+	}
+
+
+	private void run()
+	{
+		try
+		{
+			for (Entry entry; (entry = mBuffer.take()) != CLOSE;)
+			{
+				mLogger.log(entry.mTime, entry.mLevel, entry.mMessage);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// closed
+		}
+	}
+
+
+	/**
+	 * Passes the messages in the buffer to the receiving FTPLogger and stops the thread.
+	 */
+	@Override
+	public void close()
+	{
+		while (!mBuffer.offer(CLOSE))
+		{
+			mBuffer.poll();
+			mDroppedCount.incrementAndGet();
+		}
+
+		try
+		{
+			mThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private static class Entry
+	{
+		final long mTime;
+		final LogLevel mLevel;
+		final String mMessage;
+
+
+		Entry(long aTime, LogLevel aLevel, String aMessage)
+		{
+			mTime = aTime;
+			mLevel = aLevel;
+			mMessage = aMessage;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * A RetryPolicy retrying transient failures with exponentially increasing, randomly jittered delays.<p>
+ *
+ * Failures are classified by the response code of the server: 4xx responses are transient and 5xx responses are permanent. Network
+ * failures are transient.<p>
+ *
+ * The policy also implements a circuit breaker for each host: when a number of consecutive transient failures has occurred on a host all
+ * operations on that host fail immediately until a period of time has passed.
+ */
+public class BackoffRetryPolicy implements RetryPolicy
+{
+	private final int mMaxAttempts;
+	private final long mBaseDelay;
+	private final long mMaxDelay;
+	private final int mFailureThreshold;
+	private final long mOpenDuration;
+	private final ConcurrentHashMap<String, Circuit> mCircuits;
+
+
+	/**
+	 * Creates a BackoffRetryPolicy making at most three attempts, starting with a delay of 500 milliseconds. The circuit of a host is
+	 * opened for one minute after ten consecutive failures.
+	 */
+	public BackoffRetryPolicy()
+	{
+		this(3, 500, 30_000, 10, 60_000);
+	}
+
+
+	/**
+	 * Creates a new BackoffRetryPolicy.
+	 *
+	 * @param aMaxAttempts maximum number of attempts made for an operation.
+	 * @param aBaseDelay the delay in milliseconds before the first retry. The delay is doubled for each retry.
+	 * @param aMaxDelay the maximum delay in milliseconds.
+	 * @param aFailureThreshold number of consecutive failures on a host opening the circuit.
+	 * @param aOpenDuration the time in milliseconds the circuit remains open.
+	 */
+	public BackoffRetryPolicy(int aMaxAttempts, long aBaseDelay, long aMaxDelay, int aFailureThreshold, long aOpenDuration)
+	{
+		if (aMaxAttempts < 1 || aFailureThreshold < 1)
+		{
+			throw new IllegalArgumentException("aMaxAttempts and aFailureThreshold must be positive.");
+		}
+		if (aBaseDelay < 0 || aMaxDelay < aBaseDelay || aOpenDuration < 0)
+		{
+			throw new IllegalArgumentException("Illegal delay.");
+		}
+
+		mMaxAttempts = aMaxAttempts;
+		mBaseDelay = aBaseDelay;
+		mMaxDelay = aMaxDelay;
+		mFailureThreshold = aFailureThreshold;
+		mOpenDuration = aOpenDuration;
+		mCircuits = new ConcurrentHashMap<>();
+	}
+
+
+	@Override
+	public long getRetryDelay(String aHostAddress, int aAttempt, IOException aException)
+	{
+		if (!isTransient(aException))
+		{
+			// the server responded, the host is available
+			succeeded(aHostAddress);
+			return -1;
+		}
+
+		Circuit circuit = mCircuits.computeIfAbsent(aHostAddress, e -> new Circuit());
+
+		synchronized (circuit)
+		{
+			if (++circuit.mFailures >= mFailureThreshold)
+			{
+				circuit.mOpenUntil = System.currentTimeMillis() + mOpenDuration;
+				return -1;
+			}
+		}
+
+		if (aAttempt >= mMaxAttempts)
+		{
+			return -1;
+		}
+
+		// full jitter: a random delay up to the exponential backoff
+		long backoff = Math.min(mMaxDelay, mBaseDelay << Math.min(aAttempt - 1, 30));
+
+		return ThreadLocalRandom.current().nextLong(backoff + 1);
+	}
+
+
+	@Override
+	public void checkAvailable(String aHostAddress) throws IOException
+	{
+		Circuit circuit = mCircuits.get(aHostAddress);
+
+		if (circuit != null)
+		{
+			synchronized (circuit)
+			{
+				if (System.currentTimeMillis() < circuit.mOpenUntil)
+				{
+					throw new IOException("Circuit open for host " + aHostAddress + " after " + circuit.mFailures + " consecutive failures.");
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void succeeded(String aHostAddress)
+	{
+		mCircuits.remove(aHostAddress);
+	}
+
+
+	/**
+	 * Returns true if the failure is transient and the operation may succeed if retried.
+	 */
+	protected boolean isTransient(IOException aException)
+	{
+		if (aException instanceof ResponseCodeException)
+		{
+			int code = ((ResponseCodeException)aException).getCode();
+
+			return code >= 400 && code < 500;
+		}
+
+		// an interrupted thread should not retry
+		return !(aException instanceof InterruptedIOException) || aException instanceof SocketTimeoutException;
+	}
+
+
+	private static class Circuit
+	{
+		int mFailures;
+		long mOpenUntil;
+	}
+}
@@ -0,0 +1,379 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.terifan.net.ftp.client.ControlEventLoop.SelectorThread;
+
+
+/**
+ * A non-blocking control connection served by a ControlEventLoop. Commands are queued and written by the Selector thread and replies are
+ * parsed incrementally as bytes arrive. Replies are handed to waiting readers in the order they were received.
+ */
+class ControlConnection implements Closeable
+{
+	private final SelectorThread mThread;
+	private final FTPClient mClient;
+	private final AtomicInteger mConnectionCount;
+	private final AtomicBoolean mClosed;
+	private final ReplyParser mParser;
+	private final ByteBuffer mReadBuffer;
+	private final ArrayDeque<ByteBuffer> mWriteQueue;
+	private final ArrayDeque<Input> mReplies;
+	private final ArrayDeque<CompletableFuture<Input>> mWaiters;
+	private final CompletableFuture<Void> mConnected;
+	private SocketChannel mChannel;
+	private SelectionKey mKey;
+	private IOException mFailure;
+
+
+	ControlConnection(SelectorThread aThread, AtomicInteger aConnectionCount, FTPClient aClient)
+	{
+		mThread = aThread;
+		mClient = aClient;
+		mConnectionCount = aConnectionCount;
+		mClosed = new AtomicBoolean();
+		mParser = new ReplyParser();
+		mReadBuffer = ByteBuffer.allocate(8192);
+		mWriteQueue = new ArrayDeque<>();
+		mReplies = new ArrayDeque<>();
+		mWaiters = new ArrayDeque<>();
+		mConnected = new CompletableFuture<>();
+	}
+
+
+	void connect(String aHostAddress, int aPort, int aTimeout) throws IOException
+	{
+		mChannel = SocketChannel.open();
+		mChannel.configureBlocking(false);
+		mConnectionCount.incrementAndGet();
+		mThread.register(this);
+
+		boolean connected = mChannel.connect(new InetSocketAddress(aHostAddress, aPort));
+
+		mThread.execute(() ->
+		{
+			try
+			{
+				mKey = mChannel.register(mThread.getSelector(), connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+
+				if (connected)
+				{
+					mConnected.complete(null);
+				}
+			}
+			catch (IOException e)
+			{
+				fail(e);
+			}
+		});
+
+		try
+		{
+			await(mConnected, aTimeout);
+		}
+		catch (IOException e)
+		{
+			close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Queues a command to be written by the Selector thread.
+	 */
+	void write(byte[] aCommand) throws IOException
+	{
+		synchronized (this)
+		{
+			if (mFailure != null)
+			{
+				throw new IOException(mFailure.getMessage(), mFailure);
+			}
+
+			mWriteQueue.add(ByteBuffer.wrap(aCommand));
+		}
+
+		mThread.execute(() ->
+		{
+			try
+			{
+				flush();
+			}
+			catch (IOException e)
+			{
+				fail(e);
+			}
+			catch (CancelledKeyException e)
+			{
+				// connection closed concurrently
+			}
+		});
+	}
+
+
+	/**
+	 * Returns a future completed with the next reply received from the server that hasn't been claimed by another reader.
+	 */
+	CompletableFuture<Input> nextReply()
+	{
+		CompletableFuture<Input> future = new CompletableFuture<>();
+
+		synchronized (this)
+		{
+			Input input = mReplies.poll();
+
+			if (input != null)
+			{
+				future.complete(input);
+			}
+			else if (mFailure != null)
+			{
+				future.completeExceptionally(mFailure);
+			}
+			else
+			{
+				mWaiters.add(future);
+			}
+		}
+
+		return future;
+	}
+
+
+	/**
+	 * Blocks until the next reply is received from the server.
+	 *
+	 * @param aTimeout maximum time to wait in milliseconds.
+	 * @throws SocketTimeoutException if no reply is received in time.
+	 */
+	Input readReply(int aTimeout) throws IOException
+	{
+		CompletableFuture<Input> future = nextReply();
+
+		try
+		{
+			return await(future, aTimeout);
+		}
+		catch (SocketTimeoutException e)
+		{
+			synchronized (this)
+			{
+				if (!mWaiters.remove(future) && future.isDone())
+				{
+					return future.join();
+				}
+			}
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Called by the Selector thread when the channel is ready.
+	 */
+	void handle(SelectionKey aKey)
+	{
+		try
+		{
+			if (!aKey.isValid())
+			{
+				return;
+			}
+
+			if (aKey.isConnectable())
+			{
+				mChannel.finishConnect();
+				aKey.interestOps(SelectionKey.OP_READ);
+				mConnected.complete(null);
+				flush();
+			}
+
+			if (aKey.isReadable())
+			{
+				for (int len; (len = mChannel.read(mReadBuffer)) != 0;)
+				{
+					if (len == -1)
+					{
+						throw new EOFException("Connection closed by server.");
+					}
+
+					mReadBuffer.flip();
+					mParser.append(mReadBuffer, this::deliver);
+					mReadBuffer.clear();
+				}
+			}
+
+			if (aKey.isValid() && aKey.isWritable())
+			{
+				flush();
+			}
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+		catch (CancelledKeyException e)
+		{
+			// connection closed concurrently
+		}
+	}
+
+
+	private void flush() throws IOException
+	{
+		if (mKey == null || !mKey.isValid() || !mChannel.isConnected())
+		{
+			return;
+		}
+
+		synchronized (this)
+		{
+			while (!mWriteQueue.isEmpty())
+			{
+				ByteBuffer buffer = mWriteQueue.peek();
+
+				mChannel.write(buffer);
+
+				if (buffer.hasRemaining())
+				{
+					mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+
+				mWriteQueue.poll();
+			}
+		}
+
+		mKey.interestOps(SelectionKey.OP_READ);
+	}
+
+
+	private void deliver(Input aInput)
+	{
+		CompletableFuture<Input> waiter;
+
+		synchronized (this)
+		{
+			waiter = mWaiters.poll();
+
+			if (waiter == null)
+			{
+				mReplies.add(aInput);
+				return;
+			}
+		}
+
+		waiter.complete(aInput);
+	}
+
+
+	/**
+	 * Closes the connection and fails all readers waiting for a reply.
+	 */
+	void fail(IOException aException)
+	{
+		ArrayDeque<CompletableFuture<Input>> waiters;
+
+		synchronized (this)
+		{
+			if (mFailure == null)
+			{
+				mFailure = aException;
+			}
+
+			waiters = new ArrayDeque<>(mWaiters);
+			mWaiters.clear();
+		}
+
+		mConnected.completeExceptionally(aException);
+
+		for (CompletableFuture<Input> waiter : waiters)
+		{
+			waiter.completeExceptionally(aException);
+		}
+
+		if (mClosed.compareAndSet(false, true))
+		{
+			mConnectionCount.decrementAndGet();
+			mThread.unregister(this);
+
+			try
+			{
+				if (mChannel != null)
+				{
+					mChannel.close();
+				}
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+
+
+	/**
+	 * Called when the Selector thread serving the connection has terminated. A failure of the thread is logged by the logger of the
+	 * client before the readers waiting for a reply are failed.
+	 *
+	 * @param aCause the exception terminating the thread or null if the event loop was closed.
+	 */
+	void abandon(Exception aCause)
+	{
+		if (aCause != null)
+		{
+			FTPLogger logger = mClient.getLogger();
+			if (logger != null)
+			{
+				logger.log(LogLevel.ERROR, () -> "CLIENT: <control event loop " + mThread.getName() + " failed: " + aCause + ">");
+			}
+		}
+
+		fail(aCause instanceof IOException ? (IOException)aCause : new IOException("Event loop closed.", aCause));
+	}
+
+
+	@Override
+	public void close()
+	{
+		fail(new IOException("Connection closed."));
+	}
+
+
+	private static <T> T await(CompletableFuture<T> aFuture, int aTimeout) throws IOException
+	{
+		try
+		{
+			return aFuture.get(aTimeout, TimeUnit.MILLISECONDS);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			throw new IOException(cause.getMessage(), cause);
+		}
+		catch (TimeoutException e)
+		{
+			throw new SocketTimeoutException("Timed out waiting for server.");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for server.");
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * An event loop multiplexing the control connections of any number of FTPClient instances on a small number of Selector threads.<p>
+ *
+ * A client is attached to the event loop by calling FTPClient.setControlEventLoop before connecting. Data transfers are not affected and
+ * are performed as configured by the clients TransferPool.<p>
+ *
+ * The event loop removes the reading thread of each connection, it doesn't make the API of the client asynchronous. Only
+ * FTPClient.executeAsync returns without waiting for the reply. All other methods, e.g. getFile, putFile and getFileList, still wait for
+ * their replies on the calling thread.
+ */
+public class ControlEventLoop implements Closeable
+{
+	private final static AtomicInteger LOOP_COUNTER = new AtomicInteger();
+
+	private final SelectorThread[] mThreads;
+	private final AtomicInteger mNextThread;
+	private final AtomicInteger mConnectionCount;
+
+
+	/**
+	 * Creates a new ControlEventLoop.
+	 *
+	 * @param aThreadCount number of Selector threads shared by the control connections.
+	 * @throws IOException if a Selector couldn't be opened.
+	 */
+	public ControlEventLoop(int aThreadCount) throws IOException
+	{
+		if (aThreadCount < 1)
+		{
+			throw new IllegalArgumentException("aThreadCount must be positive.");
+		}
+
+		mNextThread = new AtomicInteger();
+		mConnectionCount = new AtomicInteger();
+		mThreads = new SelectorThread[aThreadCount];
+
+		int loop = LOOP_COUNTER.incrementAndGet();
+
+		for (int i = 0; i < aThreadCount; i++)
+		{
+			mThreads[i] = new SelectorThread("ftp-control-" + loop + "-" + (i + 1));
+			mThreads[i].start();
+		}
+	}
+
+
+	/**
+	 * Returns the number of control connections currently open on this event loop.
+	 */
+	public int getConnectionCount()
+	{
+		return mConnectionCount.get();
+	}
+
+
+	/**
+	 * Opens a control connection handled by one of the Selector threads.
+	 *
+	 * @param aClient the client owning the connection, failures of the Selector thread are logged by it's logger.
+	 */
+	ControlConnection connect(FTPClient aClient, String aHostAddress, int aPort, int aTimeout) throws IOException
+	{
+		SelectorThread thread = mThreads[Math.floorMod(mNextThread.getAndIncrement(), mThreads.length)];
+
+		ControlConnection connection = new ControlConnection(thread, mConnectionCount, aClient);
+		connection.connect(aHostAddress, aPort, aTimeout);
+		return connection;
+	}
+
+
+	/**
+	 * Stops the Selector threads. Connections still open are closed.
+	 */
+	@Override
+	public void close()
+	{
+		for (SelectorThread thread : mThreads)
+		{
+			thread.shutdown();
+		}
+	}
+
+
+	static class SelectorThread extends Thread
+	{
+		private final Selector mSelector;
+		private final ConcurrentLinkedQueue<Runnable> mTasks;
+		private final Set<ControlConnection> mConnections;
+		private volatile boolean mStopped;
+		private volatile boolean mTerminated;
+
+
+		SelectorThread(String aName) throws IOException
+		{
+			super(aName);
+			setDaemon(true);
+
+			mSelector = Selector.open();
+			mTasks = new ConcurrentLinkedQueue<>();
+			mConnections = ConcurrentHashMap.newKeySet();
+		}
+
+
+		Selector getSelector()
+		{
+			return mSelector;
+		}
+
+
+		/**
+		 * Runs the task on the Selector thread. Selection keys must only be modified from the Selector thread.
+		 */
+		void execute(Runnable aTask)
+		{
+			mTasks.add(aTask);
+			mSelector.wakeup();
+		}
+
+
+		/**
+		 * Adds a connection served by this thread. A connection added after the thread terminated is failed at once, otherwise readers
+		 * would wait for replies no thread will deliver.
+		 */
+		void register(ControlConnection aConnection)
+		{
+			mConnections.add(aConnection);
+
+			if (mTerminated)
+			{
+				aConnection.abandon(null);
+			}
+		}
+
+
+		void unregister(ControlConnection aConnection)
+		{
+			mConnections.remove(aConnection);
+		}
+
+
+		void shutdown()
+		{
+			mStopped = true;
+			mSelector.wakeup();
+		}
+
+
+		@Override
+		public void run()
+		{
+			Exception failure = null;
+
+			try
+			{
+				while (!mStopped)
+				{
+					mSelector.select();
+
+					for (Runnable task; (task = mTasks.poll()) != null;)
+					{
+						task.run();
+					}
+
+					for (Iterator<SelectionKey> it = mSelector.selectedKeys().iterator(); it.hasNext();)
+					{
+						SelectionKey key = it.next();
+						it.remove();
+
+						((ControlConnection)key.attachment()).handle(key);
+					}
+				}
+			}
+			catch (IOException | RuntimeException e)
+			{
+				failure = e;
+			}
+			finally
+			{
+				mTerminated = true;
+
+				for (ControlConnection connection : mConnections)
+				{
+					connection.abandon(failure);
+				}
+
+				try
+				{
+					mSelector.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.terifan.net.ftp.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * An OutputStream counting the number of bytes written to the underlying stream.
+ */
+class CountingOutputStream extends FilterOutputStream
+{
+	private volatile long mCount;
+
+
+	CountingOutputStream(OutputStream aOutputStream)
+	{
+		super(aOutputStream);
+	}
+
+
+	@Override
+	public void write(int aByte) throws IOException
+	{
+		out.write(aByte);
+		mCount++;
+	}
+
+
+	@Override
+	public void write(byte[] aBuffer, int aOffset, int aLength) throws IOException
+	{
+		out.write(aBuffer, aOffset, aLength);
+		mCount += aLength;
+	}
+
+
+	long getCount()
+	{
+		return mCount;
+	}
+}
@@ -2,15 +2,52 @@ package org.terifan.net.ftp.client;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.net.ssl.SSLContext;
 
 
 abstract class DataSocket
 {
+	private final static int FILE_BUFFER_SIZE = 65536;
+	private final static long FILE_WINDOW_SIZE = 64 << 20;
+
 	InputStream mInputStream;
 	OutputStream mOutputStream;
-	ProgressListener mProgressListener;
+	ProgressDispatcher mProgressDispatcher;
+	TransferPool mTransferPool;
+	Deflater mDeflater;
+	Inflater mInflater;
+	HashAlgorithm.Hasher mHasher;
+	long mTransferredCount;
+	FileChannel mFileChannel;
+
+	SSLContext mSSLContext;
+	String mSessionHost;
+	int mSessionPort;
+
+	Runnable mCloseListener;
+	volatile boolean mAborted;
+
+	private CountDownLatch mCompletion;
+	private Throwable mException;
+	private final AtomicBoolean mClosed;
+
+
+	DataSocket()
+	{
+		mClosed = new AtomicBoolean();
+	}
 
 
 	/**
@@ -20,34 +57,231 @@ abstract class DataSocket
 
 
 	/**
-	 * Starts to listen to a port (active) or to send data to a port (passive).
+	 * Starts to listen to a port (active) or connects to the port of the server (passive).
+	 */
+	abstract void open() throws IOException;
+
+
+	/**
+	 * Returns the connected data socket, waiting for the server to connect if necessary.
+	 */
+	abstract Socket acceptSocket() throws IOException;
+
+
+	/**
+	 * Returns the connected data socket, waiting for the server to connect if necessary. When a SSLContext has been assigned the client
+	 * performs a TLS handshake on the socket. The session is looked up using the host and port of the control connection, allowing the TLS
+	 * session of the control connection to be resumed.
+	 */
+	Socket accept() throws IOException
+	{
+		Socket socket = acceptSocket();
+
+		if (mSSLContext == null)
+		{
+			return socket;
+		}
+
+		try
+		{
+			TLSSocket tlsSocket = new TLSSocket(mSSLContext, socket, mSessionHost, mSessionPort);
+			tlsSocket.startHandshake();
+			return tlsSocket;
+		}
+		catch (IOException e)
+		{
+			socket.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Releases any sockets still held by this DataSocket.
+	 */
+	abstract void closeSockets() throws IOException;
+
+
+	/**
+	 * Releases any sockets still held by this DataSocket. This method may be called more than once, the close listener is only notified
+	 * the first time.
+	 */
+	void close() throws IOException
+	{
+		try
+		{
+			closeSockets();
+		}
+		finally
+		{
+			if (mClosed.compareAndSet(false, true) && mCloseListener != null)
+			{
+				mCloseListener.run();
+			}
+		}
+	}
+
+
+	/**
+	 * Sets the number of bytes to transfer, when known, included in progress events.
 	 */
-	abstract void start() throws IOException;
+	void setTotalSize(long aTotalSize)
+	{
+		if (mProgressDispatcher != null)
+		{
+			mProgressDispatcher.setTotalSize(aTotalSize);
+		}
+	}
 
 
 	/**
-	 * Blocks until this DataSocket has finished it's transfer.
+	 * Marks the transfer as aborted and closes the sockets, causing a transfer in progress to fail immediately. May be called from any
+	 * thread.
 	 */
-	abstract void block();
+	void abort()
+	{
+		mAborted = true;
+
+		try
+		{
+			close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+
+	/**
+	 * Opens the data connection. If a TransferPool has been assigned the transfer is queued on the pool, otherwise the transfer is
+	 * performed on the calling thread when the block method is called.
+	 */
+	void start() throws IOException
+	{
+		open();
+
+		if (mTransferPool != null)
+		{
+			mCompletion = new CountDownLatch(1);
+
+			if (!mTransferPool.execute(this::run))
+			{
+				mCompletion = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Blocks until this DataSocket has finished it's transfer. When no TransferPool is used the transfer is performed by the calling thread.
+	 * Exceptions thrown by a transfer performed on the TransferPool are rethrown as is, like when performed by the calling thread.
+	 *
+	 * @throws IOException if the transfer failed.
+	 */
+	void block() throws IOException
+	{
+		if (mCompletion == null)
+		{
+			transferAndClose();
+			return;
+		}
+
+		try
+		{
+			mCompletion.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			close();
+			throw new InterruptedIOException("Interrupted while waiting for transfer to complete.");
+		}
+
+		if (mException instanceof IOException)
+		{
+			throw (IOException)mException;
+		}
+		if (mException instanceof RuntimeException)
+		{
+			throw (RuntimeException)mException;
+		}
+		if (mException instanceof Error)
+		{
+			throw (Error)mException;
+		}
+		if (mException != null)
+		{
+			throw new IOException(mException.getMessage(), mException);
+		}
+	}
+
+
+	private void run()
+	{
+		try
+		{
+			transferAndClose();
+		}
+		catch (Throwable e)
+		{
+			mException = e;
+		}
+		finally
+		{
+			mCompletion.countDown();
+		}
+	}
+
+
+	private void transferAndClose() throws IOException
+	{
+		try (Socket socket = accept())
+		{
+			transfer(socket);
+		}
+		finally
+		{
+			close();
+		}
+	}
 
 
 	void transfer(final Socket aSocket) throws IOException
 	{
+		if (mFileChannel != null)
+		{
+			if (mInputStream != null)
+			{
+				sendFile(aSocket);
+			}
+			else
+			{
+				receiveFile(aSocket);
+			}
+			return;
+		}
+
 		InputStream inputStream = mInputStream != null ? mInputStream : aSocket.getInputStream();
 		OutputStream outputStream = mOutputStream != null ? mOutputStream : aSocket.getOutputStream();
 
-		// this sucks, wait for receing server to get ready...
-		try
+		// MODE Z: data on the socket is a single deflate stream
+		if (mInflater != null && mInputStream == null)
 		{
-			Thread.sleep(500);
+			inputStream = new InflaterInputStream(inputStream, mInflater, 65536);
 		}
-		catch (InterruptedException ex)
+		if (mDeflater != null && mOutputStream == null)
 		{
+			outputStream = new DeflaterOutputStream(outputStream, mDeflater, 65536);
 		}
 
+		ProgressDispatcher progressDispatcher = mProgressDispatcher;
+
 		try
 		{
-			mProgressListener.progressChanged(ProgressListener.TRANSFER_STARTED);
+			if (progressDispatcher != null)
+			{
+				progressDispatcher.started();
+			}
 
 			byte[] buf = new byte[4096];
 			long progress = 0;
@@ -56,11 +290,25 @@ abstract class DataSocket
 			{
 				outputStream.write(buf, 0, len);
 
+				if (mHasher != null)
+				{
+					mHasher.update(buf, 0, len);
+				}
+
 				progress += len;
-				mProgressListener.progressChanged(progress);
+
+				if (progressDispatcher != null)
+				{
+					progressDispatcher.update(progress);
+				}
 			}
 
-			mProgressListener.progressChanged(ProgressListener.TRANSFER_COMPLETED);
+			mTransferredCount = progress;
+
+			if (progressDispatcher != null)
+			{
+				progressDispatcher.completed(progress);
+			}
 		}
 		finally
 		{
@@ -80,4 +328,160 @@ abstract class DataSocket
 			}
 		}
 	}
+
+
+	/**
+	 * Sends the local file from the current position of the channel. The file is sent by the operating system when the data connection
+	 * is a plain socket channel and the data needs no processing, otherwise the file is read into a buffer at the position sent.
+	 */
+	private void sendFile(Socket aSocket) throws IOException
+	{
+		ProgressDispatcher progressDispatcher = mProgressDispatcher;
+		long start = mFileChannel.position();
+		long end = mFileChannel.size();
+		long progress = 0;
+
+		if (progressDispatcher != null)
+		{
+			progressDispatcher.started();
+		}
+
+		SocketChannel socketChannel = aSocket.getChannel();
+
+		if (socketChannel != null && mDeflater == null && mHasher == null)
+		{
+			while (start + progress < end)
+			{
+				progress += mFileChannel.transferTo(start + progress, Math.min(FILE_WINDOW_SIZE, end - start - progress), socketChannel);
+
+				if (progressDispatcher != null)
+				{
+					progressDispatcher.update(progress);
+				}
+			}
+
+			socketChannel.shutdownOutput();
+		}
+		else
+		{
+			OutputStream outputStream = aSocket.getOutputStream();
+
+			if (mDeflater != null)
+			{
+				outputStream = new DeflaterOutputStream(outputStream, mDeflater, 65536);
+			}
+
+			try
+			{
+				byte[] buf = new byte[FILE_BUFFER_SIZE];
+				ByteBuffer buffer = ByteBuffer.wrap(buf);
+
+				while (start + progress < end)
+				{
+					buffer.clear().limit((int)Math.min(buf.length, end - start - progress));
+
+					int len = mFileChannel.read(buffer, start + progress);
+
+					if (len < 0)
+					{
+						break;
+					}
+
+					outputStream.write(buf, 0, len);
+
+					if (mHasher != null)
+					{
+						mHasher.update(buf, 0, len);
+					}
+
+					progress += len;
+
+					if (progressDispatcher != null)
+					{
+						progressDispatcher.update(progress);
+					}
+				}
+			}
+			finally
+			{
+				outputStream.close();
+			}
+		}
+
+		mTransferredCount = progress;
+
+		if (progressDispatcher != null)
+		{
+			progressDispatcher.completed(progress);
+		}
+	}
+
+
+	/**
+	 * Receives the remote file into the local file from the start of the channel. The local file is truncated to the size received, hence a
+	 * file extended in advance to it's expected size is shortened when less is received.<p>
+	 *
+	 * FileChannel.transferFrom isn't used, it copies from a socket through a temporary buffer like this method and it's channel reads
+	 * ignore the timeout of the socket, a stalled server would block the transfer forever. Mapping the file saves no copy either, the data
+	 * is read from the socket into memory of the process in both cases.
+	 */
+	private void receiveFile(Socket aSocket) throws IOException
+	{
+		ProgressDispatcher progressDispatcher = mProgressDispatcher;
+		InputStream inputStream = aSocket.getInputStream();
+
+		if (mInflater != null)
+		{
+			inputStream = new InflaterInputStream(inputStream, mInflater, 65536);
+		}
+
+		try
+		{
+			if (progressDispatcher != null)
+			{
+				progressDispatcher.started();
+			}
+
+			byte[] buf = new byte[FILE_BUFFER_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(buf);
+			long progress = 0;
+
+			for (int len; (len = inputStream.read(buf)) != -1;)
+			{
+				buffer.clear().limit(len);
+				while (buffer.hasRemaining())
+				{
+					mFileChannel.write(buffer, progress + buffer.position());
+				}
+
+				if (mHasher != null)
+				{
+					mHasher.update(buf, 0, len);
+				}
+
+				progress += len;
+
+				if (progressDispatcher != null)
+				{
+					progressDispatcher.update(progress);
+				}
+			}
+
+			if (mFileChannel.size() > progress)
+			{
+				mFileChannel.truncate(progress);
+			}
+
+			mTransferredCount = progress;
+
+			if (progressDispatcher != null)
+			{
+				progressDispatcher.completed(progress);
+			}
+		}
+		finally
+		{
+			inputStream.close();
+		}
+	}
 }
@@ -0,0 +1,38 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+
+
+/**
+ * Listener receiving changes detected by a DirectoryWatcher.
+ */
+@FunctionalInterface
+public interface DirectoryListener
+{
+	enum Change
+	{
+		CREATED,
+		MODIFIED,
+		DELETED
+	}
+
+
+	/**
+	 * Called when a file has been created, modified or deleted in a watched directory.
+	 *
+	 * @param aChange the kind of change.
+	 * @param aFile the file as listed, or as last listed if the file was deleted.
+	 */
+	void directoryChanged(Change aChange, RemoteFile aFile);
+
+
+	/**
+	 * Called when listing a watched directory failed. The directory is polled again after the next interval.
+	 *
+	 * @param aPath the path of the watched directory.
+	 * @param aException the exception thrown.
+	 */
+	default void watchFailed(String aPath, IOException aException)
+	{
+	}
+}
@@ -0,0 +1,357 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.terifan.net.ftp.client.DirectoryListener.Change;
+
+
+/**
+ * Watches directories on a remote server by periodically listing them and comparing each listing with the previous one.<p>
+ *
+ * All watched directories are polled by a single thread using the same FTPClient. The directories are listed by path, the working
+ * directory of the client isn't changed and the client may be used by other threads while watching. A directory without changes is
+ * polled less and less frequently, doubling the interval up to a maximum, and polled at the minimum interval again as soon as a change is
+ * detected.<p>
+ *
+ * A file is reported as modified when it's size or modification time changes. Directories are listed with MLSD when the server supports
+ * MLST, providing modification times to the second. Otherwise they are listed with LIST, which provides no time for Unix servers and times
+ * to the minute for DOS servers. When the server supports MDTM the modification times of the files are then read with the pipelined SIZE
+ * and MDTM commands, costing two commands per file and poll. A file rewritten with the same size isn't detected on servers supporting
+ * neither MLST nor MDTM, or when rewritten within the resolution of the times.<p>
+ *
+ * Exceptions thrown by a listener are logged by the logger of the client and don't prevent the other changes from being reported.
+ */
+public class DirectoryWatcher implements Closeable
+{
+	private final FTPClient mClient;
+	private final long mMinInterval;
+	private final long mMaxInterval;
+	private final ScheduledExecutorService mScheduler;
+	private final ConcurrentHashMap<String, WatchedDirectory> mDirectories;
+
+
+	/**
+	 * Creates a new DirectoryWatcher.
+	 *
+	 * @param aClient a connected client used to list the directories.
+	 * @param aMinInterval the interval in milliseconds used after a change has been detected.
+	 * @param aMaxInterval the maximum interval in milliseconds used when no changes are detected.
+	 */
+	public DirectoryWatcher(FTPClient aClient, long aMinInterval, long aMaxInterval)
+	{
+		if (aMinInterval < 1 || aMaxInterval < aMinInterval)
+		{
+			throw new IllegalArgumentException("aMinInterval must be positive and not greater than aMaxInterval.");
+		}
+
+		mClient = aClient;
+		mMinInterval = aMinInterval;
+		mMaxInterval = aMaxInterval;
+		mDirectories = new ConcurrentHashMap<>();
+		mScheduler = Executors.newSingleThreadScheduledExecutor(aRunnable ->
+		{
+			Thread thread = new Thread(aRunnable, "ftp-watcher-" + aClient.getHostAddress());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	/**
+	 * Starts watching a directory. The first listing establishes the initial state and doesn't produce any events.
+	 *
+	 * @param aPath the path of the directory on the remote server. A relative path is resolved against the working directory of the client
+	 * when this method is called.
+	 * @param aListener listener receiving the changes.
+	 * @throws IOException if the working directory of the client can't be read.
+	 */
+	public void watch(String aPath, DirectoryListener aListener) throws IOException
+	{
+		String path = aPath;
+
+		if (!path.startsWith("/"))
+		{
+			String workingDirectory = mClient.queryWorkingDirectory();
+			path = (workingDirectory.endsWith("/") ? workingDirectory : workingDirectory + "/") + aPath;
+		}
+
+		WatchedDirectory directory = new WatchedDirectory(aPath, path, aListener);
+
+		WatchedDirectory previous = mDirectories.put(aPath, directory);
+		if (previous != null)
+		{
+			previous.cancel();
+		}
+
+		directory.schedule(0);
+	}
+
+
+	/**
+	 * Stops watching a directory.
+	 */
+	public void unwatch(String aPath)
+	{
+		WatchedDirectory directory = mDirectories.remove(aPath);
+
+		if (directory != null)
+		{
+			directory.cancel();
+		}
+	}
+
+
+	/**
+	 * Returns the interval in milliseconds currently used to poll the directory or -1 if the directory isn't watched.
+	 */
+	public long getInterval(String aPath)
+	{
+		WatchedDirectory directory = mDirectories.get(aPath);
+
+		return directory == null ? -1 : directory.mInterval;
+	}
+
+
+	/**
+	 * Stops watching all directories. The FTPClient is not closed.
+	 */
+	@Override
+	public void close()
+	{
+		mScheduler.shutdownNow();
+		mDirectories.clear();
+	}
+
+
+	private RemoteFileList list(String aPath) throws IOException
+	{
+		if (mClient.hasFeature("MLST"))
+		{
+			return mClient.getCompactFileListNew(aPath, null);
+		}
+
+		return mClient.getCompactFileList(aPath, null);
+	}
+
+
+	/**
+	 * Returns the modification times of the files listed. Times of a LIST listing are replaced by the times read with MDTM when the server
+	 * supports it.
+	 */
+	private long[] getDateTimes(String aPath, RemoteFileList aFiles) throws IOException
+	{
+		String prefix = aPath.endsWith("/") ? aPath : aPath + "/";
+		long[] dateTimes = new long[aFiles.size()];
+
+		for (int i = 0; i < dateTimes.length; i++)
+		{
+			dateTimes[i] = aFiles.getDateTime(i);
+		}
+
+		if (mClient.hasFeature("MLST") || !mClient.hasFeature("MDTM"))
+		{
+			return dateTimes;
+		}
+
+		ArrayList<String> paths = new ArrayList<>();
+		for (int i = 0; i < dateTimes.length; i++)
+		{
+			if ("file".equals(aFiles.getType(i)))
+			{
+				paths.add(prefix + aFiles.getName(i));
+			}
+		}
+
+		Map<String, RemoteFile> files = mClient.stat(paths);
+
+		for (int i = 0; i < dateTimes.length; i++)
+		{
+			RemoteFile file = files.get(prefix + aFiles.getName(i));
+			if (file != null)
+			{
+				dateTimes[i] = file.getDateTime();
+			}
+		}
+
+		return dateTimes;
+	}
+
+
+	private void log(Supplier<String> aMessage)
+	{
+		FTPLogger logger = mClient.getLogger();
+		if (logger != null)
+		{
+			logger.log(LogLevel.ERROR, aMessage);
+		}
+	}
+
+
+	private class WatchedDirectory implements Runnable
+	{
+		private final String mPath;
+		private final String mAbsolutePath;
+		private final DirectoryListener mListener;
+		private HashMap<String, Integer> mSnapshot;
+		private RemoteFileList mFiles;
+		private long[] mDateTimes;
+		private ScheduledFuture<?> mFuture;
+		private volatile long mInterval;
+		private volatile boolean mCancelled;
+
+
+		WatchedDirectory(String aPath, String aAbsolutePath, DirectoryListener aListener)
+		{
+			mPath = aPath;
+			mAbsolutePath = aAbsolutePath;
+			mListener = aListener;
+			mInterval = mMinInterval;
+		}
+
+
+		synchronized void schedule(long aDelay)
+		{
+			if (!mCancelled && !mScheduler.isShutdown())
+			{
+				mFuture = mScheduler.schedule(this, aDelay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+
+		synchronized void cancel()
+		{
+			mCancelled = true;
+
+			if (mFuture != null)
+			{
+				mFuture.cancel(false);
+			}
+		}
+
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				RemoteFileList files = list(mAbsolutePath);
+
+				if (compare(files, getDateTimes(mAbsolutePath, files)))
+				{
+					mInterval = mMinInterval;
+				}
+				else
+				{
+					mInterval = Math.min(2 * mInterval, mMaxInterval);
+				}
+			}
+			catch (IOException e)
+			{
+				mInterval = Math.min(2 * mInterval, mMaxInterval);
+				watchFailed(e);
+			}
+			catch (RuntimeException e)
+			{
+				mInterval = Math.min(2 * mInterval, mMaxInterval);
+				watchFailed(new IOException(e));
+			}
+
+			schedule(mInterval);
+		}
+
+
+		/**
+		 * Replaces the snapshot with the new listing and reports the differences.
+		 *
+		 * @param aDateTimes the modification times of the files listed.
+		 * @return true if a change was detected.
+		 */
+		private boolean compare(RemoteFileList aFiles, long[] aDateTimes)
+		{
+			HashMap<String, Integer> snapshot = new HashMap<>(2 * aFiles.size());
+			for (int i = 0; i < aFiles.size(); i++)
+			{
+				snapshot.put(aFiles.getName(i), i);
+			}
+
+			HashMap<String, Integer> previous = mSnapshot;
+			RemoteFileList previousFiles = mFiles;
+			long[] previousDateTimes = mDateTimes;
+
+			mSnapshot = snapshot;
+			mFiles = aFiles;
+			mDateTimes = aDateTimes;
+
+			if (previous == null || mCancelled)
+			{
+				return false;
+			}
+
+			boolean changed = false;
+
+			for (Map.Entry<String, Integer> entry : snapshot.entrySet())
+			{
+				int index = entry.getValue();
+				Integer previousIndex = previous.remove(entry.getKey());
+
+				if (previousIndex == null)
+				{
+					directoryChanged(Change.CREATED, aFiles.get(index));
+					changed = true;
+				}
+				else if (aFiles.getSize(index) != previousFiles.getSize(previousIndex) || aDateTimes[index] != previousDateTimes[previousIndex])
+				{
+					directoryChanged(Change.MODIFIED, aFiles.get(index));
+					changed = true;
+				}
+			}
+
+			for (int index : previous.values())
+			{
+				directoryChanged(Change.DELETED, previousFiles.get(index));
+				changed = true;
+			}
+
+			return changed;
+		}
+
+
+		/**
+		 * Reports a change to the listener. The snapshot has already been replaced, an exception thrown by the listener is logged instead
+		 * of preventing the remaining changes from being reported.
+		 */
+		private void directoryChanged(Change aChange, RemoteFile aFile)
+		{
+			try
+			{
+				mListener.directoryChanged(aChange, aFile);
+			}
+			catch (RuntimeException e)
+			{
+				log(() -> "CLIENT: <directory listener of " + mPath + " failed on " + aChange + " " + aFile.getName() + ": " + e + ">");
+			}
+		}
+
+
+		private void watchFailed(IOException aException)
+		{
+			try
+			{
+				mListener.watchFailed(mPath, aException);
+			}
+			catch (RuntimeException e)
+			{
+				log(() -> "CLIENT: <directory listener of " + mPath + " failed: " + e + ">");
+			}
+		}
+	}
+}
@@ -2,22 +2,82 @@ package org.terifan.net.ftp.client;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.LineNumberReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.StringReader;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import org.terifan.util.Calendar;
-
-
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+
+/**
+ * A client for the File Transfer Protocol.<p>
+ *
+ * An FTPClient may be shared by threads. Every operation performing commands on the control connection, including the multi-step
+ * sequences of transfers and renames, holds a fair lock for it's whole duration, hence operations of different threads never interleave
+ * and are performed in the order they were requested. A transfer holds the lock until it has completed; other threads wait unless a
+ * metadata session is used (see setUseMetadataSession).<p>
+ *
+ * A stream returned by openInputStream or openOutputStream owns the control connection from the time it's opened until it has been
+ * closed and the final reply of it's transfer has been read. Operations of other threads wait for the stream to be closed, which may be
+ * done by any thread. The thread that opened the stream must close it before performing other operations, an IllegalStateException is
+ * thrown otherwise. Each read of a channel returned by openSeekableChannel is an operation of it's own.<p>
+ *
+ * Setters and getters of settings don't take the lock, settings should be assigned before the client is shared. The abort and close
+ * methods never wait for the lock.
+ */
 public class FTPClient implements Closeable
 {
 	private final static String CRLF = "\015\012";
-	private boolean mIsConnected;
+	private final static int CONTROL_TIMEOUT = 360_000;
+	private final static int ABORT_TIMEOUT = 10_000;
+	private final static int KEEP_ALIVE_TIMEOUT = 10_000;
+	private final static int PIPELINE_WINDOW = 32;
+	private final static Pattern TOTAL_LINE = Pattern.compile("^total [0-9]{1,10}$");
+	private final static Pattern TRANSFER_SIZE = Pattern.compile("\\(([0-9]+) bytes\\)");
+	private final static ReentrantLock TIE_LOCK = new ReentrantLock();
+	private volatile boolean mIsConnected;
 	private boolean mIsUnixServer;
 	private boolean mUsePassiveConnection;
 	private boolean mTypeSent;
@@ -27,7 +87,46 @@ public class FTPClient implements Closeable
 	private InputStream mInputStream;
 	private OutputStream mOutputStream;
 	private String mCurrentServerTypeSetting;
-	private PrintStream mLog;
+	private FTPLogger mLogger;
+	private TransferPool mTransferPool;
+	private ReplyParser mReplyParser;
+	private ControlEventLoop mControlEventLoop;
+	private ControlConnection mControlConnection;
+	private Set<String> mFeatures;
+	private final AtomicLong mParseFailureCount;
+	private final ReentrantLock mExchangeLock;
+	private final Condition mStreamClosed;
+	private Thread mStreamThread;
+	private final AtomicLong mOperationCount;
+	private final AtomicLong mContendedOperationCount;
+	private final AtomicLong mOperationWaitTime;
+	private final AtomicInteger mActiveTransfers;
+	private final AtomicInteger mReconnectCount;
+	private String mUserName;
+	private String mPassword;
+	private String mWorkingDirectory;
+	private long mKeepAliveInterval;
+	private ScheduledFuture<?> mKeepAliveFuture;
+	private volatile long mLastActivity;
+	private RetryPolicy mRetryPolicy;
+	private int mSpoolMemoryLimit;
+	private File mSpoolDirectory;
+	private int mParallelParsingThreshold;
+	private boolean mUseMetadataSession;
+	private volatile FTPClient mMetadataSession;
+	private final ReentrantLock mMetadataLock;
+	private volatile DataSocket mActiveTransfer;
+	private SSLContext mSSLContext;
+	private boolean mDataProtected;
+	private String mHashAlgorithm;
+	private boolean mUseCompression;
+	private long mProgressInterval;
+	private long mProgressByteInterval;
+	private Executor mProgressExecutor;
+	private boolean mCompressedMode;
+	private int mCompressionLevel;
+	private Deflater mDeflater;
+	private Inflater mInflater;
 
 
 	/**
@@ -43,6 +142,20 @@ public class FTPClient implements Closeable
 		mPort = aPort;
 		mUsePassiveConnection = aUsePassive;
 		mCurrentServerTypeSetting = "I";
+		mCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+		mProgressInterval = 100;
+		mProgressByteInterval = Long.MAX_VALUE;
+		mSpoolMemoryLimit = -1;
+		mParallelParsingThreshold = -1;
+		mParseFailureCount = new AtomicLong();
+		mExchangeLock = new ReentrantLock(true);
+		mStreamClosed = mExchangeLock.newCondition();
+		mOperationCount = new AtomicLong();
+		mContendedOperationCount = new AtomicLong();
+		mOperationWaitTime = new AtomicLong();
+		mActiveTransfers = new AtomicInteger();
+		mMetadataLock = new ReentrantLock();
+		mReconnectCount = new AtomicInteger();
 	}
 
 
@@ -60,802 +173,4015 @@ public class FTPClient implements Closeable
 
 	/**
 	 * Sets the output for the communications log. When the log is enabled, all communications between the client and server is written to
-	 * the PrintStream provided.<p>
+	 * the PrintStream provided. This is equal to calling setLogger with a PrintStreamLogger logging the DEBUG level.<p>
 	 *
 	 * The logging is enabled if PrintStream object provided is non null.<p>
 	 *
-	 * Warning: the communications log may contain the user name and password of the user logging on to the server.
+	 * Warning: the communications log may contain the user name of the user logging on to the server. Passwords are masked.
 	 *
 	 * @param aPrintStream a PrintStream object receiving the communications log.
 	 */
 	public void setLogOutput(PrintStream aPrintStream)
 	{
-		mLog = aPrintStream;
+		mLogger = aPrintStream == null ? null : new PrintStreamLogger(aPrintStream, LogLevel.DEBUG);
 	}
 
 
 	/**
 	 * Returns the communications log PrintStream object.
 	 *
-	 * @return the communications log PrintStream object.
+	 * @return the communications log PrintStream object or null if no PrintStreamLogger is used.
 	 */
 	public PrintStream getCommunicationsLogOutput()
 	{
-		return mLog;
+		return mLogger instanceof PrintStreamLogger ? ((PrintStreamLogger)mLogger).getPrintStream() : null;
 	}
 
 
 	/**
-	 * Connects this client with the server with the user information provided.
+	 * Sets the FTPLogger receiving the log messages of this client.
 	 *
-	 * @param aUserName the user name used for authentication.
-	 * @param aPassword the password used for authentication.
-	 * @param aInitialPath initial path on the serve. Null or zero length values are ignored.
-	 * @throws IOException if the client already is connected.
+	 * @param aLogger an FTPLogger or null to disable logging.
 	 */
-	public synchronized void connect(String aUserName, String aPassword, String aInitialPath) throws IOException
+	public void setLogger(FTPLogger aLogger)
 	{
-		if (mIsConnected)
-		{
-			throw new IOException("Client already connected.");
-		}
-
-		mSocket = new Socket(mHostAddress, mPort);
-		mSocket.setSoTimeout(360_000);
-		mInputStream = mSocket.getInputStream();
-		mOutputStream = mSocket.getOutputStream();
-		mIsConnected = true;
+		mLogger = aLogger;
+	}
 
-		readInput();
 
-		writeOutput("USER " + aUserName);
+	public FTPLogger getLogger()
+	{
+		return mLogger;
+	}
 
-		Input input = readInput();
 
-		if (input.code == 530)
+	private void log(LogLevel aLevel, Supplier<String> aMessage)
+	{
+		FTPLogger logger = mLogger;
+		if (logger != null)
 		{
-			throw new IOException(input.toString());
+			logger.log(aLevel, aMessage);
 		}
+	}
 
-		writeOutput("PASS " + aPassword);
-
-		input = readInput();
 
-		if (input.code == 530)
-		{
-			throw new IOException(input.toString());
-		}
+	/**
+	 * Sets the pool performing data transfers. When no pool is set, transfers are performed on the thread calling this client.
+	 *
+	 * @param aTransferPool a TransferPool, possibly shared with other clients, or null.
+	 */
+	public void setTransferPool(TransferPool aTransferPool)
+	{
+		mTransferPool = aTransferPool;
+	}
 
-		if (aInitialPath != null && aInitialPath.length() > 0 && !getWorkingDirectory().equals(aInitialPath))
-		{
-			changeWorkingDirectory(aInitialPath);
-		}
 
+	/**
+	 * Returns the pool performing data transfers or null if transfers are performed on the calling thread.
+	 */
+	public TransferPool getTransferPool()
+	{
+		return mTransferPool;
 	}
 
 
 	/**
-	 * Gets the contents of a file on the server.
+	 * Sets how often the progress of transfers is reported to ProgressListeners. A progress event is created when either the interval has
+	 * passed or the number of bytes has been transferred since the previous event. The start and completion of a transfer are always
+	 * reported. By default progress is reported every 100 milliseconds.
 	 *
-	 * @param aFile the reference to a file on the remote server.
-	 * @param aOutputStream the file contents is written to this OutputStream.
-	 * @return true if the file were successfully read.
-	 * @throws IllegalArgumentException if the aFile object represents a directory.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * @param aInterval minimum time between progress events in milliseconds or Long.MAX_VALUE to ignore the time.
+	 * @param aByteInterval minimum number of bytes transferred between progress events or Long.MAX_VALUE to ignore the byte count.
 	 */
-	public boolean getFile(RemoteFile aFile, OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException, IllegalArgumentException, ResponseCodeException
+	public void setProgressInterval(long aInterval, long aByteInterval)
 	{
-		if (aFile.isDirectory())
+		if (aInterval < 0 || aByteInterval < 0)
 		{
-			throw new IllegalArgumentException("aFile provided is a directory.");
+			throw new IllegalArgumentException("aInterval and aByteInterval must not be negative.");
 		}
 
-		return getFile(aFile.getAbsolutePath(), aOutputStream, aProgressListener);
+		mProgressInterval = aInterval;
+		mProgressByteInterval = aByteInterval;
+	}
+
+
+	public long getProgressInterval()
+	{
+		return mProgressInterval;
+	}
+
+
+	public long getProgressByteInterval()
+	{
+		return mProgressByteInterval;
 	}
 
 
 	/**
-	 * Gets the contents of a file on the remote server.
+	 * Sets the executor delivering progress events to ProgressListeners. Events are delivered in order and a progress event not yet
+	 * delivered is replaced by a newer one, hence a slow listener never delays a transfer. When no executor is set, events are delivered
+	 * on the thread performing the transfer.
 	 *
-	 * @param aPath the path to the file on the remote server.
-	 * @param aOutputStream the file contents is written to this OutputStream.
-	 * @return true if the file were successfully read or false if reading the file failed.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * @param aExecutor an Executor or null.
 	 */
-	public boolean getFile(String aPath, OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	public void setProgressExecutor(Executor aExecutor)
 	{
-		Input input;
-
-		setType(mCurrentServerTypeSetting);
-
-		DataSocket dataSocket;
+		mProgressExecutor = aExecutor;
+	}
 
-		if (mUsePassiveConnection)
-		{
-			writeOutput("PASV");
 
-			input = readInput();
-			if (input.code != 227)
-			{
-				throw new ResponseCodeException("Expected response 227, response: " + input);
-			}
+	public Executor getProgressExecutor()
+	{
+		return mProgressExecutor;
+	}
 
-			dataSocket = PassiveDataSocket.createInputSocket(input.toString(), aOutputStream, aProgressListener);
-			dataSocket.start();
-		}
-		else
-		{
-			dataSocket = ActiveDataSocket.createInputSocket(aOutputStream, aProgressListener);
-			dataSocket.start();
 
-			writeOutput("PORT " + dataSocket.getAddress());
+	/**
+	 * Enables compressed transfers (MODE Z). Compression is only used when the server advertises MODE Z in it's FEAT response, otherwise
+	 * transfers silently fall back to stream mode. Streamed and range transfers are never compressed.
+	 *
+	 * @param aUseCompression true to compress file and listing transfers.
+	 */
+	public void setUseCompression(boolean aUseCompression)
+	{
+		mUseCompression = aUseCompression;
+	}
 
-			input = readInput();
-			if (input.code != 200)
-			{
-				throw new ResponseCodeException("Expected response 200, response: " + input);
-			}
-		}
 
-		writeOutput("RETR " + aPath);
+	public boolean getUseCompression()
+	{
+		return mUseCompression;
+	}
 
-		input = readInput();
-		if (input.code == 550)
-		{
-			return false;
-		}
-		else if (input.code != 150)
-		{
-			throw new ResponseCodeException("Expected response 150, response: " + input);
-		}
 
-		if (mLog != null)
+	/**
+	 * Sets the compression level used when uploading files in MODE Z.
+	 *
+	 * @param aCompressionLevel a level between 0 and 9 or -1 for the default level.
+	 */
+	public void setCompressionLevel(int aCompressionLevel)
+	{
+		if (aCompressionLevel < -1 || aCompressionLevel > 9)
 		{
-			mLog.println(Calendar.now() + " CLIENT: <receiving data>");
+			throw new IllegalArgumentException("aCompressionLevel must be between -1 and 9.");
 		}
 
-		input = readInput();
-		if (input.code != 226)
-		{
-			throw new ResponseCodeException("Expected response 226, response: " + input);
-		}
+		mCompressionLevel = aCompressionLevel;
+	}
 
-		dataSocket.block();
 
-		return true;
+	public int getCompressionLevel()
+	{
+		return mCompressionLevel;
 	}
 
 
 	/**
-	 * Stores a file on the remote server.
+	 * Sets the event loop handling the control connection of this client. When an event loop is set, the control connection is
+	 * non-blocking and shares the Selector threads of the event loop with other clients. The event loop must be set before connecting.<p>
 	 *
-	 * @param aFile the reference to a file on the remote server.
-	 * @param aInputStream a input stream containing the file data.
-	 * @param aProgressListener a ProgressListener or null. The ProgressListener receive progress information from the client
-	 * @return true if the file were successfully uploaded or false if upload failed.
-	 * @throws IllegalArgumentException if the aFile is a directory.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * Note: only executeAsync is asynchronous, all other methods wait for the replies of the server on the calling thread.
+	 *
+	 * @param aControlEventLoop a ControlEventLoop or null to use a blocking control connection.
 	 */
-	public boolean putFile(RemoteFile aFile, InputStream aInputStream, ProgressListener aProgressListener) throws IOException, IllegalArgumentException, ResponseCodeException
+	public void setControlEventLoop(ControlEventLoop aControlEventLoop)
 	{
-		if (aFile.isDirectory())
-		{
-			throw new IllegalArgumentException("aFile provided is a directory.");
-		}
+		mControlEventLoop = aControlEventLoop;
+	}
 
-		return putFile(aFile.getAbsolutePath(), aInputStream, aProgressListener);
+
+	/**
+	 * Returns the event loop handling the control connection or null if a blocking control connection is used.
+	 */
+	public ControlEventLoop getControlEventLoop()
+	{
+		return mControlEventLoop;
 	}
 
 
 	/**
-	 * Stores a file on the remote server.
+	 * Connects this client with the server with the user information provided.
 	 *
-	 * @param aPath the path to the file on the remote server.
-	 * @param aInputStream a input stream containing the file data.
-	 * @param aProgressListener a ProgressListener or null. The ProgressListener receive progress information from the client
-	 * @return true if the file were successfully uploaded or false if upload failed.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * @param aUserName the user name used for authentication.
+	 * @param aPassword the password used for authentication.
+	 * @param aInitialPath initial path on the serve. Null or zero length values are ignored.
+	 * @throws IOException if the client already is connected.
 	 */
-	public boolean putFile(String aPath, InputStream aInputStream, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	public void connect(String aUserName, String aPassword, String aInitialPath) throws IOException
 	{
-		Input input;
+		lockExchange();
+		try
+		{
+			if (mIsConnected)
+			{
+				throw new IOException("Client already connected.");
+			}
 
-		setType(mCurrentServerTypeSetting);
+			mUserName = aUserName;
+			mPassword = aPassword;
 
-		DataSocket dataSocket;
+			open(aInitialPath);
 
-		if (mUsePassiveConnection)
+			scheduleKeepAlive();
+		}
+		finally
 		{
-			writeOutput("PASV");
+			mExchangeLock.unlock();
+		}
+	}
 
-			input = readInput();
-			if (input.code != 227)
-			{
-				throw new ResponseCodeException("Expected response 227, response: " + input);
-			}
 
-			dataSocket = PassiveDataSocket.createOutputSocket(input.toString(), aInputStream, aProgressListener);
-			dataSocket.start();
+	/**
+	 * Opens the control connection and logs on to the server with the stored user information.
+	 */
+	private void open(String aInitialPath) throws IOException
+	{
+		if (mControlEventLoop != null && mSSLContext == null)
+		{
+			mControlConnection = mControlEventLoop.connect(this, mHostAddress, mPort, CONTROL_TIMEOUT);
 		}
 		else
 		{
-			dataSocket = ActiveDataSocket.createOutputSocket(aInputStream, aProgressListener);
-			dataSocket.start();
+			mSocket = new Socket(mHostAddress, mPort);
+			mSocket.setSoTimeout(CONTROL_TIMEOUT);
+			mInputStream = mSocket.getInputStream();
+			mOutputStream = mSocket.getOutputStream();
+			mReplyParser = new ReplyParser();
+		}
+		mIsConnected = true;
+		mFeatures = null;
+		mHashAlgorithm = null;
+		mCompressedMode = false;
+		mTypeSent = false;
+		mWorkingDirectory = null;
+		mDataProtected = false;
 
-			writeOutput("PORT " + dataSocket.getAddress());
+		readInput();
 
-			input = readInput();
-			if (input.code != 200)
-			{
-				throw new ResponseCodeException("Expected response 200, response: " + input);
-			}
+		if (mSSLContext != null)
+		{
+			secureControlConnection();
 		}
 
-		writeOutput("STOR " + aPath);
+		writeOutput("USER " + mUserName);
 
-		input = readInput();
-		if (input.code == 550)
+		Input input = readInput();
+
+		if (input.code == 530)
 		{
-			throw new ResponseCodeException("Access denied, response: " + input);
+			throw new IOException(input.toString());
 		}
-		if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+
+		writeOutput("PASS " + mPassword);
+
+		input = readInput();
+
+		if (input.code == 530)
 		{
-			throw new ResponseCodeException("Expected response 150 or 125, response: " + input);
+			throw new IOException(input.toString());
 		}
 
-		if (mLog != null)
+		if (mSSLContext != null)
 		{
-			mLog.println(Calendar.now() + " CLIENT: <sending data>");
+			protectDataConnections();
 		}
 
-		input = readInput();
-		if (input.code != 226)
+		if (aInitialPath != null && aInitialPath.length() > 0)
 		{
-			throw new ResponseCodeException("Expected response 226, response: " + input);
-		}
+			// reading and changing the working directory set the type to ASCII, the type of the transfers is restored
+			String type = mCurrentServerTypeSetting;
 
-		dataSocket.block();
+			if (!getWorkingDirectory().equals(aInitialPath))
+			{
+				changeWorkingDirectory(aInitialPath);
+			}
 
-		return true;
+			setType(type);
+		}
 	}
 
 
 	/**
-	 * Deletes a file on the remote server.
-	 *
-	 * @param aFile the reference to a file on the remote server.
-	 * @return true if the directory were deleted or false if the client lack permission to delete the directory.
-	 * @throws IllegalArgumentException if the aFile is a directory.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * Upgrades the control connection to TLS using the AUTH TLS command.
 	 */
-	public boolean deleteFile(RemoteFile aFile) throws IOException, IllegalArgumentException, ResponseCodeException
+	private void secureControlConnection() throws IOException
 	{
-		if (aFile.isDirectory())
+		writeOutput("AUTH TLS");
+
+		Input input = readInput();
+		if (input.code != 234)
 		{
-			throw new IllegalArgumentException("aFile provided is a directory.");
+			throw new ResponseCodeException("Expected response 234, response: " + input, input.code);
 		}
 
-		return deleteFile(aFile.getAbsolutePath());
+		SSLSocket socket = (SSLSocket)mSSLContext.getSocketFactory().createSocket(mSocket, mHostAddress, mPort, true);
+		socket.setUseClientMode(true);
+
+		// the certificate must be issued for the host connected to, a certificate of any trusted server would otherwise be accepted
+		SSLParameters parameters = socket.getSSLParameters();
+		parameters.setEndpointIdentificationAlgorithm("HTTPS");
+		socket.setSSLParameters(parameters);
+
+		socket.startHandshake();
+
+		mSocket = socket;
+		mInputStream = socket.getInputStream();
+		mOutputStream = socket.getOutputStream();
+
+		log(LogLevel.DEBUG, () -> "CLIENT: <" + socket.getSession().getProtocol() + " " + socket.getSession().getCipherSuite() + ">");
 	}
 
 
 	/**
-	 * Deletes a file on the remote server.
-	 *
-	 * @param aPath the path to the file on the remote server.
-	 * @return true if the file were deleted or false if the client lack permission to delete the file.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * Enables protection of the data connections using the PBSZ and PROT commands.
 	 */
-	public boolean deleteFile(String aPath) throws IOException, ResponseCodeException
+	private void protectDataConnections() throws IOException
 	{
-		writeOutput("DELE " + aPath);
+		writeOutput("PBSZ 0");
 
 		Input input = readInput();
-		if (input.code != 250 && input.code != 550)
+		if (input.code != 200)
 		{
-			throw new ResponseCodeException("Expected response 250 or 550, response: " + input);
+			throw new ResponseCodeException("Expected response 200, response: " + input, input.code);
 		}
 
-		return input.code == 250;
-	}
-
+		writeOutput("PROT P");
 
-	/**
-	 * Deletes a directory on the remote server.
-	 *
-	 * @param aFile the reference to a directory on the remote server.
-	 * @return true if the directory were deleted or false if the client lack permission to delete the directory.
-	 * @throws IllegalArgumentException if the aFile isn't a directory.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
-	 */
-	public boolean deleteDirectory(RemoteFile aFile) throws IOException, IllegalArgumentException, ResponseCodeException
-	{
-		if (!aFile.isDirectory())
+		input = readInput();
+		if (input.code != 200)
 		{
-			throw new IllegalArgumentException("aFile provided is a directory.");
+			throw new ResponseCodeException("Expected response 200, response: " + input, input.code);
 		}
 
-		return deleteDirectory(aFile.getAbsolutePath());
+		mDataProtected = true;
 	}
 
 
 	/**
-	 * Deletes a directory on the remote server.
+	 * Sets the SSLContext used to secure the connections to the server using explicit FTPS (RFC 4217). When set the control connection
+	 * is upgraded to TLS with the AUTH TLS command before logging on and the data connections are protected with PROT P. Data connections
+	 * resume the TLS session of the control connection, as required by many servers, to avoid a full handshake for each transfer. The
+	 * certificate of the server is verified against the host name or address the client was created with, like HTTPS does.<p>
 	 *
-	 * @param aPath the path to the file on the remote server.
-	 * @return true if the directory were deleted or false if the client lack permission to delete the directory.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * Note: TLS connections are not handled by the ControlEventLoop, a blocking socket is used for the control connection.
+	 *
+	 * @param aSSLContext an initialized SSLContext or null to not use TLS (default).
 	 */
-	public boolean deleteDirectory(String aPath) throws IOException, ResponseCodeException
+	public void setSSLContext(SSLContext aSSLContext)
 	{
-		writeOutput("RMD " + aPath);
+		mSSLContext = aSSLContext;
+	}
 
-		Input input = readInput();
-		if (input.code != 250 && input.code != 550)
-		{
-			throw new ResponseCodeException("Expected response 250 or 550, response: " + input);
-		}
 
-		return input.code == 250;
+	public SSLContext getSSLContext()
+	{
+		return mSSLContext;
 	}
 
 
 	/**
-	 * Creates a directory on the remote server.
-	 *
-	 * @param aPath the path to the directory on the remote server.
-	 * @return true if the directory were successfully created.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * Returns true if the client is connected to the server.
 	 */
-	public boolean createDirectory(String aPath) throws IOException, ResponseCodeException
+	public boolean isConnected()
 	{
-		writeOutput("MKD " + aPath);
+		return mIsConnected;
+	}
 
-		Input input = readInput();
-		if (input.code != 257 && input.code != 550)
-		{
-			throw new ResponseCodeException("Expected response 257 or 550, response: " + input);
+
+	/**
+	 * Sets the interval of the keep-alive. When the control connection has been idle for the interval and no transfer is in progress a
+	 * NOOP command is sent to the server. If the server doesn't respond within 10 seconds the connection is closed and the client
+	 * reconnects, logs on and restores the working directory.<p>
+	 *
+	 * Note: the client keeps the user name and password in memory to be able to reconnect.
+	 *
+	 * @param aInterval the interval in milliseconds or zero to disable the keep-alive.
+	 */
+	public void setKeepAliveInterval(long aInterval)
+	{
+		if (aInterval < 0)
+		{
+			throw new IllegalArgumentException("aInterval must not be negative.");
+		}
+
+		lockExchange();
+		try
+		{
+			mKeepAliveInterval = aInterval;
+
+			if (mIsConnected)
+			{
+				scheduleKeepAlive();
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	public long getKeepAliveInterval()
+	{
+		return mKeepAliveInterval;
+	}
+
+
+	/**
+	 * Returns the number of times the keep-alive has reconnected this client.
+	 */
+	public int getReconnectCount()
+	{
+		return mReconnectCount.get();
+	}
+
+
+	/**
+	 * Sets the policy deciding if a failed idempotent operation should be retried. Idempotent operations are listing files, reading files,
+	 * querying file sizes and information, and deleting files. If the control connection was lost the client reconnects, logs on and
+	 * restores the working directory before retrying.<p>
+	 *
+	 * Note: the client keeps the user name and password in memory to be able to reconnect.
+	 *
+	 * @param aRetryPolicy a RetryPolicy or null to never retry operations (default).
+	 */
+	public void setRetryPolicy(RetryPolicy aRetryPolicy)
+	{
+		mRetryPolicy = aRetryPolicy;
+	}
+
+
+	public RetryPolicy getRetryPolicy()
+	{
+		return mRetryPolicy;
+	}
+
+
+	/**
+	 * Enables spooling of uploads. The data of an upload is kept while it's sent, allowing a failed upload to be retried as decided by the
+	 * RetryPolicy without reading the InputStream again. A retried binary upload is resumed with the REST command from the size of the
+	 * partial file on the server when the server supports it and no hash is computed, otherwise the upload is restarted. The spooled data
+	 * is released when the upload completes.
+	 *
+	 * @param aMemoryLimit maximum number of bytes of each upload kept in memory, bytes beyond the limit are kept in a temporary file, or -1
+	 * to disable spooling (default).
+	 * @param aDirectory the directory of the temporary files or null to use the default temporary directory.
+	 */
+	public void setUploadSpooling(int aMemoryLimit, File aDirectory)
+	{
+		if (aMemoryLimit < -1)
+		{
+			throw new IllegalArgumentException("Illegal memory limit: " + aMemoryLimit);
+		}
+
+		mSpoolMemoryLimit = aMemoryLimit;
+		mSpoolDirectory = aDirectory;
+	}
+
+
+	public int getUploadSpoolMemoryLimit()
+	{
+		return mSpoolMemoryLimit;
+	}
+
+
+	public File getUploadSpoolDirectory()
+	{
+		return mSpoolDirectory;
+	}
+
+
+	/**
+	 * Enables parsing of large directory listings on multiple threads. A listing is split at line boundaries into chunks parsed in
+	 * parallel by the common ForkJoinPool and the files are returned in the order listed by the server.
+	 *
+	 * @param aThreshold minimum size in bytes of a listing parsed in parallel or -1 to always parse listings on the calling thread
+	 * (default).
+	 */
+	public void setParallelParsingThreshold(int aThreshold)
+	{
+		if (aThreshold < -1)
+		{
+			throw new IllegalArgumentException("Illegal threshold: " + aThreshold);
+		}
+
+		mParallelParsingThreshold = aThreshold;
+	}
+
+
+	public int getParallelParsingThreshold()
+	{
+		return mParallelParsingThreshold;
+	}
+
+
+	/**
+	 * Enables a second session used for metadata operations while a transfer is in progress. When another thread lists files, queries
+	 * file sizes or information, renames, deletes or creates files while this client is transferring data, the operation is performed on
+	 * the second session instead of waiting for the transfer to complete. The session is opened when first needed, using the settings and
+	 * user information of this client, follows the working directory of this client and remains open until this client is closed.
+	 * Operations on the second session are performed one at a time.
+	 *
+	 * @param aUseMetadataSession true to use a second session during transfers.
+	 */
+	public void setUseMetadataSession(boolean aUseMetadataSession)
+	{
+		mUseMetadataSession = aUseMetadataSession;
+	}
+
+
+	public boolean getUseMetadataSession()
+	{
+		return mUseMetadataSession;
+	}
+
+
+	/**
+	 * Returns true if a metadata operation should be performed on the metadata session.
+	 */
+	private boolean isMetadataSessionUsed()
+	{
+		return mUseMetadataSession && mActiveTransfers.get() > 0 && mWorkingDirectory != null;
+	}
+
+
+	/**
+	 * Performs an operation on the metadata session, opening the session and changing it's working directory to the working directory of
+	 * this client when necessary.
+	 */
+	private <T> T onMetadataSession(SessionOperation<T> aOperation) throws IOException
+	{
+		mMetadataLock.lock();
+		try
+		{
+			if (mMetadataSession == null || !mMetadataSession.isConnected())
+			{
+				if (mMetadataSession != null)
+				{
+					mMetadataSession.close();
+				}
+
+				log(LogLevel.INFO, () -> "CLIENT: <opening metadata session>");
+
+				mMetadataSession = openSession();
+			}
+
+			String workingDirectory = mWorkingDirectory;
+
+			if (workingDirectory != null && !workingDirectory.equals(mMetadataSession.mWorkingDirectory) && !mMetadataSession.changeWorkingDirectory(workingDirectory))
+			{
+				throw new IOException("Failed to change working directory of metadata session: " + workingDirectory);
+			}
+
+			return aOperation.run(mMetadataSession);
+		}
+		finally
+		{
+			mMetadataLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Acquires the lock making an operation atomic, recording if the thread had to wait for another thread. Operations nested in an
+	 * operation already holding the lock aren't counted. While a stream is open the final reply of it's transfer is pending and the
+	 * operation waits until the stream has been closed.
+	 *
+	 * @throws IllegalStateException if a stream opened by the calling thread is open, the thread would otherwise wait for itself.
+	 */
+	private void lockExchange()
+	{
+		if (mExchangeLock.isHeldByCurrentThread())
+		{
+			mExchangeLock.lock();
+			return;
+		}
+
+		mOperationCount.incrementAndGet();
+
+		long time = System.nanoTime();
+		boolean contended = mExchangeLock.isLocked();
+
+		mExchangeLock.lock();
+
+		while (mStreamThread != null)
+		{
+			if (mStreamThread == Thread.currentThread())
+			{
+				mExchangeLock.unlock();
+				throw new IllegalStateException("The stream opened by this thread must be closed before performing other operations.");
+			}
+
+			contended = true;
+			mStreamClosed.awaitUninterruptibly();
+		}
+
+		if (contended)
+		{
+			mContendedOperationCount.incrementAndGet();
+			mOperationWaitTime.addAndGet(System.nanoTime() - time);
+		}
+	}
+
+
+	/**
+	 * Acquires the locks of two clients in an order independent of the order of the arguments, hence threads performing operations
+	 * involving the same two clients in opposite directions can't deadlock.
+	 */
+	private static void lockExchanges(FTPClient aClient, FTPClient aOtherClient)
+	{
+		int order = Integer.compare(System.identityHashCode(aClient), System.identityHashCode(aOtherClient));
+		FTPClient first = order < 0 ? aClient : aOtherClient;
+		FTPClient second = order < 0 ? aOtherClient : aClient;
+
+		// clients with equal hash codes have no order, the global lock prevents two threads from locking them at the same time
+		if (order == 0)
+		{
+			TIE_LOCK.lock();
+		}
+
+		try
+		{
+			first.lockExchange();
+			try
+			{
+				second.lockExchange();
+			}
+			catch (RuntimeException e)
+			{
+				first.mExchangeLock.unlock();
+				throw e;
+			}
+		}
+		finally
+		{
+			if (order == 0)
+			{
+				TIE_LOCK.unlock();
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of operations performed on this client, not counting operations nested in other operations.
+	 */
+	public long getOperationCount()
+	{
+		return mOperationCount.get();
+	}
+
+
+	/**
+	 * Returns the number of operations that had to wait for an operation of another thread to complete.
+	 */
+	public long getContendedOperationCount()
+	{
+		return mContendedOperationCount.get();
+	}
+
+
+	/**
+	 * Returns the total time in nanoseconds operations have waited for operations of other threads to complete.
+	 */
+	public long getOperationWaitTime()
+	{
+		return mOperationWaitTime.get();
+	}
+
+
+	/**
+	 * Performs an idempotent operation, retrying it as decided by the RetryPolicy.
+	 */
+	private <T> T retry(Operation<T> aOperation) throws IOException
+	{
+		return retry(aOperation, () -> true);
+	}
+
+
+	/**
+	 * Performs an idempotent operation, retrying it as decided by the RetryPolicy as long as the condition allows.
+	 */
+	private <T> T retry(Operation<T> aOperation, BooleanSupplier aCondition) throws IOException
+	{
+		RetryPolicy policy = mRetryPolicy;
+
+		if (policy == null)
+		{
+			return aOperation.run(1);
+		}
+
+		for (int attempt = 1;; attempt++)
+		{
+			policy.checkAvailable(mHostAddress);
+
+			try
+			{
+				if (!mIsConnected)
+				{
+					reconnectForRetry();
+				}
+
+				T result = aOperation.run(attempt);
+
+				policy.succeeded(mHostAddress);
+
+				return result;
+			}
+			catch (IOException e)
+			{
+				long delay = aCondition.getAsBoolean() && !(e instanceof TransferCancelledException) ? policy.getRetryDelay(mHostAddress, attempt, e) : -1;
+
+				if (delay < 0)
+				{
+					throw e;
+				}
+
+				log(LogLevel.WARN, () -> "CLIENT: <retrying in " + delay + " ms after " + e + ">");
+
+				// replies of a failed transfer may still be pending, the connection is replaced to be in a known state
+				if (!(e instanceof ResponseCodeException))
+				{
+					mExchangeLock.lock();
+					try
+					{
+						disconnect();
+					}
+					finally
+					{
+						mExchangeLock.unlock();
+					}
+				}
+
+				try
+				{
+					Thread.sleep(delay);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to retry.");
+				}
+			}
+		}
+	}
+
+
+	private void reconnectForRetry() throws IOException
+	{
+		mExchangeLock.lock();
+		try
+		{
+			if (!mIsConnected)
+			{
+				if (mUserName == null)
+				{
+					throw new IOException("Not connected to server");
+				}
+
+				reconnect();
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	private void scheduleKeepAlive()
+	{
+		cancelKeepAlive();
+
+		if (mKeepAliveInterval > 0)
+		{
+			mKeepAliveFuture = KeepAliveScheduler.schedule(this::keepAlive, mKeepAliveInterval);
+		}
+	}
+
+
+	private void cancelKeepAlive()
+	{
+		if (mKeepAliveFuture != null)
+		{
+			mKeepAliveFuture.cancel(false);
+			mKeepAliveFuture = null;
+		}
+	}
+
+
+	/**
+	 * Sends a NOOP command if the control connection has been idle for the keep-alive interval. Nothing is sent while a transfer is in
+	 * progress or another thread is communicating with the server. A connection not responding in time is closed and replaced.
+	 */
+	private void keepAlive()
+	{
+		// tryLock ignores the fairness of the lock, threads already waiting are not passed
+		if (mActiveTransfers.get() > 0 || mExchangeLock.hasQueuedThreads() || !mExchangeLock.tryLock())
+		{
+			return;
+		}
+
+		try
+		{
+			if (!mIsConnected)
+			{
+				// the client was closed while another thread held the lock
+				if (mUserName == null)
+				{
+					cancelKeepAlive();
+				}
+				return;
+			}
+			if (mStreamThread != null || System.currentTimeMillis() - mLastActivity < mKeepAliveInterval)
+			{
+				return;
+			}
+
+			writeOutput("NOOP");
+
+			// callers waiting for the lock must not wait long for an unresponsive server
+			Input input = pollInput(KEEP_ALIVE_TIMEOUT);
+			if (input == null || input.code == 421)
+			{
+				log(LogLevel.WARN, () -> "CLIENT: <no response to keep-alive: " + input + ">");
+				disconnect();
+			}
+			else if (mWorkingDirectory == null)
+			{
+				queryWorkingDirectory();
+			}
+		}
+		catch (IOException e)
+		{
+			// the connection has been closed by the failed read or write
+			log(LogLevel.WARN, () -> "CLIENT: <keep-alive failed: " + e + ">");
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+
+		if (!mIsConnected)
+		{
+			reconnectDropped();
+		}
+	}
+
+
+	/**
+	 * Reconnects a client whose connection was closed by the keep-alive. Operations waiting for the reconnect would fail without a
+	 * connection.
+	 */
+	private void reconnectDropped()
+	{
+		mExchangeLock.lock();
+		try
+		{
+			// a pending stream reads it's final reply from the connection that was closed
+			if (!mIsConnected && mUserName != null && mStreamThread == null)
+			{
+				reconnect();
+			}
+		}
+		catch (IOException e)
+		{
+			log(LogLevel.WARN, () -> "CLIENT: <reconnect failed: " + e + ">");
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Replaces a dead control connection with a new one, logs on and restores the working directory.
+	 */
+	private void reconnect() throws IOException
+	{
+		log(LogLevel.INFO, () -> "CLIENT: <reconnecting>");
+
+		String workingDirectory = mWorkingDirectory;
+
+		closeConnection(false);
+
+		open(workingDirectory);
+
+		mReconnectCount.incrementAndGet();
+	}
+
+
+	/**
+	 * Opens another session with the server using the settings and user information of this client. The working directory of the new
+	 * session is the initial directory of the server.
+	 */
+	FTPClient openSession() throws IOException
+	{
+		if (mUserName == null)
+		{
+			throw new IOException("Not connected to server");
+		}
+
+		FTPClient client = new FTPClient(mHostAddress, mPort, mUsePassiveConnection);
+		client.mIsUnixServer = mIsUnixServer;
+		client.mLogger = mLogger;
+		client.mTransferPool = mTransferPool;
+		client.mControlEventLoop = mControlEventLoop;
+		client.mSSLContext = mSSLContext;
+		client.mRetryPolicy = mRetryPolicy;
+		client.mUseCompression = mUseCompression;
+		client.mCompressionLevel = mCompressionLevel;
+		client.mProgressInterval = mProgressInterval;
+		client.mProgressByteInterval = mProgressByteInterval;
+		client.mProgressExecutor = mProgressExecutor;
+		client.mCurrentServerTypeSetting = mCurrentServerTypeSetting;
+		client.mSpoolMemoryLimit = mSpoolMemoryLimit;
+		client.mSpoolDirectory = mSpoolDirectory;
+		client.mParallelParsingThreshold = mParallelParsingThreshold;
+		client.connect(mUserName, mPassword, null);
+		return client;
+	}
+
+
+	/**
+	 * Gets the contents of a file on the server.
+	 *
+	 * @param aFile the reference to a file on the remote server.
+	 * @param aOutputStream the file contents is written to this OutputStream.
+	 * @return true if the file were successfully read.
+	 * @throws IllegalArgumentException if the aFile object represents a directory.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean getFile(RemoteFile aFile, OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException, IllegalArgumentException, ResponseCodeException
+	{
+		if (aFile.isDirectory())
+		{
+			throw new IllegalArgumentException("aFile provided is a directory.");
+		}
+
+		return getFile(aFile.getAbsolutePath(), aOutputStream, aProgressListener);
+	}
+
+
+	/**
+	 * Gets the contents of a file on the remote server.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aOutputStream the file contents is written to this OutputStream.
+	 * @return true if the file were successfully read or false if reading the file failed.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean getFile(String aPath, OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		return getFile(aPath, aOutputStream, aProgressListener, null) != null;
+	}
+
+
+	/**
+	 * Gets the contents of a file on the remote server computing a hash of the contents while it's received. The hash is compared with the
+	 * hash reported by the server using the HASH, XMD5 or XCRC commands when supported by the server.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aOutputStream the file contents is written to this OutputStream.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @return the result of the transfer or null if reading the file failed.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public TransferResult getFile(String aPath, OutputStream aOutputStream, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm) throws IOException, ResponseCodeException
+	{
+		return getFile(aPath, aOutputStream, aProgressListener, aHashAlgorithm, null);
+	}
+
+
+	/**
+	 * Gets the contents of a file on the remote server and writes it to a local file. The local file is extended to the size of the remote
+	 * file before the transfer starts.
+	 *
+	 * @param aFile the reference to a file on the remote server.
+	 * @param aLocalFile the local file, created or replaced.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @return the result of the transfer or null if reading the file failed.
+	 * @throws IllegalArgumentException if the aFile object represents a directory.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public TransferResult getFile(RemoteFile aFile, Path aLocalFile, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm) throws IOException, IllegalArgumentException, ResponseCodeException
+	{
+		if (aFile.isDirectory())
+		{
+			throw new IllegalArgumentException("aFile provided is a directory.");
+		}
+
+		return getFile(aFile.getAbsolutePath(), aLocalFile, aFile.getSize(), aProgressListener, aHashAlgorithm);
+	}
+
+
+	/**
+	 * Gets the contents of a file on the remote server and writes it to a local file. The file is written through a FileChannel using a
+	 * larger buffer than transfers to an OutputStream. Unlike uploads the data isn't transferred by the operating system, a FileChannel
+	 * only transfers from a socket by copying through a buffer of it's own and would ignore the read timeout of the data connection. A failed transfer is retried from the beginning as decided by the RetryPolicy.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aLocalFile the local file, created or replaced.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @return the result of the transfer or null if reading the file failed.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public TransferResult getFile(String aPath, Path aLocalFile, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm) throws IOException, ResponseCodeException
+	{
+		return getFile(aPath, aLocalFile, -1, aProgressListener, aHashAlgorithm);
+	}
+
+
+	/**
+	 * @param aSize the size of the remote file if known or -1.
+	 */
+	private TransferResult getFile(String aPath, Path aLocalFile, long aSize, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			boolean created = !Files.exists(aLocalFile);
+			TransferResult result = null;
+
+			try (FileChannel channel = FileChannel.open(aLocalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				if (aSize > 0)
+				{
+					// Java can't allocate space without writing it, the file is only extended to it's expected size. File systems supporting sparse
+					// files still allocate the blocks as they are written, others allocate the space now. The file is truncated to the size received.
+					channel.write(ByteBuffer.wrap(new byte[1]), aSize - 1);
+				}
+
+				result = retry(aAttempt -> retrieveFile(aPath, null, channel, aProgressListener, aHashAlgorithm, null));
+
+				if (result == null)
+				{
+					channel.truncate(0);
+				}
+
+				return result;
+			}
+			finally
+			{
+				if (result == null && created)
+				{
+					Files.deleteIfExists(aLocalFile);
+				}
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Gets the contents of a file on the remote server. The transfer is performed by the executor and can be cancelled using the handle
+	 * returned. Other operations wait until the transfer is done.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aOutputStream the file contents is written to this OutputStream.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @param aExecutor the executor performing the transfer.
+	 * @return a handle to the transfer. The transfer fails with a ResponseCodeException if the file doesn't exist.
+	 */
+	public TransferHandle getFileAsync(String aPath, OutputStream aOutputStream, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm, Executor aExecutor)
+	{
+		TransferHandle handle = new TransferHandle(aPath, false);
+
+		return executeTransfer(handle, aExecutor, () ->
+		{
+			TransferResult result = getFile(aPath, aOutputStream, aProgressListener, aHashAlgorithm, handle);
+
+			if (result == null)
+			{
+				throw new ResponseCodeException("File not found: " + aPath, 550);
+			}
+
+			return result;
+		});
+	}
+
+
+	/**
+	 * Gets the contents of a file on the remote server. The transfer is aborted when the handle is cancelled.
+	 *
+	 * @param aHandle the handle of the transfer or null.
+	 */
+	TransferResult getFile(String aPath, OutputStream aOutputStream, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm, TransferHandle aHandle) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			if (mRetryPolicy == null)
+			{
+				return retrieveFile(aPath, aOutputStream, null, aProgressListener, aHashAlgorithm, aHandle);
+			}
+
+			// the transfer is only retried if no data has been written to the output stream
+			CountingOutputStream outputStream = new CountingOutputStream(aOutputStream);
+
+			return retry(aAttempt -> retrieveFile(aPath, outputStream, null, aProgressListener, aHashAlgorithm, aHandle), () -> outputStream.getCount() == 0);
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * @param aFileChannel a local file the contents is written to, starting at the beginning of the file, instead of the OutputStream or null.
+	 */
+	private TransferResult retrieveFile(String aPath, OutputStream aOutputStream, FileChannel aFileChannel, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm, TransferHandle aHandle) throws IOException, ResponseCodeException
+	{
+		setType(mCurrentServerTypeSetting);
+
+		DataSocket dataSocket = openDataSocket(null, aOutputStream, aFileChannel, -1, aProgressListener, mTransferPool);
+		mActiveTransfer = dataSocket;
+
+		try
+		{
+			if (aHandle != null)
+			{
+				aHandle.attach(dataSocket);
+			}
+			if (aHashAlgorithm != null)
+			{
+				dataSocket.mHasher = aHashAlgorithm.newHasher();
+			}
+			if (dataSocket.mAborted)
+			{
+				throw new TransferCancelledException("Transfer aborted.");
+			}
+
+			writeOutput("RETR " + aPath);
+
+			Input input = readInput();
+			if (input.code == 550)
+			{
+				return null;
+			}
+			else if (input.code != 150)
+			{
+				if (dataSocket.mAborted)
+				{
+					throw new TransferCancelledException("Transfer aborted.");
+				}
+				throw new ResponseCodeException("Expected response 150, response: " + input, input.code);
+			}
+
+			dataSocket.setTotalSize(parseTransferSize(input));
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <receiving data>");
+
+			awaitTransfer(dataSocket);
+
+			input = readInput();
+			if (input.code != 226)
+			{
+				throw new ResponseCodeException("Expected response 226, response: " + input, input.code);
+			}
+		}
+		finally
+		{
+			mActiveTransfer = null;
+			dataSocket.close();
+		}
+
+		return createTransferResult(aPath, dataSocket, aHashAlgorithm);
+	}
+
+
+	/**
+	 * Stores a file on the remote server.
+	 *
+	 * @param aFile the reference to a file on the remote server.
+	 * @param aInputStream a input stream containing the file data.
+	 * @param aProgressListener a ProgressListener or null. The ProgressListener receive progress information from the client
+	 * @return true if the file were successfully uploaded or false if upload failed.
+	 * @throws IllegalArgumentException if the aFile is a directory.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean putFile(RemoteFile aFile, InputStream aInputStream, ProgressListener aProgressListener) throws IOException, IllegalArgumentException, ResponseCodeException
+	{
+		if (aFile.isDirectory())
+		{
+			throw new IllegalArgumentException("aFile provided is a directory.");
+		}
+
+		return putFile(aFile.getAbsolutePath(), aInputStream, aProgressListener);
+	}
+
+
+	/**
+	 * Stores a file on the remote server.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aInputStream a input stream containing the file data.
+	 * @param aProgressListener a ProgressListener or null. The ProgressListener receive progress information from the client
+	 * @return true if the file were successfully uploaded or false if upload failed.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean putFile(String aPath, InputStream aInputStream, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		putFile(aPath, aInputStream, aProgressListener, null);
+
+		return true;
+	}
+
+
+	/**
+	 * Stores a file on the remote server computing a hash of the contents while it's sent. The hash is compared with the hash reported by
+	 * the server using the HASH, XMD5 or XCRC commands when supported by the server.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aInputStream a input stream containing the file data.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @return the result of the transfer.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public TransferResult putFile(String aPath, InputStream aInputStream, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm) throws IOException, ResponseCodeException
+	{
+		return putFile(aPath, aInputStream, aProgressListener, aHashAlgorithm, null);
+	}
+
+
+	/**
+	 * Stores a local file on the remote server. The file is sent by the operating system when possible, otherwise it's read into a buffer
+	 * and written to the data connection. A failed transfer is retried as decided by the RetryPolicy, resuming a binary upload with the REST command when the
+	 * server supports it and no hash is computed.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aLocalFile the local file.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @return the result of the transfer.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public TransferResult putFile(String aPath, Path aLocalFile, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			try (FileChannel channel = FileChannel.open(aLocalFile, StandardOpenOption.READ))
+			{
+				return retry(aAttempt ->
+				{
+					long offset = aAttempt > 1 && aHashAlgorithm == null ? getResumeOffset(aPath, channel.size()) : 0;
+
+					channel.position(offset);
+
+					return storeFile(aPath, null, channel, channel.size() - offset, aProgressListener, aHashAlgorithm, null, offset);
+				});
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Stores a file on the remote server. The transfer is performed by the executor and can be cancelled using the handle returned. Other
+	 * operations wait until the transfer is done.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aInputStream a input stream containing the file data.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @param aHashAlgorithm the hash algorithm or null to not compute a hash.
+	 * @param aExecutor the executor performing the transfer.
+	 * @return a handle to the transfer.
+	 */
+	public TransferHandle putFileAsync(String aPath, InputStream aInputStream, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm, Executor aExecutor)
+	{
+		TransferHandle handle = new TransferHandle(aPath, true);
+
+		return executeTransfer(handle, aExecutor, () -> putFile(aPath, aInputStream, aProgressListener, aHashAlgorithm, handle));
+	}
+
+
+	/**
+	 * Stores a file on the remote server. The transfer is aborted when the handle is cancelled.
+	 *
+	 * @param aHandle the handle of the transfer or null.
+	 */
+	TransferResult putFile(String aPath, InputStream aInputStream, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm, TransferHandle aHandle) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			long size = getRemainingSize(aInputStream);
+
+			if (mRetryPolicy == null || mSpoolMemoryLimit < 0)
+			{
+				return storeFile(aPath, aInputStream, null, size, aProgressListener, aHashAlgorithm, aHandle, 0);
+			}
+
+			try (UploadSpool spool = new UploadSpool(aInputStream, mSpoolMemoryLimit, mSpoolDirectory))
+			{
+				return retry(aAttempt ->
+				{
+					long offset = aAttempt > 1 && aHashAlgorithm == null ? getResumeOffset(aPath, spool.getLength()) : 0;
+
+					return storeFile(aPath, spool.open(offset), null, size < 0 ? -1 : size - offset, aProgressListener, aHashAlgorithm, aHandle, offset);
+				});
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Returns the number of bytes remaining of a stream reading a file or -1 if unknown. The size of pipes and devices is reported as zero,
+	 * hence empty files are also reported as unknown.
+	 */
+	private static long getRemainingSize(InputStream aInputStream)
+	{
+		if (aInputStream instanceof FileInputStream)
+		{
+			try
+			{
+				FileChannel channel = ((FileInputStream)aInputStream).getChannel();
+				long remaining = channel.size() - channel.position();
+
+				return remaining > 0 ? remaining : -1;
+			}
+			catch (IOException e)
+			{
+				return -1;
+			}
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Returns the offset a failed binary upload can be resumed from, being the size of the partial file on the server, or zero if the
+	 * upload must be restarted.
+	 *
+	 * @param aSpooledLength number of bytes of the upload available for resending.
+	 */
+	private long getResumeOffset(String aPath, long aSpooledLength) throws IOException
+	{
+		if (!"I".equals(mCurrentServerTypeSetting) || !hasFeature("REST STREAM"))
+		{
+			return 0;
+		}
+
+		long size = querySize(aPath);
+
+		return size > 0 && size <= aSpooledLength ? size : 0;
+	}
+
+
+	/**
+	 * @param aFileChannel a local file sent from it's current position instead of the InputStream or null.
+	 * @param aTotalSize number of bytes sent or -1 if unknown.
+	 * @param aOffset the offset in the remote file the data is written from, sent using the REST command when not zero.
+	 */
+	private TransferResult storeFile(String aPath, InputStream aInputStream, FileChannel aFileChannel, long aTotalSize, ProgressListener aProgressListener, HashAlgorithm aHashAlgorithm, TransferHandle aHandle, long aOffset) throws IOException, ResponseCodeException
+	{
+		setType(mCurrentServerTypeSetting);
+
+		DataSocket dataSocket = openDataSocket(aFileChannel != null ? Channels.newInputStream(aFileChannel) : aInputStream, null, aFileChannel, aTotalSize, aProgressListener, mTransferPool);
+		mActiveTransfer = dataSocket;
+
+		try
+		{
+			if (aHandle != null)
+			{
+				aHandle.attach(dataSocket);
+			}
+			if (aHashAlgorithm != null)
+			{
+				dataSocket.mHasher = aHashAlgorithm.newHasher();
+			}
+			if (dataSocket.mAborted)
+			{
+				throw new TransferCancelledException("Transfer aborted.");
+			}
+
+			if (aOffset > 0)
+			{
+				log(LogLevel.INFO, () -> "CLIENT: <resuming upload at " + aOffset + ">");
+
+				writeOutput("REST " + aOffset);
+
+				Input input = readInput();
+				if (input.code != 350)
+				{
+					throw new ResponseCodeException("Expected response 350, response: " + input, input.code);
+				}
+			}
+
+			writeOutput("STOR " + aPath);
+
+			Input input = readInput();
+			if (input.code == 550)
+			{
+				throw new ResponseCodeException("Access denied, response: " + input, input.code);
+			}
+			if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+			{
+				if (dataSocket.mAborted)
+				{
+					throw new TransferCancelledException("Transfer aborted.");
+				}
+				throw new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+			}
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <sending data>");
+
+			awaitTransfer(dataSocket);
+
+			input = readInput();
+			if (input.code != 226)
+			{
+				throw new ResponseCodeException("Expected response 226, response: " + input, input.code);
+			}
+		}
+		finally
+		{
+			mActiveTransfer = null;
+			dataSocket.close();
+		}
+
+		if (aOffset > 0)
+		{
+			return new TransferResult(aPath, aOffset + dataSocket.mTransferredCount, null, null, null);
+		}
+
+		return createTransferResult(aPath, dataSocket, aHashAlgorithm);
+	}
+
+
+	/**
+	 * Copies a file from the server of this client to the server of another client without passing the data through this host (FXP). The
+	 * source server is put in passive mode and the target server connects to it, hence the source server must accept connections from
+	 * the target server and both servers must allow transfers with third parties. Transfers with protected data connections aren't
+	 * supported.<p>
+	 *
+	 * Both clients are occupied until the transfer has completed. The final replies are sent by the servers once all data has been
+	 * transferred, hence no timeout applies while waiting for them.
+	 *
+	 * @param aSourcePath the path to the file on the server of this client.
+	 * @param aTarget the client connected to the server receiving the file.
+	 * @param aTargetPath the path to the file on the server of the target client.
+	 * @return the result of the transfer. The size is only known if reported by the source server.
+	 * @throws ResponseCodeException when an unexpected response code is encountered or the source file doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public TransferResult transferTo(String aSourcePath, FTPClient aTarget, String aTargetPath) throws IOException, ResponseCodeException
+	{
+		if (aTarget == this)
+		{
+			throw new IllegalArgumentException("aTarget must be another client.");
+		}
+		if (mDataProtected || aTarget.mDataProtected)
+		{
+			throw new IllegalStateException("Server to server transfers with protected data connections are not supported.");
+		}
+
+		lockExchanges(this, aTarget);
+		mActiveTransfers.incrementAndGet();
+		aTarget.mActiveTransfers.incrementAndGet();
+		try
+		{
+			setType(mCurrentServerTypeSetting);
+			aTarget.setType(mCurrentServerTypeSetting);
+			selectTransferMode(false);
+			aTarget.selectTransferMode(false);
+
+			writeOutput("PASV");
+
+			Input input = readInput();
+			if (input.code != 227)
+			{
+				throw new ResponseCodeException("Expected response 227, response: " + input, input.code);
+			}
+
+			String address = input.toString();
+			aTarget.writeOutput("PORT " + address.substring(address.lastIndexOf("(") + 1, address.lastIndexOf(")")));
+
+			input = aTarget.readInput();
+			if (input.code != 200)
+			{
+				throw new ResponseCodeException("Expected response 200, response: " + input, input.code);
+			}
+
+			aTarget.writeOutput("STOR " + aTargetPath);
+
+			input = aTarget.readInput();
+			if (input.code == 550)
+			{
+				throw new ResponseCodeException("Access denied, response: " + input, input.code);
+			}
+			if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+			{
+				throw new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+			}
+
+			writeOutput("RETR " + aSourcePath);
+
+			input = readInput();
+			if (input.code != 150 && input.code != 125)
+			{
+				ResponseCodeException exception;
+				if (input.code == 550)
+				{
+					exception = new ResponseCodeException("File not found, response: " + input, input.code);
+				}
+				else
+				{
+					exception = new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+				}
+
+				// the target server is waiting for data that will never come
+				abortQuietly(aTarget, exception);
+
+				throw exception;
+			}
+
+			long size = parseTransferSize(input);
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <server to server transfer>");
+
+			input = readTransferReply();
+			if (input.code != 226 && input.code != 250)
+			{
+				ResponseCodeException exception = new ResponseCodeException("Expected response 226, response: " + input, input.code);
+
+				abortQuietly(aTarget, exception);
+
+				throw exception;
+			}
+
+			input = aTarget.readTransferReply();
+			if (input.code != 226 && input.code != 250)
+			{
+				throw new ResponseCodeException("Expected response 226, response: " + input, input.code);
+			}
+
+			return new TransferResult(aTargetPath, size, null, null, null);
+		}
+		finally
+		{
+			aTarget.mActiveTransfers.decrementAndGet();
+			mActiveTransfers.decrementAndGet();
+			aTarget.mExchangeLock.unlock();
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Aborts the transfer of the target of a server to server transfer, adding any failure to the exception of the transfer.
+	 */
+	private static void abortQuietly(FTPClient aTarget, IOException aException)
+	{
+		try
+		{
+			aTarget.drainAbort();
+		}
+		catch (IOException e)
+		{
+			aException.addSuppressed(e);
+		}
+	}
+
+
+	/**
+	 * Reads the final reply of a transfer the client isn't taking part in, waiting as long as the connection remains open.
+	 */
+	private Input readTransferReply() throws IOException
+	{
+		for (;;)
+		{
+			Input input = pollInput(CONTROL_TIMEOUT);
+
+			if (input != null)
+			{
+				return input;
+			}
+		}
+	}
+
+
+	/**
+	 * Performs a transfer using the executor, completing the handle with the result.
+	 */
+	private TransferHandle executeTransfer(TransferHandle aHandle, Executor aExecutor, Callable<TransferResult> aTransfer)
+	{
+		aExecutor.execute(() ->
+		{
+			if (!aHandle.start())
+			{
+				return;
+			}
+
+			try
+			{
+				aHandle.complete(aTransfer.call());
+			}
+			catch (Exception e)
+			{
+				aHandle.fail(e);
+			}
+		});
+
+		return aHandle;
+	}
+
+
+	private TransferResult createTransferResult(String aPath, DataSocket aDataSocket, HashAlgorithm aHashAlgorithm) throws IOException
+	{
+		if (aHashAlgorithm == null)
+		{
+			return new TransferResult(aPath, aDataSocket.mTransferredCount, null, null, null);
+		}
+
+		return new TransferResult(aPath, aDataSocket.mTransferredCount, aHashAlgorithm, aDataSocket.mHasher.finish(), getRemoteHash(aPath, aHashAlgorithm));
+	}
+
+
+	/**
+	 * Returns the hash of a file on the remote server. The HASH command is used when the server supports the algorithm, otherwise the XMD5
+	 * or XCRC commands are used for the MD5 and CRC32 algorithms.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aHashAlgorithm the hash algorithm.
+	 * @return the hash as a lowercase hexadecimal string or null if the server can't compute the hash.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public String getRemoteHash(String aPath, HashAlgorithm aHashAlgorithm) throws IOException
+	{
+		lockExchange();
+		try
+		{
+			if (selectHashAlgorithm(aHashAlgorithm))
+			{
+				writeOutput("HASH " + aPath);
+				Input input = readInput();
+				if (input.code != 213)
+				{
+					return null;
+				}
+
+				// 213 SHA-256 0-49 169cd22282da7f147cb491e559e9dd62 filename.ext
+				String[] reply = input.toString().trim().split(" ", 5);
+
+				return reply.length >= 4 ? reply[3].toLowerCase() : null;
+			}
+
+			String command;
+
+			if (aHashAlgorithm == HashAlgorithm.MD5 && hasFeature("XMD5"))
+			{
+				command = "XMD5";
+			}
+			else if (aHashAlgorithm == HashAlgorithm.CRC32 && hasFeature("XCRC"))
+			{
+				command = "XCRC";
+			}
+			else
+			{
+				return null;
+			}
+
+			writeOutput(command + " " + aPath);
+			Input input = readInput();
+			if (input.code != 250 && input.code != 251)
+			{
+				return null;
+			}
+
+			String reply = input.toString().trim();
+			String hash = reply.substring(reply.lastIndexOf(' ') + 1).toLowerCase();
+
+			if (aHashAlgorithm == HashAlgorithm.CRC32)
+			{
+				while (hash.length() < 8)
+				{
+					hash = "0" + hash;
+				}
+			}
+
+			return hash;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Selects the algorithm used by the HASH command.
+	 *
+	 * @return false if the server doesn't support the algorithm.
+	 */
+	private boolean selectHashAlgorithm(HashAlgorithm aHashAlgorithm) throws IOException
+	{
+		String selected = null;
+		boolean supported = false;
+
+		for (String feature : getFeatures())
+		{
+			if (feature.startsWith("HASH "))
+			{
+				// HASH SHA-1;SHA-256*;MD5 where the asterisk marks the selected algorithm
+				for (String name : feature.substring(5).trim().split(";"))
+				{
+					if (name.endsWith("*"))
+					{
+						name = name.substring(0, name.length() - 1);
+						selected = name;
+					}
+					if (name.equals(aHashAlgorithm.getName()))
+					{
+						supported = true;
+					}
+				}
+			}
+		}
+
+		if (!supported)
+		{
+			return false;
+		}
+
+		if (mHashAlgorithm == null)
+		{
+			mHashAlgorithm = selected;
+		}
+
+		if (!aHashAlgorithm.getName().equals(mHashAlgorithm))
+		{
+			writeOutput("OPTS HASH " + aHashAlgorithm.getName());
+			Input input = readInput();
+			if (input.code != 200)
+			{
+				return false;
+			}
+
+			mHashAlgorithm = aHashAlgorithm.getName();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Opens a stream reading the contents of a file on the remote server. Data is read directly from the data connection and the transfer
+	 * is completed when the stream is closed. Operations of other threads wait until the stream has been closed and the thread opening
+	 * the stream must not perform other operations before closing it.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @return an InputStream reading the file contents.
+	 * @throws ResponseCodeException when an unexpected response code is encountered or the file doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public InputStream openInputStream(String aPath) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			setType(mCurrentServerTypeSetting);
+
+			DataSocket dataSocket = openDataSocket(null, null, null, -1, null, null);
+
+			try
+			{
+				writeOutput("RETR " + aPath);
+
+				Input input = readInput();
+				if (input.code == 550)
+				{
+					throw new ResponseCodeException("File not found, response: " + input, input.code);
+				}
+				if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+				{
+					throw new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+				}
+
+				Socket socket = dataSocket.accept();
+
+				mStreamThread = Thread.currentThread();
+
+				return new TransferInputStream(socket.getInputStream(), () -> completeStream(dataSocket, socket));
+			}
+			catch (IOException | RuntimeException e)
+			{
+				dataSocket.close();
+				throw e;
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Opens a stream writing the contents of a file on the remote server. Data is written directly to the data connection and the transfer
+	 * is completed when the stream is closed. Operations of other threads wait until the stream has been closed and the thread opening
+	 * the stream must not perform other operations before closing it.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @return an OutputStream writing the file contents.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public OutputStream openOutputStream(String aPath) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			setType(mCurrentServerTypeSetting);
+
+			DataSocket dataSocket = openDataSocket(null, null, null, -1, null, null);
+
+			try
+			{
+				writeOutput("STOR " + aPath);
+
+				Input input = readInput();
+				if (input.code == 550)
+				{
+					throw new ResponseCodeException("Access denied, response: " + input, input.code);
+				}
+				if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+				{
+					throw new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+				}
+
+				Socket socket = dataSocket.accept();
+
+				mStreamThread = Thread.currentThread();
+
+				return new TransferOutputStream(socket.getOutputStream(), () -> completeStream(dataSocket, socket));
+			}
+			catch (IOException | RuntimeException e)
+			{
+				dataSocket.close();
+				throw e;
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Opens a channel reading the contents of a file on the remote server.
+	 *
+	 * @see #openInputStream(java.lang.String)
+	 */
+	public ReadableByteChannel openReadableChannel(String aPath) throws IOException, ResponseCodeException
+	{
+		return Channels.newChannel(openInputStream(aPath));
+	}
+
+
+	/**
+	 * Opens a channel writing the contents of a file on the remote server.
+	 *
+	 * @see #openOutputStream(java.lang.String)
+	 */
+	public WritableByteChannel openWritableChannel(String aPath) throws IOException, ResponseCodeException
+	{
+		return Channels.newChannel(openOutputStream(aPath));
+	}
+
+
+	/**
+	 * Reads a range of a file on the remote server. The transfer is started at the offset using the REST command and aborted once the
+	 * requested number of bytes have been received.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aOffset offset of the first byte to read.
+	 * @param aLength maximum number of bytes to read.
+	 * @param aOutputStream the bytes read are written to this OutputStream.
+	 * @return number of bytes read, less than aLength if the end of the file was reached.
+	 * @throws ResponseCodeException when an unexpected response code is encountered or the file doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public long read(String aPath, long aOffset, long aLength, OutputStream aOutputStream) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			if (aOffset < 0 || aLength < 0)
+			{
+				throw new IllegalArgumentException("aOffset and aLength must not be negative.");
+			}
+
+			setType("I");
+
+			DataSocket dataSocket = openDataSocket(null, null, null, -1, null, null);
+
+			try
+			{
+				writeOutput("REST " + aOffset);
+
+				Input input = readInput();
+				if (input.code != 350)
+				{
+					throw new ResponseCodeException("Expected response 350, response: " + input, input.code);
+				}
+
+				writeOutput("RETR " + aPath);
+
+				input = readInput();
+				if (input.code == 550)
+				{
+					throw new ResponseCodeException("File not found, response: " + input, input.code);
+				}
+				if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+				{
+					throw new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+				}
+
+				Socket socket = dataSocket.accept();
+				InputStream in = socket.getInputStream();
+
+				byte[] buf = new byte[4096];
+				long count = 0;
+
+				for (int len; count < aLength && (len = in.read(buf, 0, (int)Math.min(buf.length, aLength - count))) != -1;)
+				{
+					aOutputStream.write(buf, 0, len);
+					count += len;
+				}
+
+				if (count < aLength)
+				{
+					completeTransfer(dataSocket, socket);
+				}
+				else
+				{
+					abortTransfer(dataSocket, socket);
+				}
+
+				return count;
+			}
+			finally
+			{
+				dataSocket.close();
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Opens a read-only channel providing random access to a file on the remote server. Blocks of the file are fetched using range reads
+	 * and kept in a least recently used cache, hence repeated small reads are served without transferring the file again. Each range read
+	 * is an operation of it's own, other operations may be performed between reads.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @param aBlockSize number of bytes fetched with each range read.
+	 * @param aCacheSize maximum number of blocks cached.
+	 * @return a SeekableByteChannel reading the file.
+	 * @throws ResponseCodeException when an unexpected response code is encountered or the file doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public SeekableByteChannel openSeekableChannel(String aPath, int aBlockSize, int aCacheSize) throws IOException, ResponseCodeException
+	{
+		return new RemoteFileChannel(this, aPath, getSize(aPath), aBlockSize, aCacheSize);
+	}
+
+
+	/**
+	 * Returns the size of a file on the remote server using the SIZE command.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @return the size of the file in bytes or -1 if the file doesn't exist.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public long getSize(String aPath) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.getSize(aPath));
+		}
+
+		lockExchange();
+		try
+		{
+			return retry(aAttempt -> querySize(aPath));
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	private long querySize(String aPath) throws IOException, ResponseCodeException
+	{
+		setType("I");
+
+		writeOutput("SIZE " + aPath);
+		Input input = readInput();
+		if (input.code == 550)
+		{
+			return -1;
+		}
+		if (input.code != 213)
+		{
+			throw new ResponseCodeException("Expected response 213, response: " + input, input.code);
+		}
+
+		return Long.parseLong(input.toString().substring(4).trim());
+	}
+
+
+	/**
+	 * Aborts the file transfer in progress on this client, if any, from another thread. The data connection is closed immediately. The
+	 * thread performing the transfer then sends the ABOR command, reads the responses and throws a TransferCancelledException, leaving the
+	 * client ready for other operations.
+	 *
+	 * @return true if a transfer was in progress.
+	 */
+	public boolean abort()
+	{
+		DataSocket dataSocket = mActiveTransfer;
+
+		if (dataSocket == null)
+		{
+			return false;
+		}
+
+		dataSocket.abort();
+
+		return true;
+	}
+
+
+	/**
+	 * Waits for the data transfer to complete. If the transfer was aborted the ABOR command is sent and a TransferCancelledException is
+	 * thrown.
+	 */
+	private void awaitTransfer(DataSocket aDataSocket) throws IOException
+	{
+		try
+		{
+			aDataSocket.block();
+		}
+		catch (IOException e)
+		{
+			if (!aDataSocket.mAborted)
+			{
+				throw e;
+			}
+
+			TransferCancelledException exception = new TransferCancelledException("Transfer aborted.");
+
+			try
+			{
+				abortTransfer(aDataSocket);
+			}
+			catch (IOException ee)
+			{
+				exception.addSuppressed(ee);
+			}
+
+			throw exception;
+		}
+	}
+
+
+	/**
+	 * Aborts a transfer in progress by closing the data connection and sending the ABOR command. The server replies with the final
+	 * response of the transfer (226 if it had completed or 426 if it was aborted) followed by the response to the ABOR command, or only
+	 * the response to the ABOR command if the transfer had completed earlier. A NOOP command is sent after the ABOR command and the replies
+	 * are drained until the response to the NOOP command is read, leaving the conversation in a known state without waiting for replies
+	 * that never come. If the server doesn't reply in time the connection is closed.
+	 */
+	private void abortTransfer(DataSocket aDataSocket, Socket aSocket) throws IOException
+	{
+		try
+		{
+			aSocket.close();
+		}
+		finally
+		{
+			abortTransfer(aDataSocket);
+		}
+	}
+
+
+	private void abortTransfer(DataSocket aDataSocket) throws IOException
+	{
+		aDataSocket.close();
+
+		drainAbort();
+	}
+
+
+	/**
+	 * Sends the ABOR and NOOP commands and reads replies until the response to the NOOP command is read.
+	 */
+	private void drainAbort() throws IOException
+	{
+		mExchangeLock.lock();
+		try
+		{
+			writeOutput("ABOR");
+			writeOutput("NOOP");
+
+			// at most the response of the transfer and the response to the ABOR command precede the response to the NOOP command
+			Input input = null;
+			for (int i = 0; i < 3; i++)
+			{
+				input = pollInput(ABORT_TIMEOUT);
+				if (input == null)
+				{
+					disconnect();
+					throw new SocketTimeoutException("Timed out waiting for the server to abort the transfer.");
+				}
+				if (input.code == 200)
+				{
+					return;
+				}
+			}
+
+			disconnect();
+			throw new ResponseCodeException("Expected response 200 after the ABOR command, response: " + input, input.code);
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Completes the transfer of a stream opened by openInputStream or openOutputStream, releasing the control connection to operations
+	 * waiting for the stream to be closed. Any thread may close the stream.
+	 */
+	private void completeStream(DataSocket aDataSocket, Socket aSocket) throws IOException
+	{
+		mExchangeLock.lock();
+		try
+		{
+			completeTransfer(aDataSocket, aSocket);
+		}
+		finally
+		{
+			mStreamThread = null;
+			mStreamClosed.signalAll();
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Closes the data connection of a streamed transfer and reads the final response. A 426 response is accepted as the stream may be
+	 * closed before all data has been read.
+	 */
+	private void completeTransfer(DataSocket aDataSocket, Socket aSocket) throws IOException
+	{
+		try
+		{
+			aSocket.close();
+		}
+		finally
+		{
+			aDataSocket.close();
+		}
+
+		Input input = readInput();
+		if (input.code != 226 && input.code != 250 && input.code != 426)
+		{
+			throw new ResponseCodeException("Expected response 226, response: " + input, input.code);
+		}
+	}
+
+
+	/**
+	 * Deletes a file on the remote server.
+	 *
+	 * @param aFile the reference to a file on the remote server.
+	 * @return true if the directory were deleted or false if the client lack permission to delete the directory.
+	 * @throws IllegalArgumentException if the aFile is a directory.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean deleteFile(RemoteFile aFile) throws IOException, IllegalArgumentException, ResponseCodeException
+	{
+		if (aFile.isDirectory())
+		{
+			throw new IllegalArgumentException("aFile provided is a directory.");
+		}
+
+		return deleteFile(aFile.getAbsolutePath());
+	}
+
+
+	/**
+	 * Deletes a file on the remote server.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @return true if the file were deleted or false if the client lack permission to delete the file.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean deleteFile(String aPath) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.deleteFile(aPath));
+		}
+
+		lockExchange();
+		try
+		{
+			return retry(aAttempt ->
+			{
+				writeOutput("DELE " + aPath);
+
+				Input input = readInput();
+				if (input.code != 250 && input.code != 550)
+				{
+					throw new ResponseCodeException("Expected response 250 or 550, response: " + input, input.code);
+				}
+
+				// when retrying the file may have been deleted by the failed attempt
+				if (input.code == 550 && aAttempt > 1)
+				{
+					return querySize(aPath) == -1;
+				}
+
+				return input.code == 250;
+			});
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Deletes a directory on the remote server.
+	 *
+	 * @param aFile the reference to a directory on the remote server.
+	 * @return true if the directory were deleted or false if the client lack permission to delete the directory.
+	 * @throws IllegalArgumentException if the aFile isn't a directory.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean deleteDirectory(RemoteFile aFile) throws IOException, IllegalArgumentException, ResponseCodeException
+	{
+		if (!aFile.isDirectory())
+		{
+			throw new IllegalArgumentException("aFile provided is a directory.");
+		}
+
+		return deleteDirectory(aFile.getAbsolutePath());
+	}
+
+
+	/**
+	 * Deletes a directory on the remote server.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @return true if the directory were deleted or false if the client lack permission to delete the directory.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean deleteDirectory(String aPath) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.deleteDirectory(aPath));
+		}
+
+		lockExchange();
+		try
+		{
+			writeOutput("RMD " + aPath);
+
+			Input input = readInput();
+			if (input.code != 250 && input.code != 550)
+			{
+				throw new ResponseCodeException("Expected response 250 or 550, response: " + input, input.code);
+			}
+
+			return input.code == 250;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Creates a directory on the remote server.
+	 *
+	 * @param aPath the path to the directory on the remote server.
+	 * @return true if the directory were successfully created.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean createDirectory(String aPath) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.createDirectory(aPath));
+		}
+
+		lockExchange();
+		try
+		{
+			writeOutput("MKD " + aPath);
+
+			Input input = readInput();
+			if (input.code != 257 && input.code != 550)
+			{
+				throw new ResponseCodeException("Expected response 257 or 550, response: " + input, input.code);
+			}
+
+			return input.code == 257;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Creates a directory on the remote server including any missing parent directories. The MKD commands for the directory and all it's
+	 * parents are pipelined, hence the directories are created in a single round trip.
+	 *
+	 * @param aPath the path to the directory on the remote server.
+	 * @return true if the directory were created or already exists.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean createDirectories(String aPath) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			String path = normalizePath(aPath);
+
+			ArrayList<String> paths = new ArrayList<>();
+			for (int i = path.indexOf('/', 1); i != -1; i = path.indexOf('/', i + 1))
+			{
+				paths.add(path.substring(0, i));
+			}
+			paths.add(path);
+
+			Input[] inputs = pipeline("MKD", paths);
+
+			for (Input input : inputs)
+			{
+				if (input.code != 257 && input.code != 550)
+				{
+					throw new ResponseCodeException("Expected response 257 or 550, response: " + input, input.code);
+				}
+			}
+
+			// 550 is the response both when the directory already exists and when it can't be created
+			return inputs[inputs.length - 1].code == 257 || isDirectory(path);
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Deletes a directory on the remote server and all files and directories in it. See deleteRecursive(String, int).
+	 */
+	public boolean deleteRecursive(String aPath) throws IOException, ResponseCodeException
+	{
+		return deleteRecursive(aPath, 0);
+	}
+
+
+	/**
+	 * Deletes a directory on the remote server and all files and directories in it.<p>
+	 *
+	 * The directories are listed by this client, each entry being handled as soon as it's received. Files are deleted in batches using
+	 * pipelined DELE commands, either by this client or spread over a number of additional sessions deleting files while this client lists
+	 * the next directory. Once all files have been deleted the directories are removed bottom-up using pipelined RMD commands. When the
+	 * server doesn't support the MLSD command the directories are listed using the LIST command, which may omit hidden files. As LIST
+	 * also lists a file, the path is then first deleted as a file and only listed when the DELE command is rejected.
+	 *
+	 * @param aPath the path to a directory, or a file, on the remote server.
+	 * @param aSessions number of additional sessions deleting files, opened with the settings and user information of this client, or 0
+	 * to delete the files using this client only.
+	 * @return true if the directory were deleted, false if it doesn't exist or some of it's contents couldn't be deleted.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public boolean deleteRecursive(String aPath, int aSessions) throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			if (aSessions < 0)
+			{
+				throw new IllegalArgumentException("aSessions must not be negative.");
+			}
+
+			String root = normalizePath(aPath.startsWith("/") ? aPath : normalizePath(queryWorkingDirectory()) + "/" + aPath);
+
+			// LIST can't tell a file from a directory containing only that file, a 550 reply is taken as the path being a directory
+			if (!hasFeature("MLST") && deleteFiles(Collections.singletonList(root)) == 1)
+			{
+				return true;
+			}
+
+			ArrayList<String> directories = new ArrayList<>();
+			ArrayDeque<String> pending = new ArrayDeque<>();
+			pending.push(root);
+
+			ParallelDelete parallelDelete = aSessions > 0 ? new ParallelDelete(this, aSessions) : null;
+
+			try
+			{
+				while (!pending.isEmpty())
+				{
+					String directory = pending.pop();
+					ArrayList<String> files = new ArrayList<>();
+
+					try
+					{
+						listDirectory(directory, (aName, aDirectory) ->
+						{
+							if (aDirectory)
+							{
+								pending.push(directory + "/" + aName);
+							}
+							else
+							{
+								files.add(directory + "/" + aName);
+							}
+						});
+					}
+					catch (ResponseCodeException e)
+					{
+						// the path doesn't exist or isn't a directory
+						if (directory.equals(root) && (e.getCode() == 550 || e.getCode() == 501))
+						{
+							return deleteFile(root);
+						}
+						throw e;
+					}
+
+					directories.add(directory);
+
+					for (int start = 0; start < files.size(); start += PIPELINE_WINDOW)
+					{
+						List<String> batch = files.subList(start, Math.min(files.size(), start + PIPELINE_WINDOW));
+
+						if (parallelDelete != null)
+						{
+							parallelDelete.submit(batch);
+						}
+						else
+						{
+							deleteFiles(batch);
+						}
+					}
+				}
+
+				if (parallelDelete != null)
+				{
+					parallelDelete.finish();
+				}
+			}
+			finally
+			{
+				if (parallelDelete != null)
+				{
+					parallelDelete.cancel();
+				}
+			}
+
+			// directories are listed before their subdirectories, hence in reverse order a directory is removed after it's subdirectories
+			Collections.reverse(directories);
+
+			Input[] inputs = pipeline("RMD", directories);
+
+			for (Input input : inputs)
+			{
+				if (input.code != 250 && input.code != 550)
+				{
+					throw new ResponseCodeException("Expected response 250 or 550, response: " + input, input.code);
+				}
+			}
+
+			return inputs[inputs.length - 1].code == 250;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Deletes files using pipelined DELE commands.
+	 *
+	 * @return number of files deleted.
+	 */
+	int deleteFiles(List<String> aPaths) throws IOException, ResponseCodeException
+	{
+		int count = 0;
+
+		for (Input input : pipeline("DELE", aPaths))
+		{
+			if (input.code != 250 && input.code != 550)
+			{
+				throw new ResponseCodeException("Expected response 250 or 550, response: " + input, input.code);
+			}
+			if (input.code == 250)
+			{
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+
+	/**
+	 * Sends a command for each path and returns the responses in the same order. The commands are sent in batches before the responses
+	 * of the batch are read.
+	 */
+	private Input[] pipeline(String aCommand, List<String> aPaths) throws IOException
+	{
+		Input[] inputs = new Input[aPaths.size()];
+
+		for (int start = 0; start < aPaths.size(); start += PIPELINE_WINDOW)
+		{
+			int end = Math.min(aPaths.size(), start + PIPELINE_WINDOW);
+
+			for (int i = start; i < end; i++)
+			{
+				writeOutput(aCommand + " " + aPaths.get(i));
+			}
+
+			for (int i = start; i < end; i++)
+			{
+				inputs[i] = readInput();
+			}
+		}
+
+		return inputs;
+	}
+
+
+	/**
+	 * Returns true if the path is a directory, using the MLST command when supported by the server, otherwise by changing the working
+	 * directory to the path and back.
+	 */
+	private boolean isDirectory(String aPath) throws IOException
+	{
+		if (hasFeature("MLST"))
+		{
+			RemoteFile file = pipelineStat(Collections.singletonList(aPath)).get(aPath);
+
+			return file != null && file.isDirectory();
+		}
+
+		String workingDirectory = mWorkingDirectory != null ? mWorkingDirectory : getWorkingDirectory();
+
+		if (!changeWorkingDirectory(aPath))
+		{
+			return false;
+		}
+
+		changeWorkingDirectory(workingDirectory);
+
+		return true;
+	}
+
+
+	/**
+	 * Lists a directory passing the name of each entry, and whether it's a directory, to the consumer as soon as the entry is received.
+	 * The MLSD command is used when supported by the server, otherwise the LIST command.
+	 */
+	private void listDirectory(String aPath, BiConsumer<String, Boolean> aConsumer) throws IOException, ResponseCodeException
+	{
+		boolean machineList = hasFeature("MLST");
+		ListEntry entry = new ListEntry();
+
+		LineOutputStream lines = new LineOutputStream(aLine ->
+		{
+			String name;
+			String type;
+
+			if (machineList)
+			{
+				// only the type and name are needed, the other facts aren't decoded
+				int i = aLine.indexOf(' ');
+				if (i == -1)
+				{
+					return;
+				}
+				name = aLine.substring(i + 1);
+				type = getFact(aLine.substring(0, i), "type");
+			}
+			else if (parseListEntry(aLine, entry))
+			{
+				name = entry.name;
+				type = entry.type;
+			}
+			else
+			{
+				return;
+			}
+
+			name = name.substring(name.lastIndexOf('/') + 1);
+
+			if (!"cdir".equalsIgnoreCase(type) && !"pdir".equalsIgnoreCase(type) && !name.isEmpty() && !name.equals(".") && !name.equals(".."))
+			{
+				aConsumer.accept(name, "dir".equalsIgnoreCase(type));
+			}
+		});
+
+		// the listing is only retried if no entries have been received
+		CountingOutputStream outputStream = new CountingOutputStream(lines);
+
+		retry(aAttempt ->
+		{
+			receiveListing((machineList ? "MLSD " : "LIST ") + aPath, outputStream, null);
+			return null;
+		}, () -> outputStream.getCount() == 0);
+
+		lines.close();
+	}
+
+
+	/**
+	 * Returns an array of the files in the current working directory on the server.
+	 *
+	 * Note: empty directories are returned with a zero length array.
+	 *
+	 * @return an array of RemoteFile objects.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFile[] getFileList() throws IOException, ResponseCodeException
+	{
+		return getFileList(null);
+	}
+
+
+	public RemoteFile[] getFileList(ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		return getFileList(null, aProgressListener);
+	}
+
+
+	/**
+	 * Returns the files in the current working directory on the server selected by a filter. The files are listed using the LIST command.
+	 *
+	 * @param aFilter a ListingFilter applied while the listing is parsed or null to return all files.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFile[] getFileList(ListingFilter aFilter, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.getFileList(aFilter, aProgressListener));
+		}
+
+		lockExchange();
+		try
+		{
+			String workingDirectory = retry(aAttempt -> getWorkingDirectory());
+
+			byte[] listing = retry(aAttempt -> receiveListing("LIST", aProgressListener));
+
+			List<RemoteFile> tempFiles = ListingParser.parse(listing, aLine -> createRemoteFile(workingDirectory, aLine, aFilter), mParallelParsingThreshold, aFilter == null ? -1 : aFilter.getLimit());
+
+			RemoteFile[] files = new RemoteFile[tempFiles.size()];
+			tempFiles.toArray(files);
+
+			if (aFilter != null)
+			{
+				aFilter.sort(files);
+			}
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <received " + listing.length + " bytes, " + files.length + " file entries>");
+
+			return files;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * This method use the MLSD command to list files and an exception is thrown if the server doesn't support the method.
+	 */
+	public RemoteFile[] getFileListNew() throws IOException, ResponseCodeException
+	{
+		return getFileListNew(null);
+	}
+
+
+	/**
+	 * This method use the MLSD command to list files and an exception is thrown if the server doesn't support the method.
+	 */
+	public RemoteFile[] getFileListNew(ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		return getFileListNew(null, aProgressListener);
+	}
+
+
+	/**
+	 * Returns the files in the current working directory on the server selected by a filter. This method use the MLSD command to list
+	 * files and an exception is thrown if the server doesn't support the method.
+	 *
+	 * @param aFilter a ListingFilter applied while the listing is parsed or null to return all files.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFile[] getFileListNew(ListingFilter aFilter, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.getFileListNew(aFilter, aProgressListener));
+		}
+
+		lockExchange();
+		try
+		{
+			String workingDirectory = retry(aAttempt -> getWorkingDirectory());
+
+			byte[] listing = retry(aAttempt -> receiveListing("MLSD", aProgressListener));
+
+			List<RemoteFile> tempFiles = ListingParser.parse(listing, aLine -> createRemoteFileNew(workingDirectory, aLine, aFilter), mParallelParsingThreshold, aFilter == null ? -1 : aFilter.getLimit());
+
+			RemoteFile[] files = new RemoteFile[tempFiles.size()];
+			tempFiles.toArray(files);
+
+			if (aFilter != null)
+			{
+				aFilter.sort(files);
+			}
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <received " + listing.length + " bytes, " + files.length + " file entries>");
+
+			return files;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Returns the files in the current working directory on the server in a compact representation suitable for very large directories.
+	 * The files are listed using the LIST command.
+	 *
+	 * @return a RemoteFileList
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFileList getCompactFileList(ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		return getCompactFileList(null, aProgressListener);
+	}
+
+
+	/**
+	 * Returns the files in a directory on the server in a compact representation suitable for very large directories. The files are
+	 * listed using the LIST command without changing the working directory.
+	 *
+	 * @param aPath the path of the directory, relative to the working directory unless starting with a slash, or null to list the working
+	 * directory.
+	 * @return a RemoteFileList
+	 * @throws ResponseCodeException when an unexpected response code is encountered or the directory doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFileList getCompactFileList(String aPath, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.getCompactFileList(aPath, aProgressListener));
+		}
+
+		lockExchange();
+		try
+		{
+			String path = resolveDirectory(aPath);
+
+			byte[] listing = retry(aAttempt -> receiveListing(aPath == null ? "LIST" : "LIST " + aPath, aProgressListener));
+
+			RemoteFileList files = ListingParser.pack(listing, () -> new RemoteFileList(this, path), aFiles ->
+			{
+				ListEntry entry = new ListEntry();
+				return aLine ->
+				{
+					if (parseListEntry(aLine, entry))
+					{
+						aFiles.add(entry.name, entry.type, RemoteFile.parseDateTime(entry.date, entry.time, this), entry.size, null);
+					}
+				};
+			}, RemoteFileList::addAll, mParallelParsingThreshold);
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <received " + listing.length + " bytes, " + files.size() + " file entries>");
+
+			return files;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Returns the files in the current working directory on the server in a compact representation suitable for very large directories.
+	 * The files are listed using the MLSD command and an exception is thrown if the server doesn't support the method.
+	 *
+	 * @return a RemoteFileList
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFileList getCompactFileListNew(ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		return getCompactFileListNew(null, aProgressListener);
+	}
+
+
+	/**
+	 * Returns the files in a directory on the server in a compact representation suitable for very large directories. The files are
+	 * listed using the MLSD command without changing the working directory and an exception is thrown if the server doesn't support the
+	 * method.
+	 *
+	 * @param aPath the path of the directory, relative to the working directory unless starting with a slash, or null to list the working
+	 * directory.
+	 * @return a RemoteFileList
+	 * @throws ResponseCodeException when an unexpected response code is encountered or the directory doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFileList getCompactFileListNew(String aPath, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.getCompactFileListNew(aPath, aProgressListener));
+		}
+
+		lockExchange();
+		try
+		{
+			String path = resolveDirectory(aPath);
+
+			byte[] listing = retry(aAttempt -> receiveListing(aPath == null ? "MLSD" : "MLSD " + aPath, aProgressListener));
+
+			RemoteFileList files = ListingParser.pack(listing, () -> new RemoteFileList(this, path), aFiles ->
+			{
+				ListEntry entry = new ListEntry();
+				return aLine ->
+				{
+					if (parseMachineListEntry(aLine, entry) && ("dir".equals(entry.type) || "file".equals(entry.type)))
+					{
+						aFiles.add(entry.name.substring(entry.name.lastIndexOf('/') + 1), entry.type, entry.dateTime, entry.size, entry.permissions);
+					}
+				};
+			}, RemoteFileList::addAll, mParallelParsingThreshold);
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <received " + listing.length + " bytes, " + files.size() + " file entries>");
+
+			return files;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Returns the absolute path of a directory without a trailing slash, resolving a relative path against the working directory.
+	 *
+	 * @param aPath a path or null to return the working directory.
+	 */
+	private String resolveDirectory(String aPath) throws IOException
+	{
+		if (aPath != null && aPath.startsWith("/"))
+		{
+			return normalizePath(aPath);
+		}
+
+		String workingDirectory = normalizePath(retry(aAttempt -> queryWorkingDirectory()));
+
+		return aPath == null ? workingDirectory : workingDirectory + "/" + normalizePath(aPath);
+	}
+
+
+	/**
+	 * Sends a listing command and returns the listing received over the data connection.
+	 */
+	private byte[] receiveListing(String aCommand, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+
+		receiveListing(aCommand, outBuffer, aProgressListener);
+
+		return outBuffer.toByteArray();
+	}
+
+
+	/**
+	 * Sends a listing command and writes the listing received over the data connection to the OutputStream.
+	 */
+	private void receiveListing(String aCommand, OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	{
+		DataSocket dataSocket = openDataSocket(null, aOutputStream, null, -1, aProgressListener, mTransferPool);
+
+		try
+		{
+			writeOutput(aCommand);
+
+			Input input = readInput();
+			if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+			{
+				throw new ResponseCodeException("Expected response 150 or 125, response: " + input, input.code);
+			}
+
+			log(LogLevel.DEBUG, () -> "CLIENT: <receiving data>");
+
+			dataSocket.block();
+
+			input = readInput();
+			if (input.code != 226 && input.code != 250)
+			{
+				throw new ResponseCodeException("Expected response 226, response: " + input, input.code);
+			}
+		}
+		finally
+		{
+			dataSocket.close();
+		}
+	}
+
+
+	/**
+	 * Returns information about a single file on the remote server without listing it's directory. The MLST command is used when supported
+	 * by the server, otherwise the SIZE and MDTM commands are used.
+	 *
+	 * @param aPath the path to the file on the remote server.
+	 * @return a RemoteFile or null if the file doesn't exist.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public RemoteFile stat(String aPath) throws IOException
+	{
+		return stat(Collections.singletonList(aPath)).get(aPath);
+	}
+
+
+	/**
+	 * Returns information about a number of files on the remote server without listing their directories. The commands are pipelined,
+	 * i.e. a batch of commands is sent before the responses are read. The MLST command is used when supported by the server, otherwise the
+	 * SIZE and MDTM commands are used.
+	 *
+	 * @param aPaths the paths to the files on the remote server.
+	 * @return a map with an entry for each path in the same order as the collection provided. Files that don't exist are mapped to null.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public Map<String, RemoteFile> stat(Collection<String> aPaths) throws IOException
+	{
+		if (isMetadataSessionUsed())
+		{
+			return onMetadataSession(aSession -> aSession.stat(aPaths));
+		}
+
+		lockExchange();
+		try
+		{
+			// SIZE is only reliable in binary mode, the type of the transfers is restored
+			String type = mCurrentServerTypeSetting;
+			Map<String, RemoteFile> result = retry(aAttempt -> pipelineStat(aPaths));
+			setType(type);
+			return result;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	private Map<String, RemoteFile> pipelineStat(Collection<String> aPaths) throws IOException
+	{
+		boolean machineList = hasFeature("MLST");
+
+		if (!machineList)
+		{
+			setType("I");
+		}
+
+		String workingDirectory = null;
+		for (String path : aPaths)
+		{
+			if (!path.startsWith("/"))
+			{
+				workingDirectory = normalizePath(queryWorkingDirectory());
+				break;
+			}
+		}
+
+		ArrayList<String> paths = new ArrayList<>(aPaths);
+		LinkedHashMap<String, RemoteFile> result = new LinkedHashMap<>();
+
+		for (int start = 0; start < paths.size(); start += PIPELINE_WINDOW)
+		{
+			int end = Math.min(paths.size(), start + PIPELINE_WINDOW);
+
+			for (int i = start; i < end; i++)
+			{
+				if (machineList)
+				{
+					writeOutput("MLST " + paths.get(i));
+				}
+				else
+				{
+					writeOutput("SIZE " + paths.get(i));
+					writeOutput("MDTM " + paths.get(i));
+				}
+			}
+
+			// all responses of the batch are read before any is interpreted to keep the connection in sync
+			for (int i = start; i < end; i++)
+			{
+				String path = paths.get(i);
+				String absolutePath = path.startsWith("/") ? path : workingDirectory + "/" + path;
+				String parent = absolutePath.substring(0, absolutePath.lastIndexOf('/'));
+				String name = absolutePath.substring(absolutePath.lastIndexOf('/') + 1);
+
+				if (machineList)
+				{
+					result.put(path, createStatFile(readInput(), parent, name));
+				}
+				else
+				{
+					result.put(path, createStatFile(readInput(), readInput(), parent, name));
+				}
+			}
+		}
+
+		return result;
+	}
+
+
+	private RemoteFile createStatFile(Input aInput, String aParent, String aName)
+	{
+		if (aInput.code != 250)
+		{
+			return null;
+		}
+
+		// 250-Listing /path/file.ext
+		//  Type=file;Size=1234;Modify=20200101120000; /path/file.ext
+		// 250 End
+		for (String line : aInput.toString().split(CRLF))
+		{
+			if (line.startsWith(" "))
+			{
+				ListEntry entry = new ListEntry();
+				if (!parseMachineListEntry(line.substring(1), entry))
+				{
+					return null;
+				}
+				return new RemoteFile(this, entry.type, aParent, aName, entry.dateTime, entry.size, entry.permissions);
+			}
+		}
+
+		return null;
+	}
+
+
+	private RemoteFile createStatFile(Input aSize, Input aModified, String aParent, String aName)
+	{
+		if (aSize.code != 213 && aModified.code != 213)
+		{
+			return null;
+		}
+
+		long size = 0;
+		long dateTime = 0;
+
+		try
+		{
+			if (aSize.code == 213)
+			{
+				size = Long.parseLong(aSize.toString().substring(4).trim());
+			}
+			if (aModified.code == 213)
+			{
+				dateTime = parseModifyTime(aModified.toString().substring(4).trim());
+			}
+		}
+		catch (NumberFormatException | ParseException e)
+		{
+			mParseFailureCount.incrementAndGet();
+		}
+
+		// SIZE is refused for directories by most servers
+		return new RemoteFile(this, aSize.code == 213 ? "file" : null, aParent, aName, dateTime, size, null);
+	}
+
+
+	/**
+	 * Returns the current working directory on the server.
+	 *
+	 * @return the working directory of the server.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public String getWorkingDirectory() throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			setType("A");
+
+			writeOutput("PWD");
+			Input input = readInput();
+			if (input.code != 257)
+			{
+				throw new ResponseCodeException("Expected response 257, response: " + input, input.code);
+			}
+			String path = input.toString().substring(4);
+			if (path.startsWith("\""))
+			{
+				path = path.substring(1);
+				path = path.substring(0, path.indexOf("\""));
+			}
+			else
+			{
+				throw new IOException("Failed to interpret response, expected quote-sign: " + input);
+			}
+
+			mWorkingDirectory = path;
+
+			return path;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Returns the current working directory without changing the transfer type. getWorkingDirectory leaves the type set to ASCII, which
+	 * would corrupt the next binary transfer when the directory is read implicitly, e.g. by the keep-alive or when reconnecting.
+	 */
+	String queryWorkingDirectory() throws IOException, ResponseCodeException
+	{
+		lockExchange();
+		try
+		{
+			String type = mCurrentServerTypeSetting;
+			String path = getWorkingDirectory();
+			setType(type);
+			return path;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
 		}
-
-		return input.code == 257;
 	}
 
 
 	/**
-	 * Returns an array of the files in the current working directory on the server.
-	 *
-	 * Note: empty directories are returned with a zero length array.
+	 * Changes the working directory on the server. This method can not guarantee success. A subsequent call to getWorkingDirectory() can be
+	 * made to verify success.
 	 *
-	 * @return an array of RemoteFile objects.
+	 * @param aPath the new working directory of the server.
 	 * @throws ResponseCodeException when an unexpected response code is encountered.
 	 * @throws IOException when network connection exceptions occur.
 	 */
-	public RemoteFile[] getFileList() throws IOException, ResponseCodeException
+	public boolean changeWorkingDirectory(String aPath) throws IOException, ResponseCodeException
 	{
-		return getFileList(null);
-	}
+		lockExchange();
+		try
+		{
+			setType("A");
 
+			writeOutput("CWD " + aPath);
+			Input input = readInput();
+			if (input.code != 250 && input.code != 550)
+			{
+				throw new ResponseCodeException("Expected response 250, response: " + input, input.code);
+			}
 
-	public RemoteFile[] getFileList(ProgressListener aProgressListener) throws IOException, ResponseCodeException
-	{
-		String workingDirectory = getWorkingDirectory();
+			if (input.code == 250)
+			{
+				// relative paths are resolved by the next PWD
+				mWorkingDirectory = aPath.startsWith("/") ? aPath : null;
+			}
 
-		ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+			return input.code == 250;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
+	}
 
-		DataSocket dataSocket;
 
-		Input input;
+	/**
+	 * Renames a file on the server.
+	 *
+	 * @param aFromPath the path of the file to be renamed.
+	 * @param aToPath the new path of the file.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public void rename(String aFromPath, String aToPath) throws IOException, ResponseCodeException
+	{
+		if (isMetadataSessionUsed())
+		{
+			onMetadataSession(aSession ->
+			{
+				aSession.rename(aFromPath, aToPath);
+				return null;
+			});
+			return;
+		}
 
-		if (mUsePassiveConnection)
+		lockExchange();
+		try
 		{
-			writeOutput("PASV");
+			setType("A");
 
-			input = readInput();
-			if (input.code != 227)
+			writeOutput("RNFR " + aFromPath);
+			Input input = readInput();
+			if (input.code != 350)
 			{
-				throw new ResponseCodeException("Expected response 227, response: " + input);
+				throw new ResponseCodeException("Expected response 350, response: " + input, input.code);
 			}
 
-			dataSocket = PassiveDataSocket.createInputSocket(input.toString(), outBuffer, aProgressListener);
-			dataSocket.start();
+			writeOutput("RNTO " + aToPath);
+			input = readInput();
+			if (input.code != 250)
+			{
+				throw new ResponseCodeException("Expected response 250, response: " + input, input.code);
+			}
 		}
-		else
+		finally
 		{
-			dataSocket = ActiveDataSocket.createInputSocket(outBuffer, aProgressListener);
-			dataSocket.start();
+			mExchangeLock.unlock();
+		}
+	}
 
-			writeOutput("PORT " + dataSocket.getAddress());
 
-			input = readInput();
-			if (input.code != 200)
+	/**
+	 * Sets the response encoding type either to ASCII or Binary. The user rarely needs to call this method. Most method calls this method
+	 * when necessary.
+	 *
+	 * This method keeps track of the server state and will only instruct the server to change mode when the mode is altered.
+	 *
+	 * @param aType either uppercase A for ASCII or uppercase I for Binary mode.
+	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @throws IllegalArgumentException when aType is neither "A" or "I".
+	 * @throws IOException when network connection exceptions occur.
+	 */
+	public FTPClient setType(String aType) throws IOException, ResponseCodeException, IllegalArgumentException
+	{
+		lockExchange();
+		try
+		{
+			if (!aType.equals("A") && !aType.equals("I"))
 			{
-				throw new ResponseCodeException("Expected response 200, response: " + input);
+				throw new IllegalArgumentException("aType is expected to be either \"A\" or \"I\".");
 			}
-		}
 
-		writeOutput("LIST");
+			if (!mTypeSent || !aType.equals(mCurrentServerTypeSetting))
+			{
+				mTypeSent = true;
+				writeOutput("TYPE " + aType);
+				Input input = readInput();
+				if (input.code != 200)
+				{
+					throw new ResponseCodeException("Expected response 200, response: " + input, input.code);
+				}
+
+				mCurrentServerTypeSetting = aType;
+			}
 
-		input = readInput();
-		if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+			return this;
+		}
+		finally
 		{
-			throw new ResponseCodeException("Expected response 150 or 125, response: " + input);
+			mExchangeLock.unlock();
 		}
+	}
+
+
+	/**
+	 * Disconnects this client from the server. A client should always terminate it's connection with a server by disconnecting. Failing to
+	 * do so can prohibit the client from reconnecting in the future.<p>
+	 *
+	 * Note: This method sends the QUIT command without receiving any response from the server. If another thread is performing an
+	 * operation or a stream is open the connection is closed without sending QUIT, causing the operation or the stream to fail.
+	 *
+	 * @throws IOException when network connection exceptions occur. Even if an exception is thrown, the network connection is disconnected
+	 * and all streams are closed.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		mUserName = null;
+		mPassword = null;
 
-		if (mLog != null)
+		if (mMetadataLock.tryLock())
 		{
-			mLog.println(Calendar.now() + " CLIENT: <receiving data>");
+			try
+			{
+				if (mMetadataSession != null)
+				{
+					mMetadataSession.close();
+					mMetadataSession = null;
+				}
+			}
+			finally
+			{
+				mMetadataLock.unlock();
+			}
 		}
-
-		input = readInput();
-		if (input.code != 226 && input.code != 250)
+		else
 		{
-			throw new ResponseCodeException("Expected response 226, response: " + input);
+			// another thread is performing an operation on the metadata session, closing it doesn't wait and causes the operation to fail
+			FTPClient metadataSession = mMetadataSession;
+			if (metadataSession != null)
+			{
+				metadataSession.close();
+			}
 		}
 
-		dataSocket.block();
-
-		ArrayList<RemoteFile> tempFiles = new ArrayList<>();
-		LineNumberReader in = new LineNumberReader(new StringReader(new String(outBuffer.toByteArray())));
-		for (String s; (s = in.readLine()) != null;)
+		if (!mExchangeLock.tryLock())
 		{
-			RemoteFile file = createRemoteFile(workingDirectory, s);
-			if (file != null)
+			// another thread is performing an operation, closing the sockets causes it to fail. The keep-alive cancels itself once the
+			// lock is released.
+			mIsConnected = false;
+
+			Socket socket = mSocket;
+			if (socket != null)
+			{
+				socket.close();
+			}
+			ControlConnection controlConnection = mControlConnection;
+			if (controlConnection != null)
 			{
-				tempFiles.add(file);
+				controlConnection.close();
 			}
+			return;
 		}
-		RemoteFile[] files = new RemoteFile[tempFiles.size()];
-		tempFiles.toArray(files);
 
-		if (mLog != null)
+		try
 		{
-			mLog.println(Calendar.now() + " CLIENT: <received " + outBuffer.size() + " bytes, " + files.length + " file entries>");
-		}
+			cancelKeepAlive();
+
+			if (mIsConnected)
+			{
+				// the final reply of an open stream is pending, the stream fails when closed
+				closeConnection(mStreamThread == null);
+
+				mStreamThread = null;
+				mStreamClosed.signalAll();
 
-		return files;
+				if (mDeflater != null)
+				{
+					mDeflater.end();
+					mInflater.end();
+					mDeflater = null;
+					mInflater = null;
+				}
+			}
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
 	}
 
 
-	/**
-	 * This method use the MLSD command to list files and an exception is thrown if the server doesn't support the method.
-	 */
-	public RemoteFile[] getFileListNew() throws IOException, ResponseCodeException
+	private void closeConnection(boolean aSendQuit) throws IOException
 	{
-		return getFileListNew(null);
+		if (mIsConnected)
+		{
+			mIsConnected = false;
+
+			if (aSendQuit)
+			{
+				try
+				{
+					writeOutput("QUIT");
+				}
+				catch (IOException e)
+				{
+				}
+			}
+
+			if (mInputStream != null)
+			{
+				mInputStream.close();
+				mInputStream = null;
+			}
+			if (mOutputStream != null)
+			{
+				mOutputStream.close();
+				mOutputStream = null;
+			}
+			if (mSocket != null)
+			{
+				mSocket.close();
+				mSocket = null;
+			}
+			if (mControlConnection != null)
+			{
+				mControlConnection.close();
+				mControlConnection = null;
+			}
+		}
 	}
 
 
 	/**
-	 * This method use the MLSD command to list files and an exception is thrown if the server doesn't support the method.
+	 * Sends the PASV or PORT command to the server and opens a DataSocket. Either aInputStream or aOutputStream is expected to be null.
+	 * When both are null the caller is expected to read or write the socket returned by DataSocket.accept.
+	 *
+	 * @param aFileChannel a local file transferred instead of the streams or null. The InputStream must be provided for an upload.
+	 * @param aTotalSize number of bytes to transfer included in progress events or -1 if unknown.
+	 * @param aTransferPool pool performing the transfer or null to perform the transfer when DataSocket.block is called.
 	 */
-	public RemoteFile[] getFileListNew(ProgressListener aProgressListener) throws IOException, ResponseCodeException
+	private DataSocket openDataSocket(InputStream aInputStream, OutputStream aOutputStream, FileChannel aFileChannel, long aTotalSize, ProgressListener aProgressListener, TransferPool aTransferPool) throws IOException, ResponseCodeException
 	{
-		String workingDirectory = getWorkingDirectory();
+		if (mUseMetadataSession && mWorkingDirectory == null)
+		{
+			// the metadata session can only follow a known working directory
+			queryWorkingDirectory();
+		}
 
-		ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+		boolean compressed = selectTransferMode(mUseCompression && (aInputStream != null || aOutputStream != null || aFileChannel != null));
 
 		DataSocket dataSocket;
 
-		Input input;
-
 		if (mUsePassiveConnection)
 		{
 			writeOutput("PASV");
 
-			input = readInput();
+			Input input = readInput();
 			if (input.code != 227)
 			{
-				throw new ResponseCodeException("Expected response 227, response: " + input);
+				throw new ResponseCodeException("Expected response 227, response: " + input, input.code);
+			}
+
+			if (aInputStream != null)
+			{
+				dataSocket = PassiveDataSocket.createOutputSocket(input.toString(), aInputStream);
+			}
+			else
+			{
+				dataSocket = PassiveDataSocket.createInputSocket(input.toString(), aOutputStream);
 			}
 
-			dataSocket = PassiveDataSocket.createInputSocket(input.toString(), outBuffer, aProgressListener);
+			dataSocket.mTransferPool = aTransferPool;
+			dataSocket.mFileChannel = aFileChannel;
+			setProgressListener(dataSocket, aProgressListener);
+			dataSocket.setTotalSize(aTotalSize);
+			setCompression(dataSocket, compressed);
+			setProtection(dataSocket);
+			trackTransfer(dataSocket);
 			dataSocket.start();
 		}
 		else
 		{
-			dataSocket = ActiveDataSocket.createInputSocket(outBuffer, aProgressListener);
+			if (aInputStream != null)
+			{
+				dataSocket = ActiveDataSocket.createOutputSocket(aInputStream);
+			}
+			else
+			{
+				dataSocket = ActiveDataSocket.createInputSocket(aOutputStream);
+			}
+
+			dataSocket.mTransferPool = aTransferPool;
+			dataSocket.mFileChannel = aFileChannel;
+			setProgressListener(dataSocket, aProgressListener);
+			dataSocket.setTotalSize(aTotalSize);
+			setCompression(dataSocket, compressed);
+			setProtection(dataSocket);
+			trackTransfer(dataSocket);
 			dataSocket.start();
 
-			writeOutput("PORT " + dataSocket.getAddress());
+			try
+			{
+				writeOutput("PORT " + dataSocket.getAddress());
 
-			input = readInput();
-			if (input.code != 200)
+				Input input = readInput();
+				if (input.code != 200)
+				{
+					throw new ResponseCodeException("Expected response 200, response: " + input, input.code);
+				}
+			}
+			catch (IOException e)
 			{
-				throw new ResponseCodeException("Expected response 200, response: " + input);
+				dataSocket.close();
+				throw e;
 			}
 		}
 
-		writeOutput("MLSD");
+		return dataSocket;
+	}
 
-		input = readInput();
-		if (input.code != 150 && input.code != 125) // 125 = "connection already open"
+
+	/**
+	 * Sends a command to the server and returns a future completed with the reply. When the client uses a ControlEventLoop the method
+	 * returns immediately, otherwise the reply is read before the method returns. This is the only asynchronous method of the client.<p>
+	 *
+	 * This method is intended for commands answered with a single reply, e.g. NOOP, SIZE, MDTM or DELE.
+	 *
+	 * @param aCommand the command to send.
+	 * @return a future completed with the reply text, starting with the response code.
+	 */
+	public CompletableFuture<String> executeAsync(String aCommand)
+	{
+		try
+		{
+			if (mControlConnection == null)
+			{
+				lockExchange();
+				try
+				{
+					writeOutput(aCommand);
+					return CompletableFuture.completedFuture(readInput().toString());
+				}
+				finally
+				{
+					mExchangeLock.unlock();
+				}
+			}
+
+			CompletableFuture<Input> reply;
+			lockExchange();
+			try
+			{
+				writeOutput(aCommand);
+				reply = mControlConnection.nextReply();
+			}
+			finally
+			{
+				mExchangeLock.unlock();
+			}
+
+			return reply.thenApply(aInput ->
+			{
+				logInput(aInput);
+				return aInput.toString();
+			});
+		}
+		catch (IOException e)
+		{
+			CompletableFuture<String> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+
+	/**
+	 * Counts the DataSocket as an active transfer until it's closed. The keep-alive is suspended while transfers are active.
+	 */
+	private void trackTransfer(DataSocket aDataSocket)
+	{
+		mActiveTransfers.incrementAndGet();
+
+		aDataSocket.mCloseListener = mActiveTransfers::decrementAndGet;
+	}
+
+
+	/**
+	 * Changes the transfer mode of the server to MODE Z or MODE S when necessary.
+	 *
+	 * @return true if MODE Z is used.
+	 */
+	private boolean selectTransferMode(boolean aCompressed) throws IOException
+	{
+		if (aCompressed && !hasFeature("MODE Z"))
 		{
-			throw new ResponseCodeException("Expected response 150 or 125, response: " + input);
+			aCompressed = false;
 		}
 
-		if (mLog != null)
+		if (aCompressed != mCompressedMode)
 		{
-			mLog.println(Calendar.now() + " CLIENT: <receiving data>");
+			writeOutput(aCompressed ? "MODE Z" : "MODE S");
+			Input input = readInput();
+			if (input.code != 200)
+			{
+				if (aCompressed)
+				{
+					// the server advertised MODE Z but refused it, fall back to stream mode
+					mFeatures.remove("MODE Z");
+					return false;
+				}
+
+				throw new ResponseCodeException("Expected response 200, response: " + input, input.code);
+			}
+
+			mCompressedMode = aCompressed;
 		}
 
-		input = readInput();
-		if (input.code != 226)
+		return aCompressed;
+	}
+
+
+	private void setProgressListener(DataSocket aDataSocket, ProgressListener aProgressListener)
+	{
+		if (aProgressListener != null)
 		{
-			throw new ResponseCodeException("Expected response 226, response: " + input);
+			aDataSocket.mProgressDispatcher = new ProgressDispatcher(aProgressListener, mProgressInterval, mProgressByteInterval, mProgressExecutor);
 		}
+	}
+
+
+	/**
+	 * Returns the size of the file from a 150 response like "150 Opening BINARY mode data connection for file (1234 bytes)" or -1 if the
+	 * response doesn't contain the size.
+	 */
+	private static long parseTransferSize(Input aInput)
+	{
+		Matcher matcher = TRANSFER_SIZE.matcher(aInput.toString());
+
+		return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+	}
 
-		dataSocket.block();
 
-		ArrayList<RemoteFile> tempFiles = new ArrayList<>();
-		LineNumberReader in = new LineNumberReader(new StringReader(new String(outBuffer.toByteArray())));
-		for (String s; (s = in.readLine()) != null;)
+	private void setCompression(DataSocket aDataSocket, boolean aCompressed)
+	{
+		if (aCompressed)
 		{
-			RemoteFile file = createRemoteFileNew(workingDirectory, s);
-			if (file != null && (file.getType().equals("dir") || file.getType().equals("file")))
+			if (mDeflater == null)
 			{
-				tempFiles.add(file);
+				mDeflater = new Deflater();
+				mInflater = new Inflater();
 			}
+
+			mDeflater.reset();
+			mDeflater.setLevel(mCompressionLevel);
+			mInflater.reset();
+
+			aDataSocket.mDeflater = mDeflater;
+			aDataSocket.mInflater = mInflater;
 		}
-		RemoteFile[] files = new RemoteFile[tempFiles.size()];
-		tempFiles.toArray(files);
+	}
 
-		if (mLog != null)
+
+	/**
+	 * Assigns the SSLContext to the DataSocket when the data channel is protected. The address of the control connection is used to look
+	 * up the TLS session to resume.
+	 */
+	private void setProtection(DataSocket aDataSocket)
+	{
+		if (mDataProtected)
 		{
-			mLog.println(Calendar.now() + " CLIENT: <received " + outBuffer.size() + " bytes, " + files.length + " file entries>");
+			aDataSocket.mSSLContext = mSSLContext;
+			aDataSocket.mSessionHost = mHostAddress;
+			aDataSocket.mSessionPort = mPort;
 		}
-
-		return files;
 	}
 
 
 	/**
-	 * Returns the current working directory on the server.
+	 * Returns the features advertised by the server in response to the FEAT command. The features are returned in uppercase, e.g.
+	 * "MODE Z", "SIZE" or "MLST TYPE*;SIZE*;MODIFY*;". The response is cached until the client reconnects.
 	 *
-	 * @return the working directory of the server.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
+	 * @return the features of the server or an empty set if the server doesn't support the FEAT command.
 	 * @throws IOException when network connection exceptions occur.
 	 */
-	public String getWorkingDirectory() throws IOException, ResponseCodeException
+	public Set<String> getFeatures() throws IOException
 	{
-		setType("A");
-
-		writeOutput("PWD");
-		Input input = readInput();
-		if (input.code != 257)
-		{
-			throw new ResponseCodeException("Expected response 257, response: " + input);
-		}
-		String path = input.toString().substring(4);
-		if (path.startsWith("\""))
+		lockExchange();
+		try
 		{
-			path = path.substring(1);
-			path = path.substring(0, path.indexOf("\""));
+			if (mFeatures == null)
+			{
+				writeOutput("FEAT");
+				Input input = readInput();
+
+				mFeatures = new HashSet<>();
+
+				if (input.code == 211)
+				{
+					String[] lines = input.toString().split(CRLF);
+
+					for (int i = 1; i < lines.length - 1; i++)
+					{
+						String feature = lines[i].trim();
+						if (!feature.isEmpty())
+						{
+							mFeatures.add(feature.toUpperCase());
+						}
+					}
+				}
+			}
+
+			return Collections.unmodifiableSet(mFeatures);
 		}
-		else
+		finally
 		{
-			throw new IOException("Failed to interpret response, expected quote-sign: " + input);
+			mExchangeLock.unlock();
 		}
-
-		return path;
 	}
 
 
 	/**
-	 * Changes the working directory on the server. This method can not guarantee success. A subsequent call to getWorkingDirectory() can be
-	 * made to verify success.
+	 * Returns true if the server advertises the feature, either alone or followed by parameters.
 	 *
-	 * @param aPath the new working directory of the server.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
+	 * @param aFeature the feature name, e.g. "MLST" or "MODE Z".
 	 */
-	public boolean changeWorkingDirectory(String aPath) throws IOException, ResponseCodeException
+	public boolean hasFeature(String aFeature) throws IOException
 	{
-		setType("A");
+		String feature = aFeature.toUpperCase();
 
-		writeOutput("CWD " + aPath);
-		Input input = readInput();
-		if (input.code != 250 && input.code != 550)
+		for (String s : getFeatures())
 		{
-			throw new ResponseCodeException("Expected response 250, response: " + input);
+			if (s.equals(feature) || s.startsWith(feature + " "))
+			{
+				return true;
+			}
 		}
 
-		return input.code == 250;
+		return false;
 	}
 
 
-	/**
-	 * Renames a file on the server.
-	 *
-	 * @param aFromPath the path of the file to be renamed.
-	 * @param aToPath the new path of the file.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IOException when network connection exceptions occur.
-	 */
-	public void rename(String aFromPath, String aToPath) throws IOException, ResponseCodeException
+	private Input readInput() throws IOException
 	{
-		setType("A");
+		mExchangeLock.lock();
+		try
+		{
+			Input input = readReply(CONTROL_TIMEOUT);
 
-		writeOutput("RNFR " + aFromPath);
-		Input input = readInput();
-		if (input.code != 350)
+			mLastActivity = System.currentTimeMillis();
+
+			return input;
+		}
+		catch (IOException e)
 		{
-			throw new ResponseCodeException("Expected response 350, response: " + input);
+			disconnect();
+			throw e;
 		}
-
-		writeOutput("RNTO " + aToPath);
-		input = readInput();
-		if (input.code != 250)
+		finally
 		{
-			throw new ResponseCodeException("Expected response 250, response: " + input);
+			mExchangeLock.unlock();
 		}
 	}
 
 
 	/**
-	 * Sets the response encoding type either to ASCII or Binary. The user rarely needs to call this method. Most method calls this method
-	 * when necessary.
-	 *
-	 * This method keeps track of the server state and will only instruct the server to change mode when the mode is altered.
+	 * Reads a reply waiting at most the time given. The connection remains usable if no reply is received in time.
 	 *
-	 * @param aType either uppercase A for ASCII or uppercase I for Binary mode.
-	 * @throws ResponseCodeException when an unexpected response code is encountered.
-	 * @throws IllegalArgumentException when aType is neither "A" or "I".
-	 * @throws IOException when network connection exceptions occur.
+	 * @return the reply or null if no reply was received in time.
 	 */
-	public FTPClient setType(String aType) throws IOException, ResponseCodeException, IllegalArgumentException
+	private Input pollInput(int aTimeout) throws IOException
 	{
-		if (!aType.equals("A") && !aType.equals("I"))
+		mExchangeLock.lock();
+		try
 		{
-			throw new IllegalArgumentException("aType is expected to be either \"A\" or \"I\".");
-		}
+			Input input = readReply(aTimeout);
 
-		if (!mTypeSent || !aType.equals(mCurrentServerTypeSetting))
-		{
-			mTypeSent = true;
-			writeOutput("TYPE " + aType);
-			Input input = readInput();
-			if (input.code != 200)
-			{
-				throw new ResponseCodeException("Expected response 200, response: " + input);
-			}
+			mLastActivity = System.currentTimeMillis();
 
-			mCurrentServerTypeSetting = aType;
+			return input;
+		}
+		catch (SocketTimeoutException e)
+		{
+			return null;
+		}
+		catch (IOException e)
+		{
+			disconnect();
+			throw e;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
 		}
-
-		return this;
 	}
 
 
 	/**
-	 * Disconnects this client from the server. A client should always terminate it's connection with a server by disconnecting. Failing to
-	 * do so can prohibit the client from reconnecting in the future.<p>
-	 *
-	 * Note: This method sends the QUIT command without receiving any response from the server.
-	 *
-	 * @throws IOException when network connection exceptions occur. Even if an exception is thrown, the network connection is disconnected
-	 * and all streams are closed.
+	 * Closes the control connection after a failure to read or write. The state of the conversation with the server is unknown and the
+	 * connection can't be used anymore.
 	 */
-	@Override
-	public synchronized void close() throws IOException
+	private void disconnect()
 	{
-		if (mIsConnected)
+		try
 		{
-			mIsConnected = false;
+			closeConnection(false);
+		}
+		catch (IOException e)
+		{
+		}
+	}
 
-			try
+
+	private Input readReply(int aTimeout) throws IOException
+	{
+		Input input;
+
+		if (mControlConnection != null)
+		{
+			input = mControlConnection.readReply(aTimeout);
+		}
+		else
+		{
+			if (mInputStream == null)
 			{
-				writeOutput("QUIT");
+				throw new IOException("Not connected to server");
 			}
-			catch (IOException e)
+
+			if (aTimeout != CONTROL_TIMEOUT)
 			{
+				mSocket.setSoTimeout(aTimeout);
 			}
 
-			if (mInputStream != null)
+			try
 			{
-				mInputStream.close();
-				mInputStream = null;
+				input = null;
+				for (int c; input == null && (c = mInputStream.read()) != -1;)
+				{
+					input = mReplyParser.append(c);
+				}
 			}
-			if (mOutputStream != null)
+			finally
 			{
-				mOutputStream.close();
-				mOutputStream = null;
+				if (aTimeout != CONTROL_TIMEOUT && mSocket != null)
+				{
+					mSocket.setSoTimeout(CONTROL_TIMEOUT);
+				}
 			}
-			if (mSocket != null)
+
+			if (input == null)
 			{
-				mSocket.close();
-				mSocket = null;
+				throw new IOException("Connection closed by server.");
 			}
 		}
+
+		logInput(input);
+
+		return input;
 	}
 
 
-	private synchronized Input readInput() throws IOException
+	private void logInput(Input aInput)
 	{
-		Input input = new Input();
-
-		for (;;)
+		FTPLogger logger = mLogger;
+		if (logger != null && logger.isEnabled(LogLevel.DEBUG))
 		{
-			StringBuilder str = new StringBuilder();
-			for (int c; (c = mInputStream.read()) != -1;)
-			{
-				str.append((char)c);
+			logger.log(System.currentTimeMillis(), LogLevel.DEBUG, "SERVER: " + aInput.toString().trim());
+		}
+	}
 
-				if (str.length() >= 2 && str.lastIndexOf(CRLF) == str.length() - CRLF.length())
-				{
-					break;
-				}
-			}
 
-			if (mLog != null)
+	private void writeOutput(String aCommand) throws IOException
+	{
+		mExchangeLock.lock();
+		try
+		{
+			if (mControlConnection != null)
 			{
-				mLog.print(Calendar.now() + " SERVER: " + str);
+				mControlConnection.write((aCommand + CRLF).getBytes());
 			}
-
-			if (str.length() < 3)
+			else
 			{
-				throw new IOException("Expected code is too short: \"" + str + "\"");
+				if (mOutputStream == null)
+				{
+					throw new IOException("Not connected to server");
+				}
+
+				mOutputStream.write((aCommand + CRLF).getBytes());
 			}
 
-			input.code = Integer.parseInt(str.substring(0, 3));
-			input.append(str.toString());
+			mLastActivity = System.currentTimeMillis();
+		}
+		catch (IOException e)
+		{
+			disconnect();
+			throw e;
+		}
+		finally
+		{
+			mExchangeLock.unlock();
+		}
 
-			if (str.length() < 4 || str.charAt(3) != '-')
+		FTPLogger logger = mLogger;
+		if (logger != null && logger.isEnabled(LogLevel.DEBUG))
+		{
+			if (aCommand.startsWith("PASS"))
 			{
-				break;
+				aCommand = "PASS ***********";
 			}
-		}
 
-		return input;
+			logger.log(System.currentTimeMillis(), LogLevel.DEBUG, "CLIENT: " + aCommand);
+		}
 	}
 
 
-	private void writeOutput(String aCommand) throws IOException
+	/**
+	 * @param aFilter a filter applied before the RemoteFile is created or null.
+	 */
+	private RemoteFile createRemoteFile(String aPath, String aData, ListingFilter aFilter)
 	{
-		if (mOutputStream == null)
+		ListEntry entry = new ListEntry();
+
+		if (!parseListEntry(aData, entry))
 		{
-			throw new IOException("Not connected to server");
+			return null;
 		}
 
-		mOutputStream.write(aCommand.getBytes());
-		mOutputStream.write(CRLF.getBytes());
-
-		if (mLog != null)
+		if (aFilter != null)
 		{
-			if (aCommand.startsWith("PASS"))
+			if (!aFilter.acceptName(entry.name))
 			{
-				aCommand = "PASS ***********";
+				return null;
+			}
+			if (aFilter.hasPredicate() && !aFilter.accept(entry.name, "dir".equals(entry.type), entry.size, RemoteFile.parseDateTime(entry.date, entry.time, this)))
+			{
+				return null;
 			}
-
-			mLog.print(Calendar.now() + " CLIENT: " + aCommand + CRLF);
 		}
+
+		return new RemoteFile(this, normalizePath(aPath), entry.name, entry.date, entry.time, entry.size, "dir".equals(entry.type));
 	}
 
 
-	private RemoteFile createRemoteFile(String aPath, String aData)
+	/**
+	 * Decodes a line of a LIST response.
+	 *
+	 * @return false if the line doesn't describe a file.
+	 */
+	private boolean parseListEntry(String aData, ListEntry aEntry)
 	{
-		if (aData.matches("^total [0-9]{1,10}$"))
+		if (TOTAL_LINE.matcher(aData).matches())
 		{
-			return null;
+			return false;
 		}
 
 		try
 		{
-			String date, time, name, path;
+			String date, time, name;
 			long size;
 			boolean directory;
 
-			if (mLog != null)
+			FTPLogger logger = mLogger;
+			if (logger != null && logger.isEnabled(LogLevel.TRACE))
 			{
-				mLog.println(aData);
+				logger.log(System.currentTimeMillis(), LogLevel.TRACE, "SERVER: " + aData);
 			}
 
 			if (mIsUnixServer)
@@ -900,42 +4226,85 @@ public class FTPClient implements Closeable
 				}
 			}
 
-			path = aPath.replace('\\', '/');
-			if (path.endsWith("/"))
-			{
-				path = path.substring(0, path.length() - 1);
-			}
+			aEntry.name = name;
+			aEntry.type = directory ? "dir" : "file";
+			aEntry.size = size;
+			aEntry.date = date;
+			aEntry.time = time;
+			aEntry.dateTime = 0;
+			aEntry.permissions = null;
 
-			return new RemoteFile(this, path, name, date, time, size, directory);
+			return true;
 		}
 		catch (Exception e)
 		{
-			if (mLog != null)
+			mParseFailureCount.incrementAndGet();
+
+			log(LogLevel.DEBUG, () -> "CLIENT: Failed to decode file information: " + aData);
+			return false;
+		}
+	}
+
+
+	/**
+	 * Creates a RemoteFile for a file or directory in a MLSD listing, returning null for other entries.
+	 *
+	 * @param aFilter a filter applied before the RemoteFile is created or null. The name is tested before the facts are parsed.
+	 */
+	private RemoteFile createRemoteFileNew(String aWorkingDirectory, String aData, ListingFilter aFilter)
+	{
+		if (aFilter != null)
+		{
+			String name = aData.substring(aData.lastIndexOf(' ') + 1);
+
+			if (!aFilter.acceptName(name.substring(name.lastIndexOf('/') + 1)))
 			{
-				mLog.println("CLIENT: Failed to decode file information: " + aData);
+				return null;
 			}
+		}
+
+		ListEntry entry = new ListEntry();
+
+		if (!parseMachineListEntry(aData, entry))
+		{
+			return null;
+		}
+
+		FileType type = FileType.fromName(entry.type);
+		if (type != FileType.FILE && type != FileType.DIRECTORY)
+		{
+			return null;
+		}
+
+		String path = aWorkingDirectory + entry.name;
+		String name = entry.name.substring(entry.name.lastIndexOf('/') + 1);
+
+		if (aFilter != null && aFilter.hasPredicate() && !aFilter.accept(name, type == FileType.DIRECTORY, entry.size, entry.dateTime))
+		{
 			return null;
 		}
+
+		return new RemoteFile(this, entry.type, path, name, entry.dateTime, entry.size, entry.permissions);
 	}
 
 
-	private RemoteFile createRemoteFileNew(String aWorkingDirectory, String aData)
+	/**
+	 * Decodes a line of a MLSD response.
+	 *
+	 * @return false if the line couldn't be decoded.
+	 */
+	private boolean parseMachineListEntry(String aData, ListEntry aEntry)
 	{
 		try
 		{
-			if (mLog != null)
+			FTPLogger logger = mLogger;
+			if (logger != null && logger.isEnabled(LogLevel.TRACE))
 			{
-				mLog.println(aData);
+				logger.log(System.currentTimeMillis(), LogLevel.TRACE, "SERVER: " + aData);
 			}
 
 			int i = aData.indexOf(' ');
 
-			String name = aData.substring(aData.lastIndexOf(' ') + 1);
-			String path = aWorkingDirectory + name;
-
-			name = name.substring(name.lastIndexOf('/') + 1);
-
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss.SSS");
 			String type = null;
 			String permissions = null;
 			long size = 0;
@@ -947,63 +4316,133 @@ public class FTPClient implements Closeable
 				String key = part.substring(0, j);
 				String value = part.substring(j + 1);
 
-				switch (key)
+				switch (key.toLowerCase())
 				{
-					case "Type":
+					case "type":
 						type = value;
 						break;
-					case "Modify":
-						datetime = dateFormat.parse(value).getTime();
+					case "modify":
+						datetime = parseModifyTime(value);
 						break;
-					case "Size":
+					case "size":
 						size = Long.parseLong(value);
 						break;
-					case "Perm":
+					case "perm":
 						permissions = value;
 						break;
 				}
 			}
 
-			return new RemoteFile(this, type, path, name, datetime, size, permissions);
+			aEntry.name = aData.substring(aData.lastIndexOf(' ') + 1);
+			aEntry.type = type;
+			aEntry.size = size;
+			aEntry.dateTime = datetime;
+			aEntry.permissions = permissions;
+			aEntry.date = null;
+			aEntry.time = null;
+
+			return true;
 		}
 		catch (Exception e)
 		{
-			if (mLog != null)
+			mParseFailureCount.incrementAndGet();
+
+			log(LogLevel.DEBUG, () -> "CLIENT: Failed to decode file information: " + aData);
+			return false;
+		}
+	}
+
+
+	/**
+	 * Returns the value of a fact in the facts of a MLSD or MLST entry, e.g. "type=file;size=1234;", or null if the fact is missing.
+	 */
+	private static String getFact(String aFacts, String aName)
+	{
+		for (int start = 0, end; start < aFacts.length(); start = end + 1)
+		{
+			end = aFacts.indexOf(';', start);
+			if (end == -1)
 			{
-				mLog.println("CLIENT: Failed to decode file information: " + aData);
+				end = aFacts.length();
 			}
-			return null;
+
+			int i = aFacts.indexOf('=', start);
+			if (i != -1 && i < end && aFacts.regionMatches(true, start, aName, 0, aName.length()) && i - start == aName.length())
+			{
+				return aFacts.substring(i + 1, end);
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Parses a timestamp of the form YYYYMMDDHHMMSS[.sss] used by the MLSD, MLST and MDTM commands.
+	 */
+	private static long parseModifyTime(String aValue) throws ParseException
+	{
+		return new SimpleDateFormat(aValue.indexOf('.') == -1 ? "yyyyMMddHHmmss" : "yyyyMMddHHmmss.SSS").parse(aValue).getTime();
+	}
+
+
+	private static String normalizePath(String aPath)
+	{
+		String path = aPath.replace('\\', '/');
+		if (path.endsWith("/"))
+		{
+			path = path.substring(0, path.length() - 1);
 		}
+		return path;
 	}
 
 
 	private static String[] split(String aText)
 	{
-		ArrayList<String> list = new ArrayList<>();
+		ArrayList<String> list = new ArrayList<>(9);
 
-		String w = "";
-		for (char c : aText.toCharArray())
+		StringBuilder w = new StringBuilder();
+		for (int i = 0, n = aText.length(); i < n; i++)
 		{
+			char c = aText.charAt(i);
+
 			if (c == ' ' && list.size() < 8)
 			{
-				if (!w.isEmpty())
+				if (w.length() > 0)
 				{
-					list.add(w);
-					w = "";
+					list.add(w.toString());
+					w.setLength(0);
 				}
 			}
 			else
 			{
-				w += c;
+				w.append(c);
 			}
 		}
 
-		list.add(w);
+		list.add(w.toString());
 
 		return list.toArray(new String[list.size()]);
 	}
 
 
+	/**
+	 * Returns the number of directory listing lines, dates and times that could not be decoded since this client was created.
+	 */
+	public long getParseFailureCount()
+	{
+		FTPClient session = mMetadataSession;
+
+		return mParseFailureCount.get() + (session != null ? session.getParseFailureCount() : 0);
+	}
+
+
+	void countParseFailure()
+	{
+		mParseFailureCount.incrementAndGet();
+	}
+
+
 	public String getHostAddress()
 	{
 		return mHostAddress;
@@ -1012,11 +4451,36 @@ public class FTPClient implements Closeable
 
 	public void changeTime(String aFileName, String aUTCDateTime) throws IOException
 	{
-		writeOutput("MFMT " + aUTCDateTime + " " + aFileName);
-		Input input = readInput();
-		if (input.code != 213)
+		lockExchange();
+		try
+		{
+			writeOutput("MFMT " + aUTCDateTime + " " + aFileName);
+			Input input = readInput();
+			if (input.code != 213)
+			{
+				throw new ResponseCodeException("Expected response 213, response: " + input, input.code);
+			}
+		}
+		finally
 		{
-			throw new ResponseCodeException("Expected response 213, response: " + input);
+			mExchangeLock.unlock();
 		}
 	}
+
+
+	@FunctionalInterface
+	private interface SessionOperation<T>
+	{
+		T run(FTPClient aSession) throws IOException;
+	}
+
+
+	@FunctionalInterface
+	private interface Operation<T>
+	{
+		/**
+		 * @param aAttempt the attempt number, starting with one.
+		 */
+		T run(int aAttempt) throws IOException;
+	}
 }
@@ -0,0 +1,41 @@
+package org.terifan.net.ftp.client;
+
+import java.util.function.Supplier;
+
+
+/**
+ * Receives the log messages of an FTPClient. The client checks the isEnabled method before building a message, hence a disabled level
+ * costs no more than the check.
+ *
+ * @see PrintStreamLogger
+ * @see AsyncLogger
+ */
+public interface FTPLogger
+{
+	/**
+	 * Returns true if messages of the level are logged.
+	 */
+	boolean isEnabled(LogLevel aLevel);
+
+
+	/**
+	 * Logs a message. This method is only called for enabled levels.
+	 *
+	 * @param aTime the time in milliseconds the message was logged.
+	 * @param aLevel the level of the message.
+	 * @param aMessage the message.
+	 */
+	void log(long aTime, LogLevel aLevel, String aMessage);
+
+
+	/**
+	 * Logs a message created by the supplier if the level is enabled.
+	 */
+	default void log(LogLevel aLevel, Supplier<String> aMessage)
+	{
+		if (isEnabled(aLevel))
+		{
+			log(System.currentTimeMillis(), aLevel, aMessage.get());
+		}
+	}
+}
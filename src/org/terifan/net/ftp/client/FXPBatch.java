@@ -0,0 +1,214 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Copies a batch of files directly between two servers (FXP) using FTPClient.transferTo.<p>
+ *
+ * The files are distributed over a number of session pairs transferring files in parallel, each pair consisting of a client connected to
+ * the source server and a client connected to the target server. A pair losing a connection reconnects before the next file.
+ */
+public class FXPBatch
+{
+	private final static AtomicInteger BATCH_COUNTER = new AtomicInteger();
+
+	private final TransferScheduler.ClientFactory mClientFactory;
+	private final String mSourceHost;
+	private final String mTargetHost;
+	private final int mParallelism;
+	private final ArrayList<String> mSourcePaths;
+	private final ArrayList<String> mTargetPaths;
+
+
+	/**
+	 * Creates a new FXPBatch.
+	 *
+	 * @param aClientFactory creates connected FTPClient sessions.
+	 * @param aSourceHost the host files are copied from, as understood by the ClientFactory.
+	 * @param aTargetHost the host files are copied to, as understood by the ClientFactory.
+	 * @param aParallelism maximum number of files transferred at the same time.
+	 */
+	public FXPBatch(TransferScheduler.ClientFactory aClientFactory, String aSourceHost, String aTargetHost, int aParallelism)
+	{
+		if (aParallelism < 1)
+		{
+			throw new IllegalArgumentException("aParallelism must be positive.");
+		}
+
+		mClientFactory = aClientFactory;
+		mSourceHost = aSourceHost;
+		mTargetHost = aTargetHost;
+		mParallelism = aParallelism;
+		mSourcePaths = new ArrayList<>();
+		mTargetPaths = new ArrayList<>();
+	}
+
+
+	/**
+	 * Adds a file to the batch.
+	 *
+	 * @param aSourcePath the path to the file on the source server.
+	 * @param aTargetPath the path to the file on the target server.
+	 */
+	public FXPBatch add(String aSourcePath, String aTargetPath)
+	{
+		mSourcePaths.add(aSourcePath);
+		mTargetPaths.add(aTargetPath);
+		return this;
+	}
+
+
+	public int size()
+	{
+		return mSourcePaths.size();
+	}
+
+
+	/**
+	 * Transfers the files of the batch and waits for all transfers to finish. The sessions are closed when done.
+	 *
+	 * @return the results in the order the files were added.
+	 * @throws IOException the first failure, with any other failures suppressed, after all transfers have finished.
+	 */
+	public List<TransferResult> execute() throws IOException, InterruptedException
+	{
+		int count = mSourcePaths.size();
+		int pairs = Math.min(mParallelism, count);
+
+		if (count == 0)
+		{
+			return new ArrayList<>();
+		}
+
+		TransferResult[] results = new TransferResult[count];
+		IOException[] failures = new IOException[count];
+		AtomicInteger next = new AtomicInteger();
+
+		String prefix = "ftp-fxp-" + BATCH_COUNTER.incrementAndGet() + "-";
+		AtomicInteger threadCounter = new AtomicInteger();
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(pairs, pairs, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), aRunnable ->
+		{
+			Thread thread = new Thread(aRunnable, prefix + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		ArrayList<Callable<Void>> workers = new ArrayList<>();
+		for (int i = 0; i < pairs; i++)
+		{
+			workers.add(() -> run(next, results, failures));
+		}
+
+		try
+		{
+			for (Future<Void> future : executor.invokeAll(workers))
+			{
+				future.get();
+			}
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		IOException exception = null;
+
+		for (IOException e : failures)
+		{
+			if (e != null)
+			{
+				if (exception == null)
+				{
+					exception = e;
+				}
+				else
+				{
+					exception.addSuppressed(e);
+				}
+			}
+		}
+
+		if (exception != null)
+		{
+			throw exception;
+		}
+
+		return Arrays.asList(results);
+	}
+
+
+	/**
+	 * Transfers files using one session pair until no files remain. A failure to connect fails the file about to be transferred.
+	 */
+	private Void run(AtomicInteger aNext, TransferResult[] aResults, IOException[] aFailures)
+	{
+		FTPClient source = null;
+		FTPClient target = null;
+
+		try
+		{
+			for (int index; (index = aNext.getAndIncrement()) < aResults.length;)
+			{
+				try
+				{
+					if (source == null || !source.isConnected())
+					{
+						closeQuietly(source);
+						source = null;
+						source = mClientFactory.connect(mSourceHost);
+					}
+					if (target == null || !target.isConnected())
+					{
+						closeQuietly(target);
+						target = null;
+						target = mClientFactory.connect(mTargetHost);
+					}
+
+					aResults[index] = source.transferTo(mSourcePaths.get(index), target, mTargetPaths.get(index));
+				}
+				catch (IOException e)
+				{
+					aFailures[index] = e;
+				}
+			}
+
+			return null;
+		}
+		finally
+		{
+			closeQuietly(source);
+			closeQuietly(target);
+		}
+	}
+
+
+	private static void closeQuietly(FTPClient aClient)
+	{
+		if (aClient != null)
+		{
+			try
+			{
+				aClient.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.terifan.net.ftp.client;
+
+
+/**
+ * The type of a RemoteFile.
+ */
+public enum FileType
+{
+	FILE("file"),
+	DIRECTORY("dir"),
+	CURRENT_DIRECTORY("cdir"),
+	PARENT_DIRECTORY("pdir"),
+	OTHER(null);
+
+
+	private final String mName;
+
+
+	private FileType(String aName)
+	{
+		mName = aName;
+	}
+
+
+	/**
+	 * Returns the name of the type as used by the MLSD command.
+	 */
+	public String getName()
+	{
+		return mName;
+	}
+
+
+	/**
+	 * Returns the FileType of a type name used by the MLSD command or OTHER if the name is unknown.
+	 */
+	public static FileType fromName(String aName)
+	{
+		if (aName != null)
+		{
+			switch (aName.toLowerCase())
+			{
+				case "file":
+					return FILE;
+				case "dir":
+					return DIRECTORY;
+				case "cdir":
+					return CURRENT_DIRECTORY;
+				case "pdir":
+					return PARENT_DIRECTORY;
+			}
+		}
+
+		return OTHER;
+	}
+}
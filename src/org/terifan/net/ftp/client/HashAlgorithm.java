@@ -0,0 +1,106 @@
+package org.terifan.net.ftp.client;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+
+/**
+ * Hash algorithms computed while a file is transferred and compared with the hash reported by the server.
+ */
+public enum HashAlgorithm
+{
+	CRC32("CRC32"),
+	MD5("MD5"),
+	SHA_1("SHA-1"),
+	SHA_256("SHA-256");
+
+
+	private final String mName;
+
+
+	private HashAlgorithm(String aName)
+	{
+		mName = aName;
+	}
+
+
+	/**
+	 * Returns the name of the algorithm as used by the HASH command.
+	 */
+	public String getName()
+	{
+		return mName;
+	}
+
+
+	Hasher newHasher()
+	{
+		if (this == CRC32)
+		{
+			CRC32 crc = new CRC32();
+
+			return new Hasher()
+			{
+				@Override
+				public void update(byte[] aBuffer, int aOffset, int aLength)
+				{
+					crc.update(aBuffer, aOffset, aLength);
+				}
+
+
+				@Override
+				public String finish()
+				{
+					return String.format("%08x", crc.getValue());
+				}
+			};
+		}
+
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance(mName);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		return new Hasher()
+		{
+			@Override
+			public void update(byte[] aBuffer, int aOffset, int aLength)
+			{
+				digest.update(aBuffer, aOffset, aLength);
+			}
+
+
+			@Override
+			public String finish()
+			{
+				StringBuilder sb = new StringBuilder();
+				for (byte b : digest.digest())
+				{
+					sb.append(String.format("%02x", b & 0xFF));
+				}
+				return sb.toString();
+			}
+		};
+	}
+
+
+	/**
+	 * Computes a hash incrementally as bytes are transferred.
+	 */
+	interface Hasher
+	{
+		void update(byte[] aBuffer, int aOffset, int aLength);
+
+
+		/**
+		 * Returns the hash as a lowercase hexadecimal string.
+		 */
+		String finish();
+	}
+}
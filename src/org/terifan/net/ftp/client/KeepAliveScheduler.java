@@ -0,0 +1,51 @@
+package org.terifan.net.ftp.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A single daemon thread shared by all clients for scheduling keep-alive commands. The commands are sent by worker threads, hence a
+ * server that doesn't respond can't delay the keep-alive of other clients.
+ */
+final class KeepAliveScheduler
+{
+	private final static ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(aRunnable ->
+	{
+		Thread thread = new Thread(aRunnable, "ftp-keep-alive");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final static AtomicInteger WORKER_COUNTER = new AtomicInteger();
+
+	private final static ExecutorService WORKERS = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), aRunnable ->
+	{
+		Thread thread = new Thread(aRunnable, "ftp-keep-alive-" + WORKER_COUNTER.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+
+	private KeepAliveScheduler()
+	{
+	}
+
+
+	/**
+	 * Runs the task repeatedly at half the interval, allowing the task to detect idle periods with reasonable precision. The task is run by
+	 * a worker thread and may be started again before the previous run has completed.
+	 */
+	static ScheduledFuture<?> schedule(Runnable aTask, long aInterval)
+	{
+		long period = Math.max(1, aInterval / 2);
+
+		return SCHEDULER.scheduleWithFixedDelay(() -> WORKERS.execute(aTask), period, period, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,83 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+
+/**
+ * An OutputStream splitting the bytes written into lines, passing each line to a consumer as soon as it's complete. Lines are terminated
+ * by LF or CRLF.
+ */
+class LineOutputStream extends OutputStream
+{
+	private final Consumer<String> mConsumer;
+	private final ByteArrayOutputStream mBuffer;
+
+
+	LineOutputStream(Consumer<String> aConsumer)
+	{
+		mConsumer = aConsumer;
+		mBuffer = new ByteArrayOutputStream();
+	}
+
+
+	@Override
+	public void write(int aByte)
+	{
+		if (aByte == '\n')
+		{
+			emit();
+		}
+		else
+		{
+			mBuffer.write(aByte);
+		}
+	}
+
+
+	@Override
+	public void write(byte[] aBuffer, int aOffset, int aLength)
+	{
+		int start = aOffset;
+
+		for (int i = aOffset, end = aOffset + aLength; i < end; i++)
+		{
+			if (aBuffer[i] == '\n')
+			{
+				mBuffer.write(aBuffer, start, i - start);
+				emit();
+				start = i + 1;
+			}
+		}
+
+		mBuffer.write(aBuffer, start, aOffset + aLength - start);
+	}
+
+
+	/**
+	 * Passes a final line not terminated by a line break to the consumer.
+	 */
+	@Override
+	public void close()
+	{
+		if (mBuffer.size() > 0)
+		{
+			emit();
+		}
+	}
+
+
+	private void emit()
+	{
+		String line = mBuffer.toString();
+		mBuffer.reset();
+
+		if (line.endsWith("\r"))
+		{
+			line = line.substring(0, line.length() - 1);
+		}
+
+		mConsumer.accept(line);
+	}
+}
@@ -0,0 +1,16 @@
+package org.terifan.net.ftp.client;
+
+
+/**
+ * Reusable holder of the fields decoded from a single line of a directory listing.
+ */
+class ListEntry
+{
+	String name;
+	String type;
+	String permissions;
+	long size;
+	long dateTime;
+	String date;
+	String time;
+}
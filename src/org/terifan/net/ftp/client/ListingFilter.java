@@ -0,0 +1,253 @@
+package org.terifan.net.ftp.client;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+
+/**
+ * Selects the files returned by a listing. The filter is applied while the listing is parsed, before any RemoteFile is created for a line:
+ * the name prefix and glob are tested first, followed by the predicate. A listing with a limit is parsed until the limit is reached.<p>
+ *
+ * Example: the first 100 log files modified during the last day:
+ * <pre>
+ * ListingFilter filter = new ListingFilter()
+ *     .setGlob("*.log")
+ *     .setPredicate((name, directory, size, dateTime) -&gt; !directory &amp;&amp; dateTime &gt; System.currentTimeMillis() - 86400_000)
+ *     .setLimit(100);
+ *
+ * RemoteFile[] files = client.getFileListNew(filter, null);
+ * </pre>
+ */
+public class ListingFilter
+{
+	/**
+	 * Tests a file of a listing before a RemoteFile is created for it.
+	 */
+	@FunctionalInterface
+	public interface EntryPredicate
+	{
+		/**
+		 * @param aName the name of the file.
+		 * @param aDirectory true if the file is a directory.
+		 * @param aSize the size of the file in bytes.
+		 * @param aDateTime the modification time of the file in milliseconds or zero if unknown.
+		 * @return true to include the file.
+		 */
+		boolean test(String aName, boolean aDirectory, long aSize, long aDateTime);
+	}
+
+	private String mPrefix;
+	private String mGlob;
+	private String mGlobPrefix;
+	private Pattern mGlobPattern;
+	private EntryPredicate mPredicate;
+	private int mLimit;
+	private Comparator<RemoteFile> mComparator;
+
+
+	/**
+	 * Creates a ListingFilter accepting all files.
+	 */
+	public ListingFilter()
+	{
+		mLimit = -1;
+	}
+
+
+	/**
+	 * Only includes files with names starting with the prefix.
+	 *
+	 * @param aPrefix a prefix, case sensitive, or null to include all names.
+	 */
+	public ListingFilter setNamePrefix(String aPrefix)
+	{
+		mPrefix = aPrefix;
+		return this;
+	}
+
+
+	public String getNamePrefix()
+	{
+		return mPrefix;
+	}
+
+
+	/**
+	 * Only includes files with names matching a glob pattern. The pattern is case sensitive and may contain the wildcards "*" matching any
+	 * number of characters, "?" matching a single character and "[abc]", "[a-z]" or "[!abc]" matching a single character of a set.
+	 *
+	 * @param aGlob a pattern, e.g. "*.txt", or null to include all names.
+	 */
+	public ListingFilter setGlob(String aGlob)
+	{
+		mGlob = aGlob;
+		mGlobPattern = aGlob == null ? null : Pattern.compile(compileGlob(aGlob));
+		mGlobPrefix = aGlob == null ? null : aGlob.substring(0, indexOfWildcard(aGlob));
+		return this;
+	}
+
+
+	public String getGlob()
+	{
+		return mGlob;
+	}
+
+
+	/**
+	 * Only includes files accepted by the predicate.
+	 *
+	 * @param aPredicate a predicate or null to include all files.
+	 */
+	public ListingFilter setPredicate(EntryPredicate aPredicate)
+	{
+		mPredicate = aPredicate;
+		return this;
+	}
+
+
+	public EntryPredicate getPredicate()
+	{
+		return mPredicate;
+	}
+
+
+	/**
+	 * Sets the maximum number of files returned. Parsing of the listing stops when the limit is reached, hence the files returned are the
+	 * first files in the order listed by the server. A listing with a limit is always parsed on the calling thread.
+	 *
+	 * @param aLimit maximum number of files or -1 to return all files (default).
+	 */
+	public ListingFilter setLimit(int aLimit)
+	{
+		if (aLimit < -1)
+		{
+			throw new IllegalArgumentException("Illegal limit: " + aLimit);
+		}
+
+		mLimit = aLimit;
+		return this;
+	}
+
+
+	public int getLimit()
+	{
+		return mLimit;
+	}
+
+
+	/**
+	 * Sorts the files returned. The files are sorted after the limit has been applied.
+	 *
+	 * @param aComparator a Comparator or null to return the files in the order listed by the server (default).
+	 */
+	public ListingFilter setComparator(Comparator<RemoteFile> aComparator)
+	{
+		mComparator = aComparator;
+		return this;
+	}
+
+
+	public Comparator<RemoteFile> getComparator()
+	{
+		return mComparator;
+	}
+
+
+	/**
+	 * Returns true if the name is accepted by the prefix and glob of this filter.
+	 */
+	boolean acceptName(String aName)
+	{
+		if (mPrefix != null && !aName.startsWith(mPrefix))
+		{
+			return false;
+		}
+
+		// the literal start of the glob rejects most names without running the regular expression
+		return mGlobPattern == null || aName.startsWith(mGlobPrefix) && mGlobPattern.matcher(aName).matches();
+	}
+
+
+	boolean hasPredicate()
+	{
+		return mPredicate != null;
+	}
+
+
+	boolean accept(String aName, boolean aDirectory, long aSize, long aDateTime)
+	{
+		return mPredicate == null || mPredicate.test(aName, aDirectory, aSize, aDateTime);
+	}
+
+
+	void sort(RemoteFile[] aFiles)
+	{
+		if (mComparator != null)
+		{
+			Arrays.sort(aFiles, mComparator);
+		}
+	}
+
+
+	private static int indexOfWildcard(String aGlob)
+	{
+		for (int i = 0; i < aGlob.length(); i++)
+		{
+			char c = aGlob.charAt(i);
+			if (c == '*' || c == '?' || c == '[')
+			{
+				return i;
+			}
+		}
+
+		return aGlob.length();
+	}
+
+
+	private static String compileGlob(String aGlob)
+	{
+		StringBuilder regex = new StringBuilder();
+
+		for (int i = 0; i < aGlob.length(); i++)
+		{
+			char c = aGlob.charAt(i);
+
+			switch (c)
+			{
+				case '*':
+					regex.append(".*");
+					break;
+				case '?':
+					regex.append('.');
+					break;
+				case '[':
+					int end = aGlob.indexOf(']', i + 2);
+					if (end == -1)
+					{
+						regex.append("\\[");
+						break;
+					}
+					String set = aGlob.substring(i + 1, end);
+					regex.append('[');
+					if (set.startsWith("!"))
+					{
+						regex.append('^');
+						set = set.substring(1);
+					}
+					for (char s : set.toCharArray())
+					{
+						regex.append(s == '-' ? "-" : Character.isLetterOrDigit(s) ? String.valueOf(s) : "\\" + s);
+					}
+					regex.append(']');
+					i = end;
+					break;
+				default:
+					regex.append(Character.isLetterOrDigit(c) ? String.valueOf(c) : "\\" + c);
+					break;
+			}
+		}
+
+		return regex.toString();
+	}
+}
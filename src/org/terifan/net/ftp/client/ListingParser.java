@@ -0,0 +1,218 @@
+package org.terifan.net.ftp.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+
+/**
+ * Parses the lines of a directory listing. Large listings are split at line boundaries into chunks parsed in parallel by fork/join
+ * tasks, the results of the chunks are concatenated in the order of the lines.
+ */
+class ListingParser
+{
+	private final static int MIN_CHUNK_SIZE = 64 * 1024;
+
+
+	private ListingParser()
+	{
+	}
+
+
+	/**
+	 * Parses a listing.
+	 *
+	 * @param aListing the listing received.
+	 * @param aParser parses a line, returning null for lines not describing a file. Must be thread safe when parsing in parallel.
+	 * @param aThreshold minimum size of a listing in bytes parsed in parallel or -1 to always parse on the calling thread.
+	 * @return the objects returned by the parser in the order of the lines.
+	 */
+	static <T> List<T> parse(byte[] aListing, Function<String, T> aParser, int aThreshold)
+	{
+		return parse(aListing, aParser, aThreshold, -1);
+	}
+
+
+	/**
+	 * Parses a listing, stopping when a number of objects have been returned by the parser. A listing with a limit is always parsed on the
+	 * calling thread.
+	 *
+	 * @param aLimit maximum number of objects returned or -1 to parse all lines.
+	 */
+	static <T> List<T> parse(byte[] aListing, Function<String, T> aParser, int aThreshold, int aLimit)
+	{
+		if (aLimit >= 0)
+		{
+			ArrayList<T> result = new ArrayList<>();
+
+			if (aLimit > 0)
+			{
+				forEachLine(aListing, 0, aListing.length, aLine ->
+				{
+					T item = aParser.apply(aLine);
+					if (item != null)
+					{
+						result.add(item);
+					}
+					return result.size() < aLimit;
+				});
+			}
+
+			return result;
+		}
+
+		return pack(aListing, ArrayList<T>::new, aResult -> aLine ->
+		{
+			T item = aParser.apply(aLine);
+			if (item != null)
+			{
+				aResult.add(item);
+			}
+		}, ArrayList::addAll, aThreshold);
+	}
+
+
+	/**
+	 * Parses a listing directly into a container, e.g. a compact list, without creating an object for each line. When parsed in parallel
+	 * each chunk is packed into a container of it's own and the containers are appended to the first one in the order of the lines.
+	 *
+	 * @param aFactory creates an empty container.
+	 * @param aPacker returns the consumer packing the lines of a chunk into the container. A consumer is only used by one thread and may
+	 * reuse any state it needs between lines.
+	 * @param aAppender appends the second container to the first.
+	 * @param aThreshold minimum size of a listing in bytes parsed in parallel or -1 to always parse on the calling thread.
+	 * @return the container holding all lines.
+	 */
+	static <C> C pack(byte[] aListing, Supplier<C> aFactory, Function<C, Consumer<String>> aPacker, BiConsumer<C, C> aAppender, int aThreshold)
+	{
+		ArrayList<Chunk<C>> chunks = new ArrayList<>();
+
+		if (aThreshold >= 0 && aListing.length >= aThreshold)
+		{
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			int chunkSize = Math.max(MIN_CHUNK_SIZE, aListing.length / (4 * pool.getParallelism()));
+
+			for (int start = 0; start < aListing.length;)
+			{
+				int end = nextLine(aListing, Math.min(start + chunkSize, aListing.length));
+				chunks.add(new Chunk<>(aListing, start, end, aFactory, aPacker));
+				start = end;
+			}
+		}
+
+		if (chunks.size() < 2)
+		{
+			C container = aFactory.get();
+			Consumer<String> packer = aPacker.apply(container);
+			forEachLine(aListing, 0, aListing.length, aLine ->
+			{
+				packer.accept(aLine);
+				return true;
+			});
+			return container;
+		}
+
+		ForkJoinPool.commonPool().invoke(new RecursiveAction()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute()
+			{
+				invokeAll(chunks);
+			}
+		});
+
+		C result = chunks.get(0).mResult;
+		for (int i = 1; i < chunks.size(); i++)
+		{
+			aAppender.accept(result, chunks.get(i).mResult);
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Returns the offset following the first line break at or after the offset, or the length of the listing.
+	 */
+	private static int nextLine(byte[] aListing, int aOffset)
+	{
+		for (int i = aOffset; i < aListing.length; i++)
+		{
+			if (aListing[i] == '\n')
+			{
+				return i + 1;
+			}
+		}
+
+		return aListing.length;
+	}
+
+
+	/**
+	 * Passes the lines in a range of the listing to the consumer until it returns false. Lines are terminated by LF, CR or CRLF and decoded
+	 * one at a time, hence a listing parsed with a limit is only decoded up to the last line needed.
+	 */
+	private static void forEachLine(byte[] aListing, int aStart, int aEnd, Predicate<String> aConsumer)
+	{
+		for (int start = aStart; start < aEnd;)
+		{
+			int end = start;
+			while (end < aEnd && aListing[end] != '\n' && aListing[end] != '\r')
+			{
+				end++;
+			}
+
+			if (!aConsumer.test(new String(aListing, start, end - start)))
+			{
+				return;
+			}
+
+			start = end + 1 < aEnd && aListing[end] == '\r' && aListing[end + 1] == '\n' ? end + 2 : end + 1;
+		}
+	}
+
+
+	private static class Chunk<C> extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] mListing;
+		private final int mStart;
+		private final int mEnd;
+		private final Supplier<C> mFactory;
+		private final Function<C, Consumer<String>> mPacker;
+		private C mResult;
+
+
+		Chunk(byte[] aListing, int aStart, int aEnd, Supplier<C> aFactory, Function<C, Consumer<String>> aPacker)
+		{
+			mListing = aListing;
+			mStart = aStart;
+			mEnd = aEnd;
+			mFactory = aFactory;
+			mPacker = aPacker;
+		}
+
+
+		@Override
+		protected void compute()
+		{
+			C container = mFactory.get();
+			Consumer<String> packer = mPacker.apply(container);
+			forEachLine(mListing, mStart, mEnd, aLine ->
+			{
+				packer.accept(aLine);
+				return true;
+			});
+			mResult = container;
+		}
+	}
+}
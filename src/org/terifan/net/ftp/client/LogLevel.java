@@ -0,0 +1,38 @@
+package org.terifan.net.ftp.client;
+
+
+/**
+ * Levels of the messages logged by the FTPClient, ordered by decreasing severity.
+ */
+public enum LogLevel
+{
+	/**
+	 * Failures the client can't recover from.
+	 */
+	ERROR,
+	/**
+	 * Failures the client recovers from, e.g. retried operations.
+	 */
+	WARN,
+	/**
+	 * Changes in the state of the client, e.g. reconnects.
+	 */
+	INFO,
+	/**
+	 * Commands and responses exchanged with the server.
+	 */
+	DEBUG,
+	/**
+	 * Data received from the server, e.g. each line of a directory listing.
+	 */
+	TRACE;
+
+
+	/**
+	 * Returns true if messages of the level provided are logged when this level is the threshold.
+	 */
+	public boolean includes(LogLevel aLevel)
+	{
+		return aLevel.ordinal() <= ordinal();
+	}
+}
@@ -0,0 +1,183 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Deletes files using a number of additional sessions, each deleting batches of files with pipelined DELE commands. The queue of batches
+ * is bounded, hence the thread submitting batches is held back when the sessions can't keep up.
+ */
+class ParallelDelete
+{
+	private final static AtomicInteger DELETE_COUNTER = new AtomicInteger();
+	private final static List<String> END = Collections.emptyList();
+
+	private final ArrayBlockingQueue<List<String>> mQueue;
+	private final ThreadPoolExecutor mExecutor;
+	private final ArrayList<Future<Integer>> mWorkers;
+	private volatile IOException mFailure;
+
+
+	/**
+	 * @param aClient the client whose settings and credentials are used to open the sessions.
+	 * @param aSessions number of sessions.
+	 */
+	ParallelDelete(FTPClient aClient, int aSessions)
+	{
+		mQueue = new ArrayBlockingQueue<>(4 * aSessions);
+		mWorkers = new ArrayList<>();
+
+		String prefix = "ftp-delete-" + DELETE_COUNTER.incrementAndGet() + "-";
+		AtomicInteger threadCounter = new AtomicInteger();
+
+		mExecutor = new ThreadPoolExecutor(aSessions, aSessions, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), aRunnable ->
+		{
+			Thread thread = new Thread(aRunnable, prefix + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		for (int i = 0; i < aSessions; i++)
+		{
+			mWorkers.add(mExecutor.submit(() -> run(aClient)));
+		}
+	}
+
+
+	/**
+	 * Queues a batch of files to be deleted, waiting while the queue is full.
+	 *
+	 * @throws IOException if a session has failed.
+	 */
+	void submit(List<String> aPaths) throws IOException
+	{
+		try
+		{
+			while (!mQueue.offer(aPaths, 100, TimeUnit.MILLISECONDS))
+			{
+				checkFailure();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queuing files to delete.");
+		}
+
+		checkFailure();
+	}
+
+
+	/**
+	 * Waits for all queued batches to be deleted and closes the sessions.
+	 *
+	 * @return number of files deleted.
+	 * @throws IOException if a session has failed.
+	 */
+	int finish() throws IOException
+	{
+		int count = 0;
+
+		try
+		{
+			for (int i = 0; i < mWorkers.size(); i++)
+			{
+				while (!mQueue.offer(END, 100, TimeUnit.MILLISECONDS))
+				{
+					checkFailure();
+				}
+			}
+
+			for (Future<Integer> worker : mWorkers)
+			{
+				count += worker.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for files to be deleted.");
+		}
+		catch (ExecutionException e)
+		{
+			checkFailure();
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+		finally
+		{
+			mExecutor.shutdownNow();
+		}
+
+		checkFailure();
+
+		return count;
+	}
+
+
+	/**
+	 * Stops the sessions without waiting for queued batches to be deleted.
+	 */
+	void cancel()
+	{
+		mExecutor.shutdownNow();
+	}
+
+
+	private void checkFailure() throws IOException
+	{
+		IOException failure = mFailure;
+
+		if (failure != null)
+		{
+			mExecutor.shutdownNow();
+			throw failure;
+		}
+	}
+
+
+	private int run(FTPClient aClient) throws InterruptedException
+	{
+		int count = 0;
+		FTPClient session = null;
+
+		try
+		{
+			session = aClient.openSession();
+
+			for (List<String> paths; (paths = mQueue.take()) != END;)
+			{
+				count += session.deleteFiles(paths);
+			}
+		}
+		catch (IOException e)
+		{
+			mFailure = e;
+		}
+		finally
+		{
+			if (session != null)
+			{
+				try
+				{
+					session.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+
+		return count;
+	}
+}
@@ -3,26 +3,27 @@ package org.terifan.net.ftp.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 
 class PassiveDataSocket extends DataSocket
 {
 	private String mAddress;
-	private boolean mStopped;
+	private Socket mSocket;
 
 
 	/**
 	 * Creates a socket for sending data to the FTP server.
 	 */
-	public static PassiveDataSocket createOutputSocket(String aAddress, InputStream aInputStream, ProgressListener aProgressListener) throws IOException
+	public static PassiveDataSocket createOutputSocket(String aAddress, InputStream aInputStream) throws IOException
 	{
 		String address = aAddress.substring(aAddress.lastIndexOf("(")+1, aAddress.lastIndexOf(")"));
 
 		PassiveDataSocket socket = new PassiveDataSocket();
 		socket.mAddress = address;
 		socket.mInputStream = aInputStream;
-		socket.mProgressListener = aProgressListener != null ? aProgressListener : (e)->{};
 		return socket;
 	}
 
@@ -30,14 +31,13 @@ class PassiveDataSocket extends DataSocket
 	/**
 	 * Creates a socket for receiving data from the FTP server.
 	 */
-	public static PassiveDataSocket createInputSocket(String aAddress, OutputStream aOutputStream, ProgressListener aProgressListener) throws IOException
+	public static PassiveDataSocket createInputSocket(String aAddress, OutputStream aOutputStream) throws IOException
 	{
 		String address = aAddress.substring(aAddress.lastIndexOf("(")+1, aAddress.lastIndexOf(")"));
 
 		PassiveDataSocket socket = new PassiveDataSocket();
 		socket.mAddress = address;
 		socket.mOutputStream = aOutputStream;
-		socket.mProgressListener = aProgressListener != null ? aProgressListener : (e)->{};
 		return socket;
 	}
 
@@ -53,82 +53,40 @@ class PassiveDataSocket extends DataSocket
 
 
 	/**
-	 * Blocks until this DataSocket has finished it's transfer.
+	 * Connects to the port of the server.
 	 */
 	@Override
-	public void block()
+	void open() throws IOException
 	{
-		while (!mStopped)
+		String [] address = mAddress.split(",");
+
+		if (address.length != 6)
 		{
-			try
-			{
-				Thread.sleep(10);
-			}
-			catch (Exception e)
-			{
-			}
+			throw new IllegalStateException("Address has bad format: " + mAddress);
 		}
+
+		// a socket channel allows files to be sent by the operating system, reads through the socket still honor the timeout
+		mSocket = SocketChannel.open(new InetSocketAddress(address[0] + "." + address[1] + "." + address[2] + "." + address[3], Integer.parseInt(address[4]) * 256 + Integer.parseInt(address[5]))).socket();
+		mSocket.setSoTimeout(60_000);
 	}
 
 
 	/**
-	 * Initializes the ServerSocket and starts listening on a port.
+	 * Returns the socket connected with the server.
 	 */
 	@Override
-	public void start() throws IOException
+	Socket acceptSocket() throws IOException
 	{
-		WorkerThread workerThread = new WorkerThread();
-		workerThread.start();
-
-		while (!workerThread.mIsStarted)
-		{
-			try
-			{
-				Thread.sleep(10);
-			}
-			catch (Exception e)
-			{
-			}
-		}
+		return mSocket;
 	}
 
 
-	private class WorkerThread extends Thread
+	@Override
+	void closeSockets() throws IOException
 	{
-		public boolean mIsStarted;
-
-
-		/**
-		 * Waits for server connection and transmits data with the server.
-		 */
-		@Override
-		public void run()
+		if (mSocket != null)
 		{
-			mIsStarted = true;
-
-			try
-			{
-				String [] address = mAddress.split(",");
-
-				if (address.length != 6)
-				{
-					throw new IllegalStateException("Address has bad format: " + mAddress);
-				}
-
-				try (Socket socket = new Socket(address[0] + "." + address[1] + "." + address[2] + "." + address[3], Integer.parseInt(address[4]) * 256 + Integer.parseInt(address[5])))
-				{
-					socket.setSoTimeout(60_000);
-					transfer(socket);
-				}
-			}
-			catch (IOException e)
-			{
-				e.printStackTrace(System.out);
-			}
-			finally
-			{
-				mStopped = true;
-			}
+			mSocket.close();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package org.terifan.net.ftp.client;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+
+/**
+ * An FTPLogger writing messages to a PrintStream on the thread logging the message. Combine with an AsyncLogger to move the writing off
+ * the threads of the client.
+ */
+public class PrintStreamLogger implements FTPLogger
+{
+	private final static DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+	private final PrintStream mPrintStream;
+	private final LogLevel mLevel;
+
+
+	/**
+	 * Creates a new PrintStreamLogger.
+	 *
+	 * @param aPrintStream the PrintStream messages are written to.
+	 * @param aLevel the most detailed level logged.
+	 */
+	public PrintStreamLogger(PrintStream aPrintStream, LogLevel aLevel)
+	{
+		if (aPrintStream == null || aLevel == null)
+		{
+			throw new IllegalArgumentException("aPrintStream and aLevel must not be null.");
+		}
+
+		mPrintStream = aPrintStream;
+		mLevel = aLevel;
+	}
+
+
+	public PrintStream getPrintStream()
+	{
+		return mPrintStream;
+	}
+
+
+	public LogLevel getLevel()
+	{
+		return mLevel;
+	}
+
+
+	@Override
+	public boolean isEnabled(LogLevel aLevel)
+	{
+		return mLevel.includes(aLevel);
+	}
+
+
+	@Override
+	public void log(long aTime, LogLevel aLevel, String aMessage)
+	{
+		mPrintStream.println(FORMATTER.format(Instant.ofEpochMilli(aTime)) + " " + aLevel + " " + aMessage);
+	}
+}
@@ -0,0 +1,169 @@
+package org.terifan.net.ftp.client;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Reports the progress of a transfer to a ProgressListener.<p>
+ *
+ * The transfer calls the update method for every block, which only compares the progress with the thresholds. An event is created when
+ * the interval has passed or the number of bytes has been transferred since the previous event. When an executor is used the events are
+ * delivered in order on the executor, a progress event not yet delivered is replaced by a newer one, hence a slow listener never delays
+ * the transfer.
+ */
+class ProgressDispatcher
+{
+	private final ProgressListener mListener;
+	private final Executor mExecutor;
+	private final long mInterval;
+	private final long mByteInterval;
+	private final ArrayDeque<ProgressEvent> mQueue;
+	private boolean mScheduled;
+	private volatile long mTotalSize;
+	private long mStartTime;
+	private long mLastTime;
+	private long mLastCount;
+
+
+	/**
+	 * @param aInterval minimum time between events in milliseconds.
+	 * @param aByteInterval minimum number of bytes transferred between events.
+	 * @param aExecutor executor delivering the events or null to deliver them on the thread performing the transfer.
+	 */
+	ProgressDispatcher(ProgressListener aListener, long aInterval, long aByteInterval, Executor aExecutor)
+	{
+		mListener = aListener;
+		mInterval = aInterval >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : aInterval * 1_000_000;
+		mByteInterval = aByteInterval;
+		mExecutor = aExecutor;
+		mQueue = new ArrayDeque<>();
+		mTotalSize = -1;
+	}
+
+
+	void setTotalSize(long aTotalSize)
+	{
+		mTotalSize = aTotalSize;
+	}
+
+
+	void started()
+	{
+		mStartTime = mLastTime = System.nanoTime();
+		mLastCount = 0;
+
+		dispatch(new ProgressEvent(ProgressEvent.Type.STARTED, 0, mTotalSize, 0, 0, 0));
+	}
+
+
+	/**
+	 * Called for every block transferred.
+	 */
+	void update(long aTransferredCount)
+	{
+		if (aTransferredCount - mLastCount >= mByteInterval || System.nanoTime() - mLastTime >= mInterval)
+		{
+			report(ProgressEvent.Type.PROGRESS, aTransferredCount);
+		}
+	}
+
+
+	/**
+	 * Reports the final progress, unless already reported, followed by the completion of the transfer.
+	 */
+	void completed(long aTransferredCount)
+	{
+		if (aTransferredCount != mLastCount)
+		{
+			report(ProgressEvent.Type.PROGRESS, aTransferredCount);
+		}
+
+		report(ProgressEvent.Type.COMPLETED, aTransferredCount);
+	}
+
+
+	private void report(ProgressEvent.Type aType, long aTransferredCount)
+	{
+		long time = System.nanoTime();
+		long elapsed = time - mStartTime;
+		long rate = time > mLastTime ? (long)((aTransferredCount - mLastCount) * 1e9 / (time - mLastTime)) : 0;
+		long averageRate = elapsed > 0 ? (long)(aTransferredCount * 1e9 / elapsed) : 0;
+
+		mLastTime = time;
+		mLastCount = aTransferredCount;
+
+		dispatch(new ProgressEvent(aType, aTransferredCount, mTotalSize, elapsed / 1_000_000, rate, averageRate));
+	}
+
+
+	private void dispatch(ProgressEvent aEvent)
+	{
+		if (mExecutor == null)
+		{
+			mListener.progressChanged(aEvent);
+			return;
+		}
+
+		synchronized (mQueue)
+		{
+			ProgressEvent last = mQueue.peekLast();
+			if (aEvent.getType() == ProgressEvent.Type.PROGRESS && last != null && last.getType() == ProgressEvent.Type.PROGRESS)
+			{
+				mQueue.pollLast();
+			}
+
+			mQueue.add(aEvent);
+
+			if (mScheduled)
+			{
+				return;
+			}
+
+			mScheduled = true;
+		}
+
+		try
+		{
+			mExecutor.execute(this::deliver);
+		}
+		catch (RejectedExecutionException e)
+		{
+			deliver();
+		}
+	}
+
+
+	private void deliver()
+	{
+		for (;;)
+		{
+			ProgressEvent event;
+
+			synchronized (mQueue)
+			{
+				event = mQueue.poll();
+
+				if (event == null)
+				{
+					mScheduled = false;
+					return;
+				}
+			}
+
+			try
+			{
+				mListener.progressChanged(event);
+			}
+			catch (RuntimeException e)
+			{
+				synchronized (mQueue)
+				{
+					mScheduled = false;
+				}
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.terifan.net.ftp.client;
+
+
+/**
+ * Describes the progress of a transfer. Events are created by the client at an interval set with FTPClient.setProgressInterval.
+ */
+public class ProgressEvent
+{
+	public enum Type
+	{
+		STARTED,
+		PROGRESS,
+		COMPLETED
+	}
+
+	private final Type mType;
+	private final long mTransferredCount;
+	private final long mTotalSize;
+	private final long mElapsedTime;
+	private final long mRate;
+	private final long mAverageRate;
+
+
+	ProgressEvent(Type aType, long aTransferredCount, long aTotalSize, long aElapsedTime, long aRate, long aAverageRate)
+	{
+		mType = aType;
+		mTransferredCount = aTransferredCount;
+		mTotalSize = aTotalSize;
+		mElapsedTime = aElapsedTime;
+		mRate = aRate;
+		mAverageRate = aAverageRate;
+	}
+
+
+	public Type getType()
+	{
+		return mType;
+	}
+
+
+	/**
+	 * Returns the number of bytes transferred.
+	 */
+	public long getTransferredCount()
+	{
+		return mTransferredCount;
+	}
+
+
+	/**
+	 * Returns the number of bytes to transfer or -1 if unknown. Downloads use the size reported by the server, uploads the size of a local
+	 * file sent from a Path or a FileInputStream.
+	 */
+	public long getTotalSize()
+	{
+		return mTotalSize;
+	}
+
+
+	/**
+	 * Returns the time in milliseconds since the transfer started.
+	 */
+	public long getElapsedTime()
+	{
+		return mElapsedTime;
+	}
+
+
+	/**
+	 * Returns the transfer rate in bytes per second since the previous event.
+	 */
+	public long getRate()
+	{
+		return mRate;
+	}
+
+
+	/**
+	 * Returns the transfer rate in bytes per second since the transfer started.
+	 */
+	public long getAverageRate()
+	{
+		return mAverageRate;
+	}
+
+
+	/**
+	 * Returns the estimated time in milliseconds until the transfer completes, based on the average rate, or -1 if the size of the file
+	 * is unknown.
+	 */
+	public long getEstimatedTimeRemaining()
+	{
+		if (mType == Type.COMPLETED)
+		{
+			return 0;
+		}
+		if (mTotalSize < 0 || mAverageRate <= 0)
+		{
+			return -1;
+		}
+
+		return (long)(Math.max(0, mTotalSize - mTransferredCount) * 1000.0 / mAverageRate);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return mType + " " + mTransferredCount + "/" + mTotalSize + " bytes, " + mRate + " B/s, average " + mAverageRate + " B/s, " + mElapsedTime + " ms";
+	}
+}
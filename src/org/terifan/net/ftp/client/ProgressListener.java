@@ -29,4 +29,29 @@ public interface ProgressListener
 	 *    completed or TRANSFER_STARTED if transfer has started.
 	 */
 	void progressChanged(long aTransferedCount);
+
+
+	/**
+	 * This method is called by the client with the progress of a transfer. Events are coalesced by the client, see
+	 * FTPClient.setProgressInterval. The default implementation calls progressChanged(long) with TRANSFER_STARTED, the number of bytes
+	 * transferred or TRANSFER_COMPLETED. Override this method to receive the total size, transfer rates and estimated time remaining.
+	 *
+	 * @param aEvent
+	 *    the progress of the transfer.
+	 */
+	default void progressChanged(ProgressEvent aEvent)
+	{
+		switch (aEvent.getType())
+		{
+			case STARTED:
+				progressChanged(TRANSFER_STARTED);
+				break;
+			case COMPLETED:
+				progressChanged(TRANSFER_COMPLETED);
+				break;
+			default:
+				progressChanged(aEvent.getTransferredCount());
+				break;
+		}
+	}
 }
\ No newline at end of file
@@ -9,9 +9,12 @@ import org.terifan.util.Calendar;
  */
 public class RemoteFile
 {
+	private FileType mFileType;
 	private String mType;
 	private long mSize;
 	private long mDateTime;
+	private volatile String mDate;
+	private String mTime;
 	private String mName;
 	private String mPath;
 	private String mPermissions;
@@ -24,36 +27,56 @@ public class RemoteFile
 		mPath = aPath;
 		mName = aName;
 		mSize = aSize;
-		mType = aDirectory ? "dir" : "file";
+		mFileType = aDirectory ? FileType.DIRECTORY : FileType.FILE;
+		mTime = aTime;
+		mDate = aDate;
+	}
+
+
+	RemoteFile(FTPClient aClient, String aType, String aPath, String aName, long aDateTime, long aSize, String aPermissions)
+	{
+		mClient = aClient;
+		mFileType = FileType.fromName(aType);
+		mType = mFileType == FileType.OTHER ? aType : null;
+		mPath = aPath;
+		mName = aName;
+		mDateTime = aDateTime;
+		mSize = aSize;
+		mPermissions = aPermissions;
+	}
+
+
+	/**
+	 * Combines the date and time columns of a LIST response into a timestamp. Columns that can't be parsed are counted by the client.
+	 */
+	static long parseDateTime(String aDate, String aTime, FTPClient aClient)
+	{
+		long dateTime = 0;
 
 		try
 		{
-			mDateTime = Calendar.parse(aDate).get();
+			dateTime = Calendar.parse(aDate).get();
 		}
 		catch (Exception e)
 		{
-			System.out.println("Failed to parse date: " + aDate);
+			if (aClient != null)
+			{
+				aClient.countParseFailure();
+			}
 		}
 		try
 		{
-			mDateTime += Calendar.parse(aTime).get();
+			dateTime += Calendar.parse(aTime).get();
 		}
 		catch (Exception e)
 		{
-			System.out.println("Failed to parse time: " + aTime);
+			if (aClient != null)
+			{
+				aClient.countParseFailure();
+			}
 		}
-	}
-
 
-	RemoteFile(FTPClient aClient, String aType, String aPath, String aName, long aDateTime, long aSize, String aPermissions)
-	{
-		mClient = aClient;
-		mType = aType;
-		mPath = aPath;
-		mName = aName;
-		mDateTime = aDateTime;
-		mSize = aSize;
-		mPermissions = aPermissions;
+		return dateTime;
 	}
 
 
@@ -81,8 +104,26 @@ public class RemoteFile
 	}
 
 
+	/**
+	 * Returns the modification time of this remote file. Dates received with the LIST command are parsed the first time this method is
+	 * called.
+	 */
 	public long getDateTime()
 	{
+		if (mDate != null)
+		{
+			// the date is parsed once, the volatile write of mDate publishes mDateTime to threads not entering the block
+			synchronized (this)
+			{
+				if (mDate != null)
+				{
+					mDateTime = parseDateTime(mDate, mTime, mClient);
+					mTime = null;
+					mDate = null;
+				}
+			}
+		}
+
 		return mDateTime;
 	}
 
@@ -92,7 +133,7 @@ public class RemoteFile
 	 */
 	public boolean isDirectory()
 	{
-		return mType.equals("dir");
+		return mFileType == FileType.DIRECTORY;
 	}
 
 
@@ -120,9 +161,18 @@ public class RemoteFile
 	}
 
 
+	/**
+	 * Returns the type name of this remote file, e.g. "file" or "dir".
+	 */
 	public String getType()
 	{
-		return mType;
+		return mFileType == FileType.OTHER ? mType : mFileType.getName();
+	}
+
+
+	public FileType getFileType()
+	{
+		return mFileType;
 	}
 
 
@@ -132,7 +182,7 @@ public class RemoteFile
 	@Override
 	public String toString()
 	{
-		return String.format("DateTime: %s, Type: %-4s, Size: %8d, Perm: %s, Name: %s", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(mDateTime), mType, mSize, mPermissions, mName);
+		return String.format("DateTime: %s, Type: %-4s, Size: %8d, Perm: %s, Name: %s", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(getDateTime()), getType(), mSize, mPermissions, mName);
 	}
 
 
@@ -0,0 +1,189 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A read-only SeekableByteChannel reading a remote file using range reads. Blocks read are kept in a least recently used cache.
+ */
+class RemoteFileChannel implements SeekableByteChannel
+{
+	private final FTPClient mClient;
+	private final String mPath;
+	private final long mSize;
+	private final int mBlockSize;
+	private final LinkedHashMap<Long, byte[]> mCache;
+	private long mPosition;
+	private boolean mOpen;
+	private long mBlockReadCount;
+
+
+	RemoteFileChannel(FTPClient aClient, String aPath, long aSize, int aBlockSize, int aCacheSize) throws ResponseCodeException
+	{
+		if (aSize < 0)
+		{
+			throw new ResponseCodeException("File not found: " + aPath, 550);
+		}
+		if (aBlockSize < 1 || aCacheSize < 1)
+		{
+			throw new IllegalArgumentException("aBlockSize and aCacheSize must be positive.");
+		}
+
+		mClient = aClient;
+		mPath = aPath;
+		mSize = aSize;
+		mBlockSize = aBlockSize;
+		mOpen = true;
+		mCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, byte[]> aEldest)
+			{
+				return size() > aCacheSize;
+			}
+		};
+	}
+
+
+	@Override
+	public int read(ByteBuffer aBuffer) throws IOException
+	{
+		ensureOpen();
+
+		if (mPosition >= mSize)
+		{
+			return -1;
+		}
+
+		int total = 0;
+
+		while (aBuffer.hasRemaining() && mPosition < mSize)
+		{
+			long blockIndex = mPosition / mBlockSize;
+			int offset = (int)(mPosition % mBlockSize);
+
+			byte[] block = getBlock(blockIndex);
+
+			int len = Math.min(aBuffer.remaining(), block.length - offset);
+			if (len <= 0)
+			{
+				break;
+			}
+
+			aBuffer.put(block, offset, len);
+			mPosition += len;
+			total += len;
+		}
+
+		return total;
+	}
+
+
+	private byte[] getBlock(long aBlockIndex) throws IOException
+	{
+		byte[] block = mCache.get(aBlockIndex);
+
+		if (block == null)
+		{
+			long start = aBlockIndex * mBlockSize;
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream((int)Math.min(mBlockSize, mSize - start));
+			mClient.read(mPath, start, Math.min(mBlockSize, mSize - start), buffer);
+			block = buffer.toByteArray();
+			mBlockReadCount++;
+
+			mCache.put(aBlockIndex, block);
+		}
+
+		return block;
+	}
+
+
+	/**
+	 * Returns the number of blocks transferred from the server.
+	 */
+	long getBlockReadCount()
+	{
+		return mBlockReadCount;
+	}
+
+
+	@Override
+	public int write(ByteBuffer aBuffer) throws IOException
+	{
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public long position() throws IOException
+	{
+		ensureOpen();
+
+		return mPosition;
+	}
+
+
+	@Override
+	public SeekableByteChannel position(long aPosition) throws IOException
+	{
+		ensureOpen();
+
+		if (aPosition < 0)
+		{
+			throw new IllegalArgumentException("aPosition must not be negative.");
+		}
+
+		mPosition = aPosition;
+		return this;
+	}
+
+
+	@Override
+	public long size() throws IOException
+	{
+		ensureOpen();
+
+		return mSize;
+	}
+
+
+	@Override
+	public SeekableByteChannel truncate(long aSize) throws IOException
+	{
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public boolean isOpen()
+	{
+		return mOpen;
+	}
+
+
+	@Override
+	public void close()
+	{
+		mOpen = false;
+		mCache.clear();
+	}
+
+
+	private void ensureOpen() throws ClosedChannelException
+	{
+		if (!mOpen)
+		{
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,484 @@
+package org.terifan.net.ftp.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+
+/**
+ * A compact, read-only listing of the files in a remote directory. Names are stored in a shared character array and sizes and timestamps
+ * in primitive arrays, while the directory path, file types and permissions are stored once and shared by all entries. RemoteFile
+ * objects are only created when an entry is accessed using the get method or the iterator.<p>
+ *
+ * The filter and sort methods operate on the primitive arrays and return new lists sharing the name array of this list.
+ */
+public class RemoteFileList implements Iterable<RemoteFile>
+{
+	private final FTPClient mClient;
+	private final String mPath;
+	private final ArrayList<String> mTypePool;
+	private final ArrayList<String> mPermissionPool;
+	private final HashMap<String, Integer> mPoolIndex;
+	private char[] mNames;
+	private int mNamesLength;
+	private int[] mNameOffsets;
+	private int[] mNameLengths;
+	private long[] mSizes;
+	private long[] mDateTimes;
+	private byte[] mTypes;
+	private int[] mPermissions;
+	private int mSize;
+
+
+	RemoteFileList(FTPClient aClient, String aPath)
+	{
+		mClient = aClient;
+		mPath = aPath;
+		mTypePool = new ArrayList<>();
+		mPermissionPool = new ArrayList<>();
+		mPoolIndex = new HashMap<>();
+		mNames = new char[1024];
+		mNameOffsets = new int[16];
+		mNameLengths = new int[16];
+		mSizes = new long[16];
+		mDateTimes = new long[16];
+		mTypes = new byte[16];
+		mPermissions = new int[16];
+
+		mPermissionPool.add(null);
+	}
+
+
+	private RemoteFileList(RemoteFileList aSource, int[] aIndices, int aCount)
+	{
+		mClient = aSource.mClient;
+		mPath = aSource.mPath;
+		mTypePool = aSource.mTypePool;
+		mPermissionPool = aSource.mPermissionPool;
+		mPoolIndex = null;
+		mNames = aSource.mNames;
+		mNamesLength = aSource.mNamesLength;
+		mNameOffsets = new int[aCount];
+		mNameLengths = new int[aCount];
+		mSizes = new long[aCount];
+		mDateTimes = new long[aCount];
+		mTypes = new byte[aCount];
+		mPermissions = new int[aCount];
+		mSize = aCount;
+
+		for (int i = 0; i < aCount; i++)
+		{
+			int j = aIndices[i];
+			mNameOffsets[i] = aSource.mNameOffsets[j];
+			mNameLengths[i] = aSource.mNameLengths[j];
+			mSizes[i] = aSource.mSizes[j];
+			mDateTimes[i] = aSource.mDateTimes[j];
+			mTypes[i] = aSource.mTypes[j];
+			mPermissions[i] = aSource.mPermissions[j];
+		}
+	}
+
+
+	void add(String aName, String aType, long aDateTime, long aSize, String aPermissions)
+	{
+		if (mSize == mSizes.length)
+		{
+			int capacity = mSize * 2;
+			mNameOffsets = Arrays.copyOf(mNameOffsets, capacity);
+			mNameLengths = Arrays.copyOf(mNameLengths, capacity);
+			mSizes = Arrays.copyOf(mSizes, capacity);
+			mDateTimes = Arrays.copyOf(mDateTimes, capacity);
+			mTypes = Arrays.copyOf(mTypes, capacity);
+			mPermissions = Arrays.copyOf(mPermissions, capacity);
+		}
+
+		int length = aName.length();
+		if (mNamesLength + length > mNames.length)
+		{
+			mNames = Arrays.copyOf(mNames, Math.max(2 * mNames.length, mNamesLength + length));
+		}
+		aName.getChars(0, length, mNames, mNamesLength);
+
+		mNameOffsets[mSize] = mNamesLength;
+		mNameLengths[mSize] = length;
+		mSizes[mSize] = aSize;
+		mDateTimes[mSize] = aDateTime;
+		mTypes[mSize] = (byte)intern(mTypePool, "T" + aType, aType);
+		mPermissions[mSize] = aPermissions == null ? 0 : intern(mPermissionPool, "P" + aPermissions, aPermissions);
+
+		mNamesLength += length;
+		mSize++;
+	}
+
+
+	/**
+	 * Appends the entries of another list created by the same client, e.g. a chunk of a listing packed on another thread.
+	 */
+	void addAll(RemoteFileList aOther)
+	{
+		int size = mSize + aOther.mSize;
+		if (size > mSizes.length)
+		{
+			mNameOffsets = Arrays.copyOf(mNameOffsets, size);
+			mNameLengths = Arrays.copyOf(mNameLengths, size);
+			mSizes = Arrays.copyOf(mSizes, size);
+			mDateTimes = Arrays.copyOf(mDateTimes, size);
+			mTypes = Arrays.copyOf(mTypes, size);
+			mPermissions = Arrays.copyOf(mPermissions, size);
+		}
+
+		if (mNamesLength + aOther.mNamesLength > mNames.length)
+		{
+			mNames = Arrays.copyOf(mNames, mNamesLength + aOther.mNamesLength);
+		}
+		System.arraycopy(aOther.mNames, 0, mNames, mNamesLength, aOther.mNamesLength);
+
+		// the pools of the other list are mapped to indices in the pools of this list
+		int[] types = new int[aOther.mTypePool.size()];
+		for (int i = 0; i < types.length; i++)
+		{
+			types[i] = intern(mTypePool, "T" + aOther.mTypePool.get(i), aOther.mTypePool.get(i));
+		}
+		int[] permissions = new int[aOther.mPermissionPool.size()];
+		for (int i = 1; i < permissions.length; i++)
+		{
+			permissions[i] = intern(mPermissionPool, "P" + aOther.mPermissionPool.get(i), aOther.mPermissionPool.get(i));
+		}
+
+		for (int i = 0, j = mSize; i < aOther.mSize; i++, j++)
+		{
+			mNameOffsets[j] = mNamesLength + aOther.mNameOffsets[i];
+			mNameLengths[j] = aOther.mNameLengths[i];
+			mSizes[j] = aOther.mSizes[i];
+			mDateTimes[j] = aOther.mDateTimes[i];
+			mTypes[j] = (byte)types[aOther.mTypes[i] & 0xff];
+			mPermissions[j] = permissions[aOther.mPermissions[i]];
+		}
+
+		mNamesLength += aOther.mNamesLength;
+		mSize = size;
+	}
+
+
+	private int intern(ArrayList<String> aPool, String aKey, String aValue)
+	{
+		Integer index = mPoolIndex.get(aKey);
+
+		if (index == null)
+		{
+			index = aPool.size();
+			aPool.add(aValue);
+			mPoolIndex.put(aKey, index);
+		}
+
+		return index;
+	}
+
+
+	/**
+	 * Returns the path of the directory listed.
+	 */
+	public String getPath()
+	{
+		return mPath;
+	}
+
+
+	/**
+	 * Returns the number of entries in this list.
+	 */
+	public int size()
+	{
+		return mSize;
+	}
+
+
+	/**
+	 * Returns a RemoteFile describing the entry at the index. A new RemoteFile object is created each time this method is called.
+	 */
+	public RemoteFile get(int aIndex)
+	{
+		checkIndex(aIndex);
+
+		return new RemoteFile(mClient, getType(aIndex), mPath, getName(aIndex), mDateTimes[aIndex], mSizes[aIndex], getPermissions(aIndex));
+	}
+
+
+	public String getName(int aIndex)
+	{
+		checkIndex(aIndex);
+
+		return new String(mNames, mNameOffsets[aIndex], mNameLengths[aIndex]);
+	}
+
+
+	public long getSize(int aIndex)
+	{
+		checkIndex(aIndex);
+
+		return mSizes[aIndex];
+	}
+
+
+	public long getDateTime(int aIndex)
+	{
+		checkIndex(aIndex);
+
+		return mDateTimes[aIndex];
+	}
+
+
+	public String getType(int aIndex)
+	{
+		checkIndex(aIndex);
+
+		return mTypePool.get(mTypes[aIndex]);
+	}
+
+
+	public boolean isDirectory(int aIndex)
+	{
+		return "dir".equals(getType(aIndex));
+	}
+
+
+	public String getPermissions(int aIndex)
+	{
+		checkIndex(aIndex);
+
+		return mPermissionPool.get(mPermissions[aIndex]);
+	}
+
+
+	/**
+	 * Returns true if the name of the entry starts with the prefix. The name is not copied.
+	 */
+	public boolean nameStartsWith(int aIndex, String aPrefix)
+	{
+		checkIndex(aIndex);
+
+		int length = aPrefix.length();
+		if (length > mNameLengths[aIndex])
+		{
+			return false;
+		}
+
+		int offset = mNameOffsets[aIndex];
+		for (int i = 0; i < length; i++)
+		{
+			if (mNames[offset + i] != aPrefix.charAt(i))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Returns true if the name of the entry ends with the suffix. The name is not copied.
+	 */
+	public boolean nameEndsWith(int aIndex, String aSuffix)
+	{
+		checkIndex(aIndex);
+
+		int length = aSuffix.length();
+		if (length > mNameLengths[aIndex])
+		{
+			return false;
+		}
+
+		int offset = mNameOffsets[aIndex] + mNameLengths[aIndex] - length;
+		for (int i = 0; i < length; i++)
+		{
+			if (mNames[offset + i] != aSuffix.charAt(i))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Returns a new list containing the entries accepted by the predicate. The predicate receives the index of an entry in this list and
+	 * is expected to use the index based accessors of this list.
+	 */
+	public RemoteFileList filter(IntPredicate aPredicate)
+	{
+		int[] indices = new int[mSize];
+		int count = 0;
+
+		for (int i = 0; i < mSize; i++)
+		{
+			if (aPredicate.test(i))
+			{
+				indices[count++] = i;
+			}
+		}
+
+		return new RemoteFileList(this, indices, count);
+	}
+
+
+	/**
+	 * Returns a new list containing the entries of this list sorted by the comparator. The sort is stable.
+	 */
+	public RemoteFileList sort(IndexComparator aComparator)
+	{
+		int[] indices = new int[mSize];
+		for (int i = 0; i < mSize; i++)
+		{
+			indices[i] = i;
+		}
+
+		mergeSort(indices, new int[mSize], 0, mSize, aComparator);
+
+		return new RemoteFileList(this, indices, mSize);
+	}
+
+
+	/**
+	 * Returns a new list sorted by name.
+	 */
+	public RemoteFileList sortByName()
+	{
+		return sort(this::compareNames);
+	}
+
+
+	/**
+	 * Returns a new list sorted by size.
+	 */
+	public RemoteFileList sortBySize()
+	{
+		return sort((a, b) -> Long.compare(mSizes[a], mSizes[b]));
+	}
+
+
+	/**
+	 * Returns a new list sorted by date and time.
+	 */
+	public RemoteFileList sortByDateTime()
+	{
+		return sort((a, b) -> Long.compare(mDateTimes[a], mDateTimes[b]));
+	}
+
+
+	private int compareNames(int aIndex1, int aIndex2)
+	{
+		int offset1 = mNameOffsets[aIndex1];
+		int offset2 = mNameOffsets[aIndex2];
+		int length1 = mNameLengths[aIndex1];
+		int length2 = mNameLengths[aIndex2];
+
+		for (int i = 0, n = Math.min(length1, length2); i < n; i++)
+		{
+			int d = mNames[offset1 + i] - mNames[offset2 + i];
+			if (d != 0)
+			{
+				return d;
+			}
+		}
+
+		return length1 - length2;
+	}
+
+
+	private static void mergeSort(int[] aIndices, int[] aWork, int aFrom, int aTo, IndexComparator aComparator)
+	{
+		if (aTo - aFrom < 2)
+		{
+			return;
+		}
+
+		int mid = (aFrom + aTo) >>> 1;
+		mergeSort(aIndices, aWork, aFrom, mid, aComparator);
+		mergeSort(aIndices, aWork, mid, aTo, aComparator);
+
+		if (aComparator.compare(aIndices[mid - 1], aIndices[mid]) <= 0)
+		{
+			return;
+		}
+
+		System.arraycopy(aIndices, aFrom, aWork, aFrom, aTo - aFrom);
+
+		for (int i = aFrom, j = mid, k = aFrom; k < aTo; k++)
+		{
+			if (j >= aTo || (i < mid && aComparator.compare(aWork[i], aWork[j]) <= 0))
+			{
+				aIndices[k] = aWork[i++];
+			}
+			else
+			{
+				aIndices[k] = aWork[j++];
+			}
+		}
+	}
+
+
+	/**
+	 * Returns an array of RemoteFile objects for all entries in this list.
+	 */
+	public RemoteFile[] toArray()
+	{
+		RemoteFile[] files = new RemoteFile[mSize];
+		for (int i = 0; i < mSize; i++)
+		{
+			files[i] = get(i);
+		}
+		return files;
+	}
+
+
+	@Override
+	public Iterator<RemoteFile> iterator()
+	{
+		return new Iterator<RemoteFile>()
+		{
+			private int mIndex;
+
+
+			@Override
+			public boolean hasNext()
+			{
+				return mIndex < mSize;
+			}
+
+
+			@Override
+			public RemoteFile next()
+			{
+				if (mIndex >= mSize)
+				{
+					throw new NoSuchElementException();
+				}
+				return get(mIndex++);
+			}
+		};
+	}
+
+
+	private void checkIndex(int aIndex)
+	{
+		if (aIndex < 0 || aIndex >= mSize)
+		{
+			throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + mSize);
+		}
+	}
+
+
+	/**
+	 * Compares two entries of a RemoteFileList by their index.
+	 */
+	@FunctionalInterface
+	public interface IndexComparator
+	{
+		int compare(int aIndex1, int aIndex2);
+	}
+}
@@ -0,0 +1,101 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+
+/**
+ * Incrementally assembles server replies from the bytes received on a control connection. Multi-line replies are completed when a line
+ * starting with the same response code followed by a space is received.
+ */
+class ReplyParser
+{
+	private final StringBuilder mLine;
+	private Input mInput;
+	private boolean mMultiLine;
+
+
+	public ReplyParser()
+	{
+		mLine = new StringBuilder();
+	}
+
+
+	/**
+	 * Appends a received byte.
+	 *
+	 * @return the completed reply or null if more bytes are required.
+	 * @throws IOException if the server sends a malformed reply.
+	 */
+	public Input append(int aByte) throws IOException
+	{
+		mLine.append((char)aByte);
+
+		int length = mLine.length();
+
+		if (aByte != '\n' || length < 2 || mLine.charAt(length - 2) != '\r')
+		{
+			return null;
+		}
+
+		String line = mLine.toString();
+		mLine.setLength(0);
+
+		if (mInput == null)
+		{
+			if (line.length() < 5)
+			{
+				throw new IOException("Expected code is too short: \"" + line + "\"");
+			}
+
+			mInput = new Input();
+
+			try
+			{
+				mInput.code = Integer.parseInt(line.substring(0, 3));
+			}
+			catch (NumberFormatException e)
+			{
+				mInput = null;
+				throw new IOException("Expected a response code: \"" + line + "\"");
+			}
+
+			mMultiLine = line.charAt(3) == '-';
+		}
+		else if (line.startsWith(Integer.toString(mInput.code)) && line.charAt(3) != '-')
+		{
+			mMultiLine = false;
+		}
+
+		mInput.append(line);
+
+		if (mMultiLine)
+		{
+			return null;
+		}
+
+		Input input = mInput;
+		mInput = null;
+		return input;
+	}
+
+
+	/**
+	 * Appends all remaining bytes of the buffer providing each completed reply to the consumer.
+	 *
+	 * @throws IOException if the server sends a malformed reply.
+	 */
+	public void append(ByteBuffer aBuffer, Consumer<Input> aConsumer) throws IOException
+	{
+		while (aBuffer.hasRemaining())
+		{
+			Input input = append(aBuffer.get() & 0xFF);
+
+			if (input != null)
+			{
+				aConsumer.accept(input);
+			}
+		}
+	}
+}
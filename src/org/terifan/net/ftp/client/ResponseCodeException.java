@@ -10,9 +10,28 @@ public class ResponseCodeException extends IOException
 {
 	private static final long serialVersionUID = 1L;
 
+	private final int mCode;
+
 
 	public ResponseCodeException(String aMessage)
+	{
+		this(aMessage, -1);
+	}
+
+
+	public ResponseCodeException(String aMessage, int aCode)
 	{
 		super(aMessage);
+
+		mCode = aCode;
+	}
+
+
+	/**
+	 * Returns the response code received from the server or -1 if not known.
+	 */
+	public int getCode()
+	{
+		return mCode;
 	}
 }
@@ -0,0 +1,41 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+
+
+/**
+ * A RetryPolicy decides if and when a failed idempotent operation performed by an FTPClient is retried. A single policy can be shared by
+ * any number of FTPClient instances.
+ *
+ * @see BackoffRetryPolicy
+ */
+public interface RetryPolicy
+{
+	/**
+	 * Returns the time to wait before retrying a failed operation.
+	 *
+	 * @param aHostAddress the server the operation failed on.
+	 * @param aAttempt the number of attempts made, starting with one.
+	 * @param aException the exception causing the operation to fail.
+	 * @return the delay in milliseconds or -1 if the operation should not be retried.
+	 */
+	long getRetryDelay(String aHostAddress, int aAttempt, IOException aException);
+
+
+	/**
+	 * Called before each attempt of an operation.
+	 *
+	 * @throws IOException to fail the operation without attempting it.
+	 */
+	default void checkAvailable(String aHostAddress) throws IOException
+	{
+	}
+
+
+	/**
+	 * Called when an operation succeeded.
+	 */
+	default void succeeded(String aHostAddress)
+	{
+	}
+}
@@ -0,0 +1,134 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * A transfer queued on a TransferScheduler.
+ */
+public class ScheduledTransfer
+{
+	public enum State
+	{
+		QUEUED,
+		RUNNING,
+		COMPLETED,
+		FAILED,
+		CANCELLED
+	}
+
+	private final TransferScheduler mScheduler;
+	private final String mHost;
+	private final String mPath;
+	private final TransferPriority mPriority;
+	final InputStream mInputStream;
+	final OutputStream mOutputStream;
+	final ProgressListener mProgressListener;
+	final CompletableFuture<TransferResult> mFuture;
+	volatile State mState;
+	volatile boolean mCancelled;
+	TransferHandle mHandle;
+
+
+	ScheduledTransfer(TransferScheduler aScheduler, String aHost, String aPath, TransferPriority aPriority, InputStream aInputStream, OutputStream aOutputStream, ProgressListener aProgressListener)
+	{
+		mScheduler = aScheduler;
+		mHost = aHost;
+		mPath = aPath;
+		mPriority = aPriority;
+		mInputStream = aInputStream;
+		mOutputStream = aOutputStream;
+		mProgressListener = aProgressListener;
+		mFuture = new CompletableFuture<>();
+		mState = State.QUEUED;
+	}
+
+
+	public String getHost()
+	{
+		return mHost;
+	}
+
+
+	public String getPath()
+	{
+		return mPath;
+	}
+
+
+	public TransferPriority getPriority()
+	{
+		return mPriority;
+	}
+
+
+	/**
+	 * Returns true if the file is uploaded to the server.
+	 */
+	public boolean isUpload()
+	{
+		return mInputStream != null;
+	}
+
+
+	public State getState()
+	{
+		return mState;
+	}
+
+
+	/**
+	 * Returns true if the transfer has completed, failed or been cancelled.
+	 */
+	public boolean isDone()
+	{
+		return mFuture.isDone();
+	}
+
+
+	/**
+	 * Cancels the transfer. A queued transfer is removed from the queue and a running transfer is aborted using the ABOR command.
+	 *
+	 * @return false if the transfer had already completed, failed or been cancelled.
+	 */
+	public boolean cancel()
+	{
+		return mScheduler.cancel(this);
+	}
+
+
+	/**
+	 * Waits for the transfer to complete.
+	 *
+	 * @return the result of the transfer.
+	 * @throws TransferCancelledException if the transfer was cancelled.
+	 * @throws IOException if the transfer failed.
+	 */
+	public TransferResult get() throws IOException, InterruptedException
+	{
+		try
+		{
+			return mFuture.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException)cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return (isUpload() ? "STOR " : "RETR ") + mHost + mPath + " " + mPriority + " " + mState;
+	}
+}
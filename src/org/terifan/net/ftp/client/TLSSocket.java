@@ -0,0 +1,429 @@
+package org.terifan.net.ftp.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+
+/**
+ * A TLS client connection layered on a connected socket using an SSLEngine.<p>
+ *
+ * The SSLContext looks up sessions to resume by the host and port of the peer. An SSLSocket always use the port of the underlying socket,
+ * which for a data connection is a new port for each transfer. The SSLEngine is instead created with the host and port of the control
+ * connection, allowing the session of the control connection to be resumed. The certificate of the server is verified against the host
+ * of the control connection.
+ */
+class TLSSocket extends Socket
+{
+	private final static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final Socket mSocket;
+	private final SSLEngine mEngine;
+	private final InputStream mSocketInput;
+	private final OutputStream mSocketOutput;
+	private final ReentrantLock mReadLock;
+	private final ReentrantLock mWriteLock;
+	private final InputStream mInputStream;
+	private final OutputStream mOutputStream;
+	private ByteBuffer mNetIn;
+	private ByteBuffer mNetOut;
+	private ByteBuffer mAppIn;
+	private boolean mInputClosed;
+	private volatile boolean mClosed;
+
+
+	TLSSocket(SSLContext aSSLContext, Socket aSocket, String aPeerHost, int aPeerPort) throws IOException
+	{
+		mSocket = aSocket;
+		mEngine = aSSLContext.createSSLEngine(aPeerHost, aPeerPort);
+		mEngine.setUseClientMode(true);
+
+		SSLParameters parameters = mEngine.getSSLParameters();
+		parameters.setEndpointIdentificationAlgorithm("HTTPS");
+		mEngine.setSSLParameters(parameters);
+
+		SSLSession session = mEngine.getSession();
+		mNetIn = ByteBuffer.allocate(session.getPacketBufferSize());
+		mNetOut = ByteBuffer.allocate(session.getPacketBufferSize());
+		mAppIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+
+		mSocketInput = aSocket.getInputStream();
+		mSocketOutput = aSocket.getOutputStream();
+		mReadLock = new ReentrantLock();
+		mWriteLock = new ReentrantLock();
+		mInputStream = new TLSInputStream();
+		mOutputStream = new TLSOutputStream();
+	}
+
+
+	/**
+	 * Performs the TLS handshake.
+	 */
+	void startHandshake() throws IOException
+	{
+		mEngine.beginHandshake();
+
+		mReadLock.lock();
+		try
+		{
+			for (;;)
+			{
+				switch (mEngine.getHandshakeStatus())
+				{
+					case NEED_WRAP:
+						wrap(EMPTY);
+						break;
+					case NEED_UNWRAP:
+						if (unwrap() == -1)
+						{
+							throw new EOFException("Connection closed during TLS handshake.");
+						}
+						break;
+					case NEED_TASK:
+						runTasks();
+						break;
+					default:
+						return;
+				}
+			}
+		}
+		finally
+		{
+			mReadLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Decrypts at least one record received from the server into the application buffer.
+	 *
+	 * @return number of bytes of application data produced or -1 if the connection was closed.
+	 */
+	private int unwrap() throws IOException
+	{
+		for (;;)
+		{
+			mNetIn.flip();
+			SSLEngineResult result;
+			try
+			{
+				result = mEngine.unwrap(mNetIn, mAppIn);
+			}
+			finally
+			{
+				mNetIn.compact();
+			}
+
+			switch (result.getStatus())
+			{
+				case OK:
+					if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+					{
+						runTasks();
+					}
+					return result.bytesProduced();
+				case BUFFER_UNDERFLOW:
+					if (!mNetIn.hasRemaining())
+					{
+						mNetIn = enlarge(mNetIn, mEngine.getSession().getPacketBufferSize());
+					}
+					int len = mSocketInput.read(mNetIn.array(), mNetIn.arrayOffset() + mNetIn.position(), mNetIn.remaining());
+					if (len == -1)
+					{
+						// servers commonly close the data connection without sending a close_notify
+						return -1;
+					}
+					mNetIn.position(mNetIn.position() + len);
+					break;
+				case BUFFER_OVERFLOW:
+					mAppIn = enlarge(mAppIn, mEngine.getSession().getApplicationBufferSize());
+					break;
+				case CLOSED:
+					return -1;
+			}
+		}
+	}
+
+
+	/**
+	 * Encrypts all data in the source buffer and writes the records to the server.
+	 */
+	private void wrap(ByteBuffer aSource) throws IOException
+	{
+		mWriteLock.lock();
+		try
+		{
+			for (;;)
+			{
+				mNetOut.clear();
+
+				SSLEngineResult result = mEngine.wrap(aSource, mNetOut);
+
+				if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+				{
+					mNetOut = ByteBuffer.allocate(mNetOut.capacity() + mEngine.getSession().getPacketBufferSize());
+					continue;
+				}
+				if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+				{
+					runTasks();
+				}
+
+				mSocketOutput.write(mNetOut.array(), mNetOut.arrayOffset(), mNetOut.position());
+
+				if (result.getStatus() == SSLEngineResult.Status.CLOSED && aSource.hasRemaining())
+				{
+					throw new SocketException("Socket is closed");
+				}
+				if (result.getStatus() == SSLEngineResult.Status.CLOSED || !aSource.hasRemaining())
+				{
+					return;
+				}
+			}
+		}
+		finally
+		{
+			mWriteLock.unlock();
+		}
+	}
+
+
+	private void runTasks()
+	{
+		for (Runnable task; (task = mEngine.getDelegatedTask()) != null;)
+		{
+			task.run();
+		}
+	}
+
+
+	private static ByteBuffer enlarge(ByteBuffer aBuffer, int aSize)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(aBuffer.capacity() + aSize);
+		aBuffer.flip();
+		buffer.put(aBuffer);
+		return buffer;
+	}
+
+
+	/**
+	 * Returns the TLS session of the connection, a resumed session has the id of the session it resumed.
+	 */
+	SSLSession getSession()
+	{
+		return mEngine.getSession();
+	}
+
+
+	@Override
+	public InputStream getInputStream()
+	{
+		return mInputStream;
+	}
+
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		return mOutputStream;
+	}
+
+
+	/**
+	 * Sends a close_notify alert, unless a write is in progress, and closes the underlying socket.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (mClosed)
+		{
+			return;
+		}
+
+		mClosed = true;
+
+		try
+		{
+			if (mWriteLock.tryLock())
+			{
+				try
+				{
+					mEngine.closeOutbound();
+					wrap(EMPTY);
+				}
+				catch (IOException e)
+				{
+				}
+				finally
+				{
+					mWriteLock.unlock();
+				}
+			}
+		}
+		finally
+		{
+			mSocket.close();
+		}
+	}
+
+
+	@Override
+	public boolean isClosed()
+	{
+		return mClosed;
+	}
+
+
+	@Override
+	public boolean isConnected()
+	{
+		return mSocket.isConnected();
+	}
+
+
+	@Override
+	public void setSoTimeout(int aTimeout) throws SocketException
+	{
+		mSocket.setSoTimeout(aTimeout);
+	}
+
+
+	@Override
+	public int getSoTimeout() throws SocketException
+	{
+		return mSocket.getSoTimeout();
+	}
+
+
+	@Override
+	public InetAddress getInetAddress()
+	{
+		return mSocket.getInetAddress();
+	}
+
+
+	@Override
+	public int getPort()
+	{
+		return mSocket.getPort();
+	}
+
+
+	@Override
+	public int getLocalPort()
+	{
+		return mSocket.getLocalPort();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "TLSSocket[" + mSocket + "]";
+	}
+
+
+	private class TLSInputStream extends InputStream
+	{
+		@Override
+		public int read() throws IOException
+		{
+			byte[] buffer = new byte[1];
+			return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+		}
+
+
+		@Override
+		public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException
+		{
+			if (aLength == 0)
+			{
+				return 0;
+			}
+
+			mReadLock.lock();
+			try
+			{
+				while (mAppIn.position() == 0)
+				{
+					if (mInputClosed || unwrap() == -1)
+					{
+						mInputClosed = true;
+						return -1;
+					}
+
+					// post-handshake messages such as a key update may require a response
+					if (mEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP)
+					{
+						wrap(EMPTY);
+					}
+				}
+
+				mAppIn.flip();
+				int len = Math.min(aLength, mAppIn.remaining());
+				mAppIn.get(aBuffer, aOffset, len);
+				mAppIn.compact();
+				return len;
+			}
+			finally
+			{
+				mReadLock.unlock();
+			}
+		}
+
+
+		@Override
+		public void close() throws IOException
+		{
+			TLSSocket.this.close();
+		}
+	}
+
+
+	private class TLSOutputStream extends OutputStream
+	{
+		@Override
+		public void write(int aByte) throws IOException
+		{
+			write(new byte[]{(byte)aByte}, 0, 1);
+		}
+
+
+		@Override
+		public void write(byte[] aBuffer, int aOffset, int aLength) throws IOException
+		{
+			if (mClosed)
+			{
+				throw new SocketException("Socket is closed");
+			}
+
+			wrap(ByteBuffer.wrap(aBuffer, aOffset, aLength));
+		}
+
+
+		@Override
+		public void flush() throws IOException
+		{
+			mSocketOutput.flush();
+		}
+
+
+		@Override
+		public void close() throws IOException
+		{
+			TLSSocket.this.close();
+		}
+	}
+}
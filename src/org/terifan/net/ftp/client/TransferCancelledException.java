@@ -0,0 +1,18 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+
+
+/**
+ * Exception thrown when a transfer is cancelled before it has completed.
+ */
+public class TransferCancelledException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+
+	public TransferCancelledException(String aMessage)
+	{
+		super(aMessage);
+	}
+}
@@ -0,0 +1,160 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * A handle to a transfer started with FTPClient.getFileAsync or FTPClient.putFileAsync.<p>
+ *
+ * Cancelling a running transfer closes the data connection immediately and the thread performing the transfer sends the ABOR command
+ * and drains the replies, after which the FTPClient can be used for other operations.
+ */
+public class TransferHandle
+{
+	private final String mPath;
+	private final boolean mUpload;
+	private final CompletableFuture<TransferResult> mFuture;
+	private DataSocket mDataSocket;
+	private boolean mStarted;
+	private boolean mCancelled;
+
+
+	TransferHandle(String aPath, boolean aUpload)
+	{
+		mPath = aPath;
+		mUpload = aUpload;
+		mFuture = new CompletableFuture<>();
+	}
+
+
+	public String getPath()
+	{
+		return mPath;
+	}
+
+
+	/**
+	 * Returns true if the file is uploaded to the server.
+	 */
+	public boolean isUpload()
+	{
+		return mUpload;
+	}
+
+
+	/**
+	 * Returns true if the transfer has completed, failed or been cancelled.
+	 */
+	public boolean isDone()
+	{
+		return mFuture.isDone();
+	}
+
+
+	public synchronized boolean isCancelled()
+	{
+		return mCancelled;
+	}
+
+
+	/**
+	 * Cancels the transfer. A transfer not yet started is never started and a running transfer is aborted using the ABOR command.
+	 *
+	 * @return false if the transfer had already completed, failed or been cancelled.
+	 */
+	public synchronized boolean cancel()
+	{
+		if (mCancelled || mFuture.isDone())
+		{
+			return false;
+		}
+
+		mCancelled = true;
+
+		if (!mStarted)
+		{
+			mFuture.completeExceptionally(new TransferCancelledException("Transfer cancelled."));
+		}
+		else if (mDataSocket != null)
+		{
+			mDataSocket.abort();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Waits for the transfer to complete.
+	 *
+	 * @return the result of the transfer.
+	 * @throws TransferCancelledException if the transfer was cancelled.
+	 * @throws IOException if the transfer failed.
+	 */
+	public TransferResult get() throws IOException, InterruptedException
+	{
+		try
+		{
+			return mFuture.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException)cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+
+	/**
+	 * Called by the thread performing the transfer before it starts.
+	 *
+	 * @return false if the transfer was cancelled and shouldn't be started.
+	 */
+	synchronized boolean start()
+	{
+		mStarted = true;
+
+		return !mCancelled;
+	}
+
+
+	/**
+	 * Called when the data connection of the transfer has been opened. The connection is aborted immediately if the transfer has been
+	 * cancelled.
+	 */
+	synchronized void attach(DataSocket aDataSocket)
+	{
+		mStarted = true;
+		mDataSocket = aDataSocket;
+
+		if (mCancelled)
+		{
+			aDataSocket.abort();
+		}
+	}
+
+
+	void complete(TransferResult aResult)
+	{
+		mFuture.complete(aResult);
+	}
+
+
+	void fail(Throwable aThrowable)
+	{
+		mFuture.completeExceptionally(aThrowable);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return (mUpload ? "STOR " : "RETR ") + mPath;
+	}
+}
@@ -0,0 +1,35 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * InputStream reading from a data connection. Closing the stream completes the transfer.
+ */
+class TransferInputStream extends FilterInputStream
+{
+	private final Closeable mCompletion;
+	private boolean mClosed;
+
+
+	TransferInputStream(InputStream aInputStream, Closeable aCompletion)
+	{
+		super(aInputStream);
+
+		mCompletion = aCompletion;
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		if (!mClosed)
+		{
+			mClosed = true;
+			mCompletion.close();
+		}
+	}
+}
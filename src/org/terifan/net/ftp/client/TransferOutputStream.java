@@ -0,0 +1,50 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * OutputStream writing to a data connection. Closing the stream completes the transfer.
+ */
+class TransferOutputStream extends FilterOutputStream
+{
+	private final Closeable mCompletion;
+	private boolean mClosed;
+
+
+	TransferOutputStream(OutputStream aOutputStream, Closeable aCompletion)
+	{
+		super(aOutputStream);
+
+		mCompletion = aCompletion;
+	}
+
+
+	@Override
+	public void write(byte[] aBuffer, int aOffset, int aLength) throws IOException
+	{
+		out.write(aBuffer, aOffset, aLength);
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		if (!mClosed)
+		{
+			mClosed = true;
+
+			try
+			{
+				out.flush();
+			}
+			finally
+			{
+				mCompletion.close();
+			}
+		}
+	}
+}
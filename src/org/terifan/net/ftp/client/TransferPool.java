@@ -0,0 +1,113 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A bounded pool of worker threads performing data transfers. A single pool can be shared by any number of FTPClient instances.<p>
+ *
+ * When the pool and it's queue are saturated the transfer is instead performed on the thread calling the FTPClient, hence the number of
+ * threads never exceeds the size of the pool.
+ */
+public class TransferPool implements Closeable
+{
+	private final static AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+	private final ThreadPoolExecutor mExecutor;
+
+
+	/**
+	 * Creates a new TransferPool.
+	 *
+	 * @param aThreadCount maximum number of worker threads.
+	 * @param aQueueCapacity maximum number of transfers waiting for a worker thread.
+	 */
+	public TransferPool(int aThreadCount, int aQueueCapacity)
+	{
+		if (aThreadCount < 1 || aQueueCapacity < 1)
+		{
+			throw new IllegalArgumentException("aThreadCount and aQueueCapacity must be positive.");
+		}
+
+		String prefix = "ftp-transfer-" + POOL_COUNTER.incrementAndGet() + "-";
+		AtomicInteger threadCounter = new AtomicInteger();
+
+		mExecutor = new ThreadPoolExecutor(aThreadCount, aThreadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(aQueueCapacity), aRunnable ->
+		{
+			Thread thread = new Thread(aRunnable, prefix + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+
+	/**
+	 * Queues a task on this pool.
+	 *
+	 * @return false if the pool is saturated or closed and the task was not queued.
+	 */
+	boolean execute(Runnable aRunnable)
+	{
+		try
+		{
+			mExecutor.execute(aRunnable);
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			return false;
+		}
+	}
+
+
+	/**
+	 * Returns the number of transfers waiting for a worker thread.
+	 */
+	public int getQueueDepth()
+	{
+		return mExecutor.getQueue().size();
+	}
+
+
+	/**
+	 * Returns the number of worker threads currently performing a transfer.
+	 */
+	public int getActiveCount()
+	{
+		return mExecutor.getActiveCount();
+	}
+
+
+	/**
+	 * Returns the number of worker threads currently existing in the pool.
+	 */
+	public int getThreadCount()
+	{
+		return mExecutor.getPoolSize();
+	}
+
+
+	/**
+	 * Returns the total number of transfers completed by this pool.
+	 */
+	public long getCompletedCount()
+	{
+		return mExecutor.getCompletedTaskCount();
+	}
+
+
+	/**
+	 * Stops accepting new transfers. Transfers already queued will complete.
+	 */
+	@Override
+	public void close()
+	{
+		mExecutor.shutdown();
+	}
+}
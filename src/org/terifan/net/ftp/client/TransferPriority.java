@@ -0,0 +1,17 @@
+package org.terifan.net.ftp.client;
+
+
+/**
+ * Priority classes of the transfers queued on a TransferScheduler.
+ */
+public enum TransferPriority
+{
+	/**
+	 * Transfers a user is waiting for. Queued interactive transfers are always started before bulk transfers.
+	 */
+	INTERACTIVE,
+	/**
+	 * Background transfers.
+	 */
+	BULK
+}
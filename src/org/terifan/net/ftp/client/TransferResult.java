@@ -0,0 +1,94 @@
+package org.terifan.net.ftp.client;
+
+
+/**
+ * Describes a completed file transfer and the outcome of it's integrity verification.
+ */
+public class TransferResult
+{
+	private final String mPath;
+	private final long mSize;
+	private final HashAlgorithm mAlgorithm;
+	private final String mLocalHash;
+	private final String mRemoteHash;
+
+
+	TransferResult(String aPath, long aSize, HashAlgorithm aAlgorithm, String aLocalHash, String aRemoteHash)
+	{
+		mPath = aPath;
+		mSize = aSize;
+		mAlgorithm = aAlgorithm;
+		mLocalHash = aLocalHash;
+		mRemoteHash = aRemoteHash;
+	}
+
+
+	/**
+	 * Returns the path of the file on the remote server.
+	 */
+	public String getPath()
+	{
+		return mPath;
+	}
+
+
+	/**
+	 * Returns the number of bytes transferred.
+	 */
+	public long getSize()
+	{
+		return mSize;
+	}
+
+
+	/**
+	 * Returns the hash algorithm used or null if no hash was computed.
+	 */
+	public HashAlgorithm getAlgorithm()
+	{
+		return mAlgorithm;
+	}
+
+
+	/**
+	 * Returns the hash computed from the bytes transferred as a lowercase hexadecimal string or null if no hash was computed.
+	 */
+	public String getLocalHash()
+	{
+		return mLocalHash;
+	}
+
+
+	/**
+	 * Returns the hash reported by the server as a lowercase hexadecimal string or null if the server doesn't support the algorithm.
+	 */
+	public String getRemoteHash()
+	{
+		return mRemoteHash;
+	}
+
+
+	/**
+	 * Returns true if the server reported a hash equal to the hash computed during the transfer.
+	 */
+	public boolean isVerified()
+	{
+		return mLocalHash != null && mLocalHash.equals(mRemoteHash);
+	}
+
+
+	/**
+	 * Returns true if the server reported a hash different from the hash computed during the transfer.
+	 */
+	public boolean isCorrupted()
+	{
+		return mLocalHash != null && mRemoteHash != null && !mLocalHash.equals(mRemoteHash);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return String.format("Path: %s, Size: %d, Algorithm: %s, Local: %s, Remote: %s", mPath, mSize, mAlgorithm, mLocalHash, mRemoteHash);
+	}
+}
@@ -0,0 +1,415 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Queues transfers and performs them using a number of FTPClient sessions per host.<p>
+ *
+ * Transfers are started in priority order, interactive transfers before bulk transfers, while the number of transfers running on each
+ * host and in total is kept within the limits of the scheduler. Hosts with queued transfers are served round-robin, hence a host with a
+ * long queue doesn't delay transfers to other hosts.<p>
+ *
+ * Sessions are created by the ClientFactory when needed and reused for later transfers to the same host.
+ */
+public class TransferScheduler implements Closeable
+{
+	private final static AtomicInteger SCHEDULER_COUNTER = new AtomicInteger();
+
+	private final ClientFactory mClientFactory;
+	private final int mGlobalLimit;
+	private final int mHostLimit;
+	private final HashMap<String, Host> mHosts;
+	private final ArrayDeque<Host> mRoundRobin;
+	private final ThreadPoolExecutor mExecutor;
+	private int mRunningCount;
+	private int mQueuedCount;
+	private boolean mClosed;
+
+
+	/**
+	 * Creates a new TransferScheduler.
+	 *
+	 * @param aClientFactory creates connected FTPClient sessions.
+	 * @param aGlobalLimit maximum number of transfers running at the same time.
+	 * @param aHostLimit maximum number of transfers running at the same time on each host.
+	 */
+	public TransferScheduler(ClientFactory aClientFactory, int aGlobalLimit, int aHostLimit)
+	{
+		if (aGlobalLimit < 1 || aHostLimit < 1)
+		{
+			throw new IllegalArgumentException("aGlobalLimit and aHostLimit must be positive.");
+		}
+
+		mClientFactory = aClientFactory;
+		mGlobalLimit = aGlobalLimit;
+		mHostLimit = aHostLimit;
+		mHosts = new HashMap<>();
+		mRoundRobin = new ArrayDeque<>();
+
+		String prefix = "ftp-scheduler-" + SCHEDULER_COUNTER.incrementAndGet() + "-";
+		AtomicInteger threadCounter = new AtomicInteger();
+
+		mExecutor = new ThreadPoolExecutor(aGlobalLimit, aGlobalLimit, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), aRunnable ->
+		{
+			Thread thread = new Thread(aRunnable, prefix + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+
+	/**
+	 * Queues a download of a file.
+	 *
+	 * @param aHost the host, as understood by the ClientFactory.
+	 * @param aPath the path to the file on the remote server.
+	 * @param aOutputStream the file contents is written to this OutputStream.
+	 * @param aPriority the priority of the transfer.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @return a handle to the queued transfer.
+	 */
+	public ScheduledTransfer download(String aHost, String aPath, OutputStream aOutputStream, TransferPriority aPriority, ProgressListener aProgressListener)
+	{
+		return submit(new ScheduledTransfer(this, aHost, aPath, aPriority, null, aOutputStream, aProgressListener));
+	}
+
+
+	/**
+	 * Queues an upload of a file.
+	 *
+	 * @param aHost the host, as understood by the ClientFactory.
+	 * @param aPath the path to the file on the remote server.
+	 * @param aInputStream a input stream containing the file data.
+	 * @param aPriority the priority of the transfer.
+	 * @param aProgressListener a ProgressListener or null.
+	 * @return a handle to the queued transfer.
+	 */
+	public ScheduledTransfer upload(String aHost, String aPath, InputStream aInputStream, TransferPriority aPriority, ProgressListener aProgressListener)
+	{
+		return submit(new ScheduledTransfer(this, aHost, aPath, aPriority, aInputStream, null, aProgressListener));
+	}
+
+
+	private synchronized ScheduledTransfer submit(ScheduledTransfer aTransfer)
+	{
+		if (mClosed)
+		{
+			throw new IllegalStateException("Scheduler closed.");
+		}
+
+		Host host = mHosts.get(aTransfer.getHost());
+
+		if (host == null)
+		{
+			host = new Host(aTransfer.getHost());
+			mHosts.put(host.mName, host);
+			mRoundRobin.add(host);
+		}
+
+		host.queue(aTransfer.getPriority()).add(aTransfer);
+		mQueuedCount++;
+
+		dispatch();
+
+		return aTransfer;
+	}
+
+
+	/**
+	 * Returns the number of transfers waiting to be started.
+	 */
+	public synchronized int getQueuedCount()
+	{
+		return mQueuedCount;
+	}
+
+
+	/**
+	 * Returns the number of transfers running.
+	 */
+	public synchronized int getRunningCount()
+	{
+		return mRunningCount;
+	}
+
+
+	/**
+	 * Starts queued transfers until a limit is reached.
+	 */
+	private void dispatch()
+	{
+		while (mRunningCount < mGlobalLimit)
+		{
+			ScheduledTransfer transfer = next(TransferPriority.INTERACTIVE);
+
+			if (transfer == null)
+			{
+				transfer = next(TransferPriority.BULK);
+			}
+			if (transfer == null)
+			{
+				return;
+			}
+
+			Host host = mHosts.get(transfer.getHost());
+			host.mRunningCount++;
+			mRunningCount++;
+			mQueuedCount--;
+
+			transfer.mState = ScheduledTransfer.State.RUNNING;
+
+			ScheduledTransfer started = transfer;
+			mExecutor.execute(() -> run(host, started));
+		}
+	}
+
+
+	/**
+	 * Returns the next transfer of the priority from the first host in round-robin order that is below it's limit. The hosts visited are
+	 * moved to the end of the round-robin order.
+	 */
+	private ScheduledTransfer next(TransferPriority aPriority)
+	{
+		for (int i = 0, n = mRoundRobin.size(); i < n; i++)
+		{
+			Host host = mRoundRobin.poll();
+			mRoundRobin.add(host);
+
+			if (host.mRunningCount < mHostLimit)
+			{
+				ScheduledTransfer transfer = host.queue(aPriority).poll();
+
+				if (transfer != null)
+				{
+					return transfer;
+				}
+			}
+		}
+
+		return null;
+	}
+
+
+	private void run(Host aHost, ScheduledTransfer aTransfer)
+	{
+		FTPClient client = null;
+		boolean reusable = false;
+
+		try
+		{
+			client = acquire(aHost);
+
+			TransferHandle handle = new TransferHandle(aTransfer.getPath(), aTransfer.isUpload());
+
+			synchronized (this)
+			{
+				if (aTransfer.mCancelled)
+				{
+					reusable = true;
+					throw new TransferCancelledException("Transfer cancelled.");
+				}
+
+				aTransfer.mHandle = handle;
+			}
+
+			TransferResult result;
+
+			if (aTransfer.isUpload())
+			{
+				result = client.putFile(aTransfer.getPath(), aTransfer.mInputStream, aTransfer.mProgressListener, null, handle);
+			}
+			else
+			{
+				result = client.getFile(aTransfer.getPath(), aTransfer.mOutputStream, aTransfer.mProgressListener, null, handle);
+
+				if (result == null)
+				{
+					throw new ResponseCodeException("File not found: " + aTransfer.getPath(), 550);
+				}
+			}
+
+			reusable = true;
+
+			aTransfer.mState = ScheduledTransfer.State.COMPLETED;
+			aTransfer.mFuture.complete(result);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// the conversation with the server is in a known state after a response or an aborted transfer
+			reusable |= e instanceof ResponseCodeException || e instanceof TransferCancelledException;
+
+			aTransfer.mState = e instanceof TransferCancelledException ? ScheduledTransfer.State.CANCELLED : ScheduledTransfer.State.FAILED;
+			aTransfer.mFuture.completeExceptionally(e);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				aTransfer.mHandle = null;
+				aHost.mRunningCount--;
+				mRunningCount--;
+
+				if (client != null)
+				{
+					if (reusable && client.isConnected() && !mClosed)
+					{
+						aHost.mIdleClients.add(client);
+						client = null;
+					}
+				}
+
+				if (!mClosed)
+				{
+					dispatch();
+				}
+			}
+
+			closeQuietly(client);
+		}
+	}
+
+
+	private FTPClient acquire(Host aHost) throws IOException
+	{
+		synchronized (this)
+		{
+			for (FTPClient client; (client = aHost.mIdleClients.poll()) != null;)
+			{
+				if (client.isConnected())
+				{
+					return client;
+				}
+			}
+		}
+
+		return mClientFactory.connect(aHost.mName);
+	}
+
+
+	synchronized boolean cancel(ScheduledTransfer aTransfer)
+	{
+		switch (aTransfer.mState)
+		{
+			case QUEUED:
+				mHosts.get(aTransfer.getHost()).queue(aTransfer.getPriority()).remove(aTransfer);
+				mQueuedCount--;
+				aTransfer.mState = ScheduledTransfer.State.CANCELLED;
+				aTransfer.mFuture.completeExceptionally(new TransferCancelledException("Transfer cancelled."));
+				return true;
+			case RUNNING:
+				if (aTransfer.mCancelled)
+				{
+					return false;
+				}
+				aTransfer.mCancelled = true;
+				if (aTransfer.mHandle != null)
+				{
+					aTransfer.mHandle.cancel();
+				}
+				return true;
+			default:
+				return false;
+		}
+	}
+
+
+	/**
+	 * Cancels all queued transfers and closes idle sessions. Running transfers complete and their sessions are closed.
+	 */
+	@Override
+	public void close()
+	{
+		ArrayList<FTPClient> clients = new ArrayList<>();
+
+		synchronized (this)
+		{
+			mClosed = true;
+
+			for (Host host : mHosts.values())
+			{
+				for (TransferPriority priority : TransferPriority.values())
+				{
+					for (ScheduledTransfer transfer; (transfer = host.queue(priority).peek()) != null;)
+					{
+						cancel(transfer);
+					}
+				}
+
+				clients.addAll(host.mIdleClients);
+				host.mIdleClients.clear();
+			}
+		}
+
+		for (FTPClient client : clients)
+		{
+			closeQuietly(client);
+		}
+
+		mExecutor.shutdown();
+	}
+
+
+	private static void closeQuietly(FTPClient aClient)
+	{
+		if (aClient != null)
+		{
+			try
+			{
+				aClient.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+
+
+	/**
+	 * Creates FTPClient sessions for the TransferScheduler.
+	 */
+	@FunctionalInterface
+	public interface ClientFactory
+	{
+		/**
+		 * Returns a new FTPClient connected to the host.
+		 */
+		FTPClient connect(String aHost) throws IOException;
+	}
+
+
+	private static class Host
+	{
+		final String mName;
+		final ArrayDeque<ScheduledTransfer> mInteractive;
+		final ArrayDeque<ScheduledTransfer> mBulk;
+		final ArrayDeque<FTPClient> mIdleClients;
+		int mRunningCount;
+
+
+		Host(String aName)
+		{
+			mName = aName;
+			mInteractive = new ArrayDeque<>();
+			mBulk = new ArrayDeque<>();
+			mIdleClients = new ArrayDeque<>();
+		}
+
+
+		ArrayDeque<ScheduledTransfer> queue(TransferPriority aPriority)
+		{
+			return aPriority == TransferPriority.INTERACTIVE ? mInteractive : mBulk;
+		}
+	}
+}
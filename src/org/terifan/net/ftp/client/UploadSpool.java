@@ -0,0 +1,179 @@
+package org.terifan.net.ftp.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Keeps a copy of the bytes read from a non-repeatable InputStream, allowing an upload to be restarted or resumed from any position
+ * already read. Bytes are kept in memory up to a limit and bytes beyond the limit in a temporary file, which is deleted when the spool is
+ * closed.<p>
+ *
+ * Only one stream opened from the spool may be read at a time.
+ */
+class UploadSpool implements Closeable
+{
+	private final InputStream mSource;
+	private final int mMemoryLimit;
+	private final File mDirectory;
+	private byte[] mMemory;
+	private FileChannel mFile;
+	private long mLength;
+	private boolean mEndOfSource;
+
+
+	/**
+	 * @param aSource the stream spooled.
+	 * @param aMemoryLimit maximum number of bytes kept in memory.
+	 * @param aDirectory the directory of the temporary file or null to use the default temporary directory.
+	 */
+	UploadSpool(InputStream aSource, int aMemoryLimit, File aDirectory)
+	{
+		mSource = aSource;
+		mMemoryLimit = aMemoryLimit;
+		mDirectory = aDirectory;
+		mMemory = new byte[Math.min(aMemoryLimit, 8192)];
+	}
+
+
+	/**
+	 * Returns the number of bytes read from the source stream and kept by the spool.
+	 */
+	long getLength()
+	{
+		return mLength;
+	}
+
+
+	/**
+	 * Opens a stream returning the bytes of the source stream starting at an offset. Bytes already spooled are read from the spool and
+	 * the remaining bytes from the source stream, copying them to the spool as they're read.
+	 *
+	 * @param aOffset the offset, not greater than the number of bytes spooled.
+	 */
+	InputStream open(long aOffset)
+	{
+		if (aOffset < 0 || aOffset > mLength)
+		{
+			throw new IllegalArgumentException("Offset outside of spooled data: " + aOffset);
+		}
+
+		return new InputStream()
+		{
+			private long mPosition = aOffset;
+
+
+			@Override
+			public int read() throws IOException
+			{
+				byte[] buf = new byte[1];
+				return read(buf, 0, 1) == -1 ? -1 : buf[0] & 0xff;
+			}
+
+
+			@Override
+			public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException
+			{
+				if (aLength == 0)
+				{
+					return 0;
+				}
+
+				int len = mPosition < mLength ? readSpool(mPosition, aBuffer, aOffset, aLength) : readSource(aBuffer, aOffset, aLength);
+
+				if (len > 0)
+				{
+					mPosition += len;
+				}
+
+				return len;
+			}
+		};
+	}
+
+
+	private int readSpool(long aPosition, byte[] aBuffer, int aOffset, int aLength) throws IOException
+	{
+		int len = (int)Math.min(aLength, mLength - aPosition);
+
+		if (aPosition < mMemoryLimit)
+		{
+			len = (int)Math.min(len, mMemoryLimit - aPosition);
+			System.arraycopy(mMemory, (int)aPosition, aBuffer, aOffset, len);
+			return len;
+		}
+
+		return mFile.read(ByteBuffer.wrap(aBuffer, aOffset, len), aPosition - mMemoryLimit);
+	}
+
+
+	private int readSource(byte[] aBuffer, int aOffset, int aLength) throws IOException
+	{
+		if (mEndOfSource)
+		{
+			return -1;
+		}
+
+		int len = mSource.read(aBuffer, aOffset, aLength);
+
+		if (len == -1)
+		{
+			mEndOfSource = true;
+			return -1;
+		}
+
+		int inMemory = (int)Math.max(0, Math.min(len, mMemoryLimit - mLength));
+
+		if (inMemory > 0)
+		{
+			if (mLength + inMemory > mMemory.length)
+			{
+				mMemory = Arrays.copyOf(mMemory, (int)Math.min(mMemoryLimit, Math.max(mLength + inMemory, 2L * mMemory.length)));
+			}
+			System.arraycopy(aBuffer, aOffset, mMemory, (int)mLength, inMemory);
+		}
+
+		if (inMemory < len)
+		{
+			if (mFile == null)
+			{
+				Path path = mDirectory == null ? Files.createTempFile("ftp-spool-", ".tmp") : Files.createTempFile(mDirectory.toPath(), "ftp-spool-", ".tmp");
+				mFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(aBuffer, aOffset + inMemory, len - inMemory);
+			for (long position = mLength + inMemory - mMemoryLimit; buffer.hasRemaining();)
+			{
+				position += mFile.write(buffer, position);
+			}
+		}
+
+		mLength += len;
+
+		return len;
+	}
+
+
+	/**
+	 * Releases the memory and deletes the temporary file. The source stream isn't closed.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		mMemory = null;
+
+		if (mFile != null)
+		{
+			mFile.close();
+			mFile = null;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.terifan.net.ftp.client;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ControlEventLoopTest
+{
+	private LocalFTPServer mServer;
+	private ControlEventLoop mEventLoop;
+	private FTPClient mClient;
+	private ConcurrentLinkedQueue<String> mErrors;
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mErrors = new ConcurrentLinkedQueue<>();
+		mServer = new LocalFTPServer();
+		mEventLoop = new ControlEventLoop(1);
+		mClient = mServer.createClient();
+		mClient.setControlEventLoop(mEventLoop);
+		mClient.setLogger(new FTPLogger()
+		{
+			@Override
+			public boolean isEnabled(LogLevel aLevel)
+			{
+				return aLevel == LogLevel.ERROR;
+			}
+
+
+			@Override
+			public void log(long aTime, LogLevel aLevel, String aMessage)
+			{
+				mErrors.add(aMessage);
+			}
+		});
+		mClient.connect("user", "pass", null);
+		mExecutor = Executors.newCachedThreadPool();
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+		mClient.close();
+		mEventLoop.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testReplies() throws Exception
+	{
+		mServer.putFile("/file", new byte[42]);
+
+		assertEquals(42, mClient.getSize("/file"));
+		assertEquals(1, mEventLoop.getConnectionCount());
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testFailedSelectorFailsWaitingReaders() throws Exception
+	{
+		mServer.putFile("/file", new byte[42]);
+		mServer.setReplyDelay(10_000);
+
+		Future<Long> size = mExecutor.submit(() -> mClient.getSize("/file"));
+
+		Thread.sleep(200);
+
+		assertFalse(size.isDone());
+
+		// closing the Selector makes the select call of the thread fail
+		findSelectorThread().getSelector().close();
+
+		try
+		{
+			size.get(5, TimeUnit.SECONDS);
+			fail("reply received after the Selector thread failed");
+		}
+		catch (ExecutionException e)
+		{
+			assertTrue(e.getCause().toString(), e.getCause() instanceof IOException);
+		}
+
+		assertFalse(mErrors.isEmpty());
+		assertTrue(mErrors.peek(), mErrors.peek().contains("control event loop"));
+		assertEquals(0, mEventLoop.getConnectionCount());
+	}
+
+
+	/**
+	 * Returns the Selector thread serving the client, threads of event loops closed by other tests have no connections.
+	 */
+	private static ControlEventLoop.SelectorThread findSelectorThread()
+	{
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread instanceof ControlEventLoop.SelectorThread && ((ControlEventLoop.SelectorThread)thread).getSelector().isOpen() && !((ControlEventLoop.SelectorThread)thread).getSelector().keys().isEmpty())
+			{
+				return (ControlEventLoop.SelectorThread)thread;
+			}
+		}
+
+		throw new IllegalStateException("No Selector thread running");
+	}
+}
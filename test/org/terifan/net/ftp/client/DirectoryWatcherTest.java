@@ -0,0 +1,112 @@
+package org.terifan.net.ftp.client;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terifan.net.ftp.client.DirectoryListener.Change;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class DirectoryWatcherTest
+{
+	private LocalFTPServer mServer;
+	private FTPClient mClient;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mServer = new LocalFTPServer();
+		mServer.createDirectory("/home");
+		mServer.createDirectory("/home/drop");
+		mServer.createDirectory("/other");
+		mClient = mServer.createClient();
+		mClient.connect("user", "pass", "/home");
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mClient.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testRelativePathIsResolvedWhenWatched() throws Exception
+	{
+		BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+		try (DirectoryWatcher watcher = new DirectoryWatcher(mClient, 10, 10))
+		{
+			watcher.watch("drop", (aChange, aFile) -> events.add(aChange + " " + aFile.getAbsolutePath()));
+
+			// the client is used by another thread while the directory is watched
+			mClient.changeWorkingDirectory("/other");
+
+			Thread.sleep(100);
+			mServer.putFile("/home/drop/a.txt", new byte[10]);
+			assertEquals("CREATED /home/drop/a.txt", events.poll(5, TimeUnit.SECONDS));
+
+			mServer.putFile("/home/drop/a.txt", new byte[20]);
+			assertEquals("MODIFIED /home/drop/a.txt", events.poll(5, TimeUnit.SECONDS));
+
+			assertEquals("/other", mClient.getWorkingDirectory());
+		}
+
+		assertNull(events.poll());
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testRewriteWithSameSizeIsReported() throws Exception
+	{
+		BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+		// the server lists Unix entries, without a modification time, and supports MDTM
+		try (DirectoryWatcher watcher = new DirectoryWatcher(mClient, 10, 10))
+		{
+			watcher.watch("/home/drop", (aChange, aFile) -> events.add(aChange + " " + aFile.getName()));
+
+			Thread.sleep(100);
+			mServer.putFile("/home/drop/a.txt", new byte[10], 1_600_000_000_000L);
+			assertEquals("CREATED a.txt", events.poll(5, TimeUnit.SECONDS));
+
+			mServer.putFile("/home/drop/a.txt", new byte[10], 1_600_000_060_000L);
+			assertEquals("MODIFIED a.txt", events.poll(5, TimeUnit.SECONDS));
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testFailingListenerReceivesAllChanges() throws Exception
+	{
+		BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+		try (DirectoryWatcher watcher = new DirectoryWatcher(mClient, 500, 500))
+		{
+			watcher.watch("/home/drop", (aChange, aFile) ->
+			{
+				events.add(aChange + " " + aFile.getName());
+				throw new IllegalStateException("listener failed");
+			});
+
+			// both files are created before the next poll, the exception thrown for the first must not lose the second
+			Thread.sleep(100);
+			mServer.putFile("/home/drop/a.txt", new byte[1]);
+			mServer.putFile("/home/drop/b.txt", new byte[2]);
+
+			assertEquals(new HashSet<>(Arrays.asList("CREATED a.txt", "CREATED b.txt")), new HashSet<>(Arrays.asList(events.poll(5, TimeUnit.SECONDS), events.poll(5, TimeUnit.SECONDS))));
+
+			mServer.putFile("/home/drop/a.txt", new byte[3]);
+			assertEquals("MODIFIED a.txt", events.poll(5, TimeUnit.SECONDS));
+		}
+	}
+}
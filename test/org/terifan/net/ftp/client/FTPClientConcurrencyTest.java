@@ -0,0 +1,348 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Threads sharing an FTPClient against a LocalFTPServer. Every thread works on files of it's own, hence a reply read by the wrong thread
+ * shows up as a wrong size, wrong content or a failed rename.
+ */
+public class FTPClientConcurrencyTest
+{
+	private final static int THREADS = 16;
+	private final static int ITERATIONS = 25;
+
+	private LocalFTPServer mServer;
+	private FTPClient mClient;
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mServer = new LocalFTPServer();
+		mClient = mServer.createClient();
+		mClient.connect("user", "pass", null);
+		mExecutor = Executors.newCachedThreadPool();
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+		mClient.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 60_000)
+	public void testConcurrentOperationsDoNotInterleave() throws Exception
+	{
+		mServer.setReplyDelay(1);
+
+		ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+		CountDownLatch start = new CountDownLatch(1);
+		Future<?>[] futures = new Future<?>[THREADS];
+
+		for (int i = 0; i < THREADS; i++)
+		{
+			int thread = i;
+			futures[i] = mExecutor.submit(() ->
+			{
+				start.await();
+
+				Random random = new Random(thread);
+
+				for (int iteration = 0; iteration < ITERATIONS; iteration++)
+				{
+					byte[] content = new byte[1 + random.nextInt(10_000)];
+					random.nextBytes(content);
+
+					String path = "/file" + thread;
+					String renamed = "/renamed" + thread;
+
+					mClient.putFile(path, new ByteArrayInputStream(content), null);
+
+					long size = mClient.getSize(path);
+					if (size != content.length)
+					{
+						failures.add("thread " + thread + ": size " + size + ", expected " + content.length);
+					}
+
+					ByteArrayOutputStream received = new ByteArrayOutputStream();
+					mClient.getFile(path, received, null);
+					if (!Arrays.equals(content, received.toByteArray()))
+					{
+						failures.add("thread " + thread + ": content mismatch");
+					}
+
+					mClient.rename(path, renamed);
+
+					size = mClient.getSize(renamed);
+					if (size != content.length)
+					{
+						failures.add("thread " + thread + ": size after rename " + size + ", expected " + content.length);
+					}
+
+					if (!mClient.deleteFile(renamed))
+					{
+						failures.add("thread " + thread + ": delete failed");
+					}
+				}
+
+				return null;
+			});
+		}
+
+		start.countDown();
+
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		assertTrue(mClient.getOperationCount() >= THREADS * ITERATIONS * 6);
+		assertTrue(mClient.getContendedOperationCount() > 0);
+		assertTrue(mClient.getOperationWaitTime() > 0);
+
+		System.out.printf("%d operations, %d contended, %.1f ms waiting%n", mClient.getOperationCount(), mClient.getContendedOperationCount(), mClient.getOperationWaitTime() / 1e6);
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testOperationWaitsForInputStream() throws Exception
+	{
+		byte[] content = new byte[100_000];
+		new Random(1).nextBytes(content);
+		mServer.putFile("/stream", content);
+		mServer.putFile("/other", new byte[123]);
+
+		long contended = mClient.getContendedOperationCount();
+
+		InputStream in = mClient.openInputStream("/stream");
+
+		Future<Long> size = mExecutor.submit(() -> mClient.getSize("/other"));
+
+		Thread.sleep(200);
+
+		assertFalse("operation performed while the stream was open", size.isDone());
+
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		for (int len; (len = in.read(buf)) != -1;)
+		{
+			received.write(buf, 0, len);
+		}
+		in.close();
+
+		assertArrayEquals(content, received.toByteArray());
+		assertEquals(123L, (long)size.get(5, TimeUnit.SECONDS));
+		assertEquals(contended + 1, mClient.getContendedOperationCount());
+		assertEquals(content.length, mClient.getSize("/stream"));
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testOutputStreamClosedByAnotherThread() throws Exception
+	{
+		byte[] content = new byte[50_000];
+		new Random(2).nextBytes(content);
+		mServer.putFile("/other", new byte[7]);
+
+		OutputStream out = mClient.openOutputStream("/upload");
+
+		Future<Long> size = mExecutor.submit(() -> mClient.getSize("/other"));
+
+		Thread.sleep(100);
+
+		Future<?> writer = mExecutor.submit(() ->
+		{
+			out.write(content);
+			out.close();
+			return null;
+		});
+
+		writer.get(5, TimeUnit.SECONDS);
+
+		assertEquals(7L, (long)size.get(5, TimeUnit.SECONDS));
+		assertArrayEquals(content, mServer.getFile("/upload"));
+		assertEquals(content.length, mClient.getSize("/upload"));
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testStreamMustBeClosedByOpeningThreadBeforeOtherOperations() throws Exception
+	{
+		mServer.putFile("/stream", new byte[10]);
+
+		InputStream in = mClient.openInputStream("/stream");
+
+		try
+		{
+			mClient.getSize("/stream");
+			fail("operation performed while the stream of the thread was open");
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+
+		while (in.read() != -1)
+		{
+		}
+		in.close();
+
+		assertEquals(10, mClient.getSize("/stream"));
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testCloseDoesNotWaitForOpenStream() throws Exception
+	{
+		mServer.putFile("/stream", new byte[10]);
+		mServer.putFile("/other", new byte[1]);
+
+		InputStream in = mClient.openInputStream("/stream");
+
+		Future<Long> size = mExecutor.submit(() -> mClient.getSize("/other"));
+
+		Thread.sleep(100);
+
+		mClient.close();
+
+		try
+		{
+			size.get(5, TimeUnit.SECONDS);
+			fail("operation performed after the client was closed");
+		}
+		catch (java.util.concurrent.ExecutionException e)
+		{
+			// expected, the client isn't connected
+		}
+
+		try
+		{
+			in.close();
+			fail("final reply of the stream read after the client was closed");
+		}
+		catch (java.io.IOException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testCloseDoesNotWaitForMetadataSession() throws Exception
+	{
+		mServer.putFile("/stream", new byte[10]);
+		mServer.putFile("/other", new byte[1]);
+
+		// metadata operations are performed on the second session while a transfer is active and the working directory is known
+		mClient.setUseMetadataSession(true);
+		mClient.getWorkingDirectory();
+
+		InputStream in = mClient.openInputStream("/stream");
+
+		assertEquals(1, mClient.getSize("/other"));
+
+		mServer.setReplyDelay(10_000);
+
+		Future<Long> size = mExecutor.submit(() -> mClient.getSize("/other"));
+
+		Thread.sleep(200);
+
+		long time = System.nanoTime();
+		mClient.close();
+
+		assertTrue("close waited for the metadata session", System.nanoTime() - time < 2_000_000_000L);
+
+		try
+		{
+			size.get(5, TimeUnit.SECONDS);
+			fail("metadata operation completed after the client was closed");
+		}
+		catch (java.util.concurrent.ExecutionException e)
+		{
+			// expected, the metadata session was closed
+		}
+
+		try
+		{
+			in.close();
+		}
+		catch (java.io.IOException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test(timeout = 60_000)
+	public void testServerToServerTransfersInOppositeDirections() throws Exception
+	{
+		try (LocalFTPServer otherServer = new LocalFTPServer(); FTPClient otherClient = otherServer.createClient())
+		{
+			otherClient.connect("user", "pass", null);
+
+			byte[] content = new byte[20_000];
+			new Random(3).nextBytes(content);
+			mServer.putFile("/a", content);
+			otherServer.putFile("/b", content);
+
+			CountDownLatch start = new CountDownLatch(1);
+
+			Future<?> forward = mExecutor.submit(() ->
+			{
+				start.await();
+				for (int i = 0; i < 20; i++)
+				{
+					mClient.transferTo("/a", otherClient, "/a" + i);
+				}
+				return null;
+			});
+			Future<?> backward = mExecutor.submit(() ->
+			{
+				start.await();
+				for (int i = 0; i < 20; i++)
+				{
+					otherClient.transferTo("/b", mClient, "/b" + i);
+				}
+				return null;
+			});
+
+			start.countDown();
+
+			forward.get(30, TimeUnit.SECONDS);
+			backward.get(30, TimeUnit.SECONDS);
+
+			for (int i = 0; i < 20; i++)
+			{
+				assertArrayEquals(content, otherServer.getFile("/a" + i));
+				assertArrayEquals(content, mServer.getFile("/b" + i));
+			}
+		}
+	}
+}
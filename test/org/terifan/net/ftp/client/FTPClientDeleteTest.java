@@ -0,0 +1,61 @@
+package org.terifan.net.ftp.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * The LocalFTPServer doesn't support the MLST command, hence deleteRecursive lists directories using the LIST command.
+ */
+public class FTPClientDeleteTest
+{
+	private LocalFTPServer mServer;
+	private FTPClient mClient;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mServer = new LocalFTPServer();
+		mServer.createDirectory("/tree");
+		mServer.createDirectory("/tree/sub");
+		mServer.putFile("/tree/a", new byte[10]);
+		mServer.putFile("/tree/sub/b", new byte[20]);
+		mServer.putFile("/file", new byte[30]);
+		mClient = mServer.createClient();
+		mClient.connect("user", "pass", null);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mClient.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testDeleteRecursiveOfFile() throws Exception
+	{
+		assertTrue(mClient.deleteRecursive("/file"));
+		assertNull(mServer.getFile("/file"));
+		assertNotNull(mServer.getFile("/tree/a"));
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testDeleteRecursiveOfDirectory() throws Exception
+	{
+		assertTrue(mClient.deleteRecursive("/tree"));
+		assertNull(mServer.getFile("/tree/a"));
+		assertNull(mServer.getFile("/tree/sub/b"));
+		assertFalse(mClient.changeWorkingDirectory("/tree"));
+		assertNotNull(mServer.getFile("/file"));
+	}
+}
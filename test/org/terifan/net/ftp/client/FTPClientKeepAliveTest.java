@@ -0,0 +1,78 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * The LocalFTPServer sends line feeds as CRLF in ASCII mode, hence binary data downloaded after the client implicitly left the transfer
+ * type set to ASCII differs from the file.
+ */
+public class FTPClientKeepAliveTest
+{
+	private LocalFTPServer mServer;
+	private FTPClient mClient;
+	private byte[] mContent;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mContent = new byte[100_000];
+		new Random(1).nextBytes(mContent);
+
+		mServer = new LocalFTPServer();
+		mServer.createDirectory("/home");
+		mServer.putFile("/home/binary", mContent);
+		mClient = mServer.createClient();
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mClient.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testBinaryDownloadAfterKeepAlive() throws Exception
+	{
+		mClient.connect("user", "pass", null);
+
+		int commands = mServer.getCommandCount();
+
+		// the working directory isn't known, the keep-alive reads it after the NOOP
+		mClient.setKeepAliveInterval(50);
+		while (mServer.getCommandCount() < commands + 2)
+		{
+			Thread.sleep(10);
+		}
+		mClient.setKeepAliveInterval(0);
+
+		assertArrayEquals(mContent, download("/home/binary"));
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testBinaryDownloadAfterConnectWithInitialPath() throws Exception
+	{
+		mClient.connect("user", "pass", "/home");
+
+		assertArrayEquals(mContent, download("binary"));
+	}
+
+
+	private byte[] download(String aPath) throws Exception
+	{
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		assertTrue(mClient.getFile(aPath, received, null));
+		return received.toByteArray();
+	}
+}
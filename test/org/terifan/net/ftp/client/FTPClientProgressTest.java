@@ -0,0 +1,115 @@
+package org.terifan.net.ftp.client;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Uploads from local files report the size of the file in progress events, like downloads report the size sent by the server.
+ */
+public class FTPClientProgressTest
+{
+	private LocalFTPServer mServer;
+	private TransferPool mTransferPool;
+	private FTPClient mClient;
+	private Path mLocalFile;
+	private byte[] mContent;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mContent = new byte[100_000];
+
+		mLocalFile = Files.createTempFile("progress", ".tmp");
+		Files.write(mLocalFile, mContent);
+
+		mServer = new LocalFTPServer();
+		mTransferPool = new TransferPool(2, 2);
+		mClient = mServer.createClient();
+		mClient.setTransferPool(mTransferPool);
+		mClient.connect("user", "pass", null);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mClient.close();
+		mTransferPool.close();
+		mServer.close();
+		Files.deleteIfExists(mLocalFile);
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testUploadOfPathReportsTotalSize() throws Exception
+	{
+		ConcurrentLinkedQueue<ProgressEvent> events = new ConcurrentLinkedQueue<>();
+
+		mClient.putFile("/upload", mLocalFile, new EventCollector(events), null);
+
+		assertTotalSize(events);
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testUploadOfFileInputStreamReportsTotalSize() throws Exception
+	{
+		ConcurrentLinkedQueue<ProgressEvent> events = new ConcurrentLinkedQueue<>();
+
+		try (InputStream in = new FileInputStream(mLocalFile.toFile()))
+		{
+			mClient.putFile("/upload", in, new EventCollector(events), null);
+		}
+
+		assertTotalSize(events);
+	}
+
+
+	private void assertTotalSize(ConcurrentLinkedQueue<ProgressEvent> aEvents)
+	{
+		// without a progress executor the events are delivered by the transfer thread before the transfer completes
+		assertArrayEquals(mContent, mServer.getFile("/upload"));
+		assertTrue(aEvents.stream().anyMatch(e -> e.getType() == ProgressEvent.Type.STARTED));
+		assertTrue(aEvents.stream().anyMatch(e -> e.getType() == ProgressEvent.Type.COMPLETED));
+		for (ProgressEvent event : aEvents)
+		{
+			assertEquals(event.toString(), mContent.length, event.getTotalSize());
+		}
+	}
+
+
+	private static class EventCollector implements ProgressListener
+	{
+		private final ConcurrentLinkedQueue<ProgressEvent> mEvents;
+
+
+		EventCollector(ConcurrentLinkedQueue<ProgressEvent> aEvents)
+		{
+			mEvents = aEvents;
+		}
+
+
+		@Override
+		public void progressChanged(long aTransferedCount)
+		{
+		}
+
+
+		@Override
+		public void progressChanged(ProgressEvent aEvent)
+		{
+			mEvents.add(aEvent);
+		}
+	}
+}
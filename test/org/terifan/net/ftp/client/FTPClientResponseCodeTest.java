@@ -0,0 +1,65 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Rejected commands must fail with the response code of the server.
+ */
+public class FTPClientResponseCodeTest
+{
+	private LocalFTPServer mServer;
+	private FTPClient mClient;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mServer = new LocalFTPServer();
+		mClient = mServer.createClient();
+		mClient.connect("user", "pass", null);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mClient.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testOpenInputStreamOfMissingFile() throws Exception
+	{
+		try
+		{
+			mClient.openInputStream("/missing").close();
+			fail("missing file opened");
+		}
+		catch (ResponseCodeException e)
+		{
+			assertEquals(550, e.getCode());
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testReadOfMissingFile() throws Exception
+	{
+		try
+		{
+			mClient.read("/missing", 10, 10, new ByteArrayOutputStream());
+			fail("missing file read");
+		}
+		catch (ResponseCodeException e)
+		{
+			assertEquals(550, e.getCode());
+		}
+	}
+}
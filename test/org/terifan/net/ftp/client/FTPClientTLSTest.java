@@ -0,0 +1,320 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * TLS connections against servers in the test process using the self-signed certificate of localhost.p12, issued for localhost and
+ * 127.0.0.1. The servers only enable TLS 1.2, sessions resumed with TLS 1.3 are given new ids.
+ */
+public class FTPClientTLSTest
+{
+	private final static char[] PASSWORD = "password".toCharArray();
+
+	private SSLContext mServerContext;
+	private SSLContext mClientContext;
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		KeyStore keyStore = loadKeyStore("localhost.p12");
+		mServerContext = createServerContext(keyStore);
+		mClientContext = createClientContext(keyStore);
+
+		mExecutor = Executors.newCachedThreadPool();
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testHandshake() throws Exception
+	{
+		try (SSLServerSocket serverSocket = createServerSocket())
+		{
+			Future<byte[]> server = mExecutor.submit(() ->
+			{
+				try (Socket socket = serverSocket.accept())
+				{
+					byte[] request = new byte[5];
+					new DataInputStream(socket.getInputStream()).readFully(request);
+					socket.getOutputStream().write("world".getBytes("UTF-8"));
+					return request;
+				}
+			});
+
+			try (TLSSocket socket = connect(serverSocket))
+			{
+				socket.startHandshake();
+
+				assertEquals("TLSv1.2", socket.getSession().getProtocol());
+
+				socket.getOutputStream().write("hello".getBytes("UTF-8"));
+
+				assertEquals("world", new String(readAll(socket.getInputStream()), "UTF-8"));
+				assertEquals("hello", new String(server.get(5, TimeUnit.SECONDS), "UTF-8"));
+			}
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testDataConnectionResumesSessionOfControlConnection() throws Exception
+	{
+		try (SSLServerSocket serverSocket = createServerSocket())
+		{
+			Future<?> server = mExecutor.submit(() ->
+			{
+				for (int i = 0; i < 3; i++)
+				{
+					try (SSLSocket socket = (SSLSocket)serverSocket.accept())
+					{
+						socket.startHandshake();
+					}
+				}
+				return null;
+			});
+
+			// sessions are cached by the host and port the client connected to and only resumed with the same endpoint identification, the
+			// control connection is opened like the FTPClient does
+			byte[] controlSessionId;
+			try (SSLSocket control = (SSLSocket)mClientContext.getSocketFactory().createSocket(serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort()))
+			{
+				SSLParameters parameters = control.getSSLParameters();
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+				control.setSSLParameters(parameters);
+
+				control.startHandshake();
+				controlSessionId = control.getSession().getId();
+			}
+
+			// data connections connect to the same server here, but look up the session like the data connections of an FTPClient
+			for (int i = 0; i < 2; i++)
+			{
+				try (TLSSocket data = connect(serverSocket))
+				{
+					data.startHandshake();
+
+					assertArrayEquals(controlSessionId, data.getSession().getId());
+				}
+			}
+
+			server.get(5, TimeUnit.SECONDS);
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testEndOfStreamWithoutCloseNotify() throws Exception
+	{
+		byte[] content = new byte[100_000];
+		new Random(1).nextBytes(content);
+
+		// TLS is layered on a plain socket, closing the plain socket ends the connection without a close_notify
+		try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+		{
+			Future<?> server = mExecutor.submit(() ->
+			{
+				try (Socket plain = serverSocket.accept())
+				{
+					SSLSocket socket = (SSLSocket)mServerContext.getSocketFactory().createSocket(plain, null, true);
+					socket.setUseClientMode(false);
+					socket.setEnabledProtocols(new String[]{"TLSv1.2"});
+					socket.getOutputStream().write(content);
+					socket.getOutputStream().flush();
+				}
+				return null;
+			});
+
+			String host = serverSocket.getInetAddress().getHostAddress();
+			int port = serverSocket.getLocalPort();
+
+			try (TLSSocket socket = new TLSSocket(mClientContext, new Socket(host, port), host, port))
+			{
+				socket.startHandshake();
+
+				assertArrayEquals(content, readAll(socket.getInputStream()));
+				assertEquals(-1, socket.getInputStream().read());
+			}
+
+			server.get(5, TimeUnit.SECONDS);
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testProtectedTransfers() throws Exception
+	{
+		byte[] content = new byte[200_000];
+		new Random(2).nextBytes(content);
+
+		try (LocalFTPServer server = new LocalFTPServer(); FTPClient client = server.createClient())
+		{
+			server.setSSLContext(mServerContext);
+			server.setCloseNotify(false);
+			server.putFile("/download", content);
+
+			client.setSSLContext(mClientContext);
+			client.connect("user", "pass", null);
+
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			assertTrue(client.getFile("/download", received, null));
+			assertArrayEquals(content, received.toByteArray());
+
+			assertTrue(client.putFile("/upload", new ByteArrayInputStream(content), null));
+			assertArrayEquals(content, server.getFile("/upload"));
+
+			assertEquals(2, client.getFileList().length);
+
+			// the control connection and the three data connections
+			List<String> sessionIds = server.getTLSSessionIds();
+			assertEquals(4, sessionIds.size());
+			for (String sessionId : sessionIds)
+			{
+				assertEquals(sessionIds.get(0), sessionId);
+			}
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testCertificateOfOtherHostIsRejected() throws Exception
+	{
+		// a certificate trusted by the client, but issued for other.example
+		KeyStore keyStore = loadKeyStore("other.p12");
+		mServerContext = createServerContext(keyStore);
+		mClientContext = createClientContext(keyStore);
+
+		try (SSLServerSocket serverSocket = createServerSocket())
+		{
+			mExecutor.submit(() ->
+			{
+				try (SSLSocket socket = (SSLSocket)serverSocket.accept())
+				{
+					socket.startHandshake();
+				}
+				return null;
+			});
+
+			try (TLSSocket socket = connect(serverSocket))
+			{
+				socket.startHandshake();
+				fail("certificate of other.example accepted by the data connection");
+			}
+			catch (SSLHandshakeException e)
+			{
+				// expected
+			}
+		}
+
+		try (LocalFTPServer server = new LocalFTPServer(); FTPClient client = server.createClient())
+		{
+			server.setSSLContext(mServerContext);
+			client.setSSLContext(mClientContext);
+
+			try
+			{
+				client.connect("user", "pass", null);
+				fail("certificate of other.example accepted by the control connection");
+			}
+			catch (SSLHandshakeException e)
+			{
+				// expected
+			}
+		}
+	}
+
+
+	private static KeyStore loadKeyStore(String aName) throws Exception
+	{
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = FTPClientTLSTest.class.getResourceAsStream(aName))
+		{
+			keyStore.load(in, PASSWORD);
+		}
+		return keyStore;
+	}
+
+
+	private static SSLContext createServerContext(KeyStore aKeyStore) throws Exception
+	{
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(aKeyStore, PASSWORD);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagerFactory.getKeyManagers(), null, null);
+		return context;
+	}
+
+
+	private static SSLContext createClientContext(KeyStore aKeyStore) throws Exception
+	{
+		TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(aKeyStore);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, trustManagerFactory.getTrustManagers(), null);
+		return context;
+	}
+
+
+	private SSLServerSocket createServerSocket() throws Exception
+	{
+		SSLServerSocket serverSocket = (SSLServerSocket)mServerContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		serverSocket.setEnabledProtocols(new String[]{"TLSv1.2"});
+		return serverSocket;
+	}
+
+
+	private TLSSocket connect(SSLServerSocket aServerSocket) throws Exception
+	{
+		String host = aServerSocket.getInetAddress().getHostAddress();
+		int port = aServerSocket.getLocalPort();
+
+		return new TLSSocket(mClientContext, new Socket(host, port), host, port);
+	}
+
+
+	private static byte[] readAll(InputStream aInputStream) throws Exception
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		for (int len; (len = aInputStream.read(buf)) != -1;)
+		{
+			buffer.write(buf, 0, len);
+		}
+		return buffer.toByteArray();
+	}
+}
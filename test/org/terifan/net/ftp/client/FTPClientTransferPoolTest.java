@@ -0,0 +1,110 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Transfers performed on a TransferPool must fail with the exceptions of the transfer, like transfers performed by the calling thread.
+ */
+public class FTPClientTransferPoolTest
+{
+	private LocalFTPServer mServer;
+	private TransferPool mTransferPool;
+	private FTPClient mClient;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mServer = new LocalFTPServer();
+		mTransferPool = new TransferPool(2, 2);
+		mClient = mServer.createClient();
+		mClient.setTransferPool(mTransferPool);
+		mClient.connect("user", "pass", null);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mClient.close();
+		mTransferPool.close();
+		mServer.close();
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testIOExceptionIsRethrown() throws Exception
+	{
+		IOException exception = new IOException("source failed");
+
+		try
+		{
+			mClient.putFile("/upload", new FailingInputStream(exception), null);
+			fail("transfer succeeded");
+		}
+		catch (IOException e)
+		{
+			assertSame(exception, e);
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testRuntimeExceptionIsRethrown() throws Exception
+	{
+		IllegalStateException exception = new IllegalStateException("source failed");
+
+		try
+		{
+			mClient.putFile("/upload", new FailingInputStream(exception), null);
+			fail("transfer succeeded");
+		}
+		catch (IllegalStateException e)
+		{
+			assertSame(exception, e);
+		}
+	}
+
+
+	@Test(timeout = 30_000)
+	public void testTransfer() throws Exception
+	{
+		byte[] content = new byte[100_000];
+
+		assertTrue(mClient.putFile("/upload", new ByteArrayInputStream(content), null));
+		assertArrayEquals(content, mServer.getFile("/upload"));
+	}
+
+
+	private static class FailingInputStream extends InputStream
+	{
+		private final Exception mException;
+
+
+		FailingInputStream(Exception aException)
+		{
+			mException = aException;
+		}
+
+
+		@Override
+		public int read() throws IOException
+		{
+			if (mException instanceof IOException)
+			{
+				throw (IOException)mException;
+			}
+			throw (RuntimeException)mException;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.terifan.net.ftp.client;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Compares the stream and Path based transfer methods against a LocalFTPServer. The Path based upload is sent by the operating system
+ * unless a hash is computed, hence it's also measured with a hash forcing the buffered path. Downloads are measured with and without the
+ * size of the remote file known in advance.<p>
+ *
+ * Usage: FileTransferBenchmark [size in MB] [rounds]
+ */
+public class FileTransferBenchmark
+{
+	public static void main(String... aArgs) throws Exception
+	{
+		int size = (aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 64) << 20;
+		int rounds = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : 5;
+
+		byte[] content = new byte[size];
+		new Random(1).nextBytes(content);
+
+		Path source = Files.createTempFile("benchmark", ".src");
+		Path target = Files.createTempFile("benchmark", ".dst");
+
+		try (LocalFTPServer server = new LocalFTPServer(); FTPClient client = server.createClient())
+		{
+			Files.write(source, content);
+			server.putFile("/download", content);
+			client.connect("user", "pass", null);
+
+			System.out.printf("%d MB, best of %d rounds%n", size >> 20, rounds);
+
+			measure("putFile(InputStream)", size, rounds, () ->
+			{
+				try (InputStream in = Files.newInputStream(source))
+				{
+					client.putFile("/upload", in, null);
+				}
+			});
+			measure("putFile(Path)", size, rounds, () -> client.putFile("/upload", source, null, null));
+			measure("putFile(Path) with hash", size, rounds, () -> client.putFile("/upload", source, null, HashAlgorithm.SHA_256));
+
+			verify(content, server.getFile("/upload"));
+
+			measure("getFile(OutputStream)", size, rounds, () ->
+			{
+				try (OutputStream out = Files.newOutputStream(target))
+				{
+					client.getFile("/download", out, null);
+				}
+			});
+			measure("getFile(Path)", size, rounds, () -> client.getFile("/download", target, null, null));
+
+			RemoteFile file = client.stat("/download");
+
+			measure("getFile(RemoteFile, Path)", size, rounds, () -> client.getFile(file, target, null, null));
+
+			verify(content, Files.readAllBytes(target));
+		}
+		finally
+		{
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(target);
+		}
+	}
+
+
+	private static void measure(String aName, int aSize, int aRounds, Transfer aTransfer) throws Exception
+	{
+		long best = Long.MAX_VALUE;
+
+		// the first round warms up the JIT and the page cache
+		for (int i = 0; i <= aRounds; i++)
+		{
+			long time = System.nanoTime();
+			aTransfer.run();
+			time = System.nanoTime() - time;
+
+			if (i > 0)
+			{
+				best = Math.min(best, time);
+			}
+		}
+
+		System.out.printf("%-28s %8.1f ms %8.1f MB/s%n", aName, best / 1e6, aSize / 1048576.0 / (best / 1e9));
+	}
+
+
+	private static void verify(byte[] aExpected, byte[] aActual)
+	{
+		if (!Arrays.equals(aExpected, aActual))
+		{
+			throw new IllegalStateException("Content transferred differs");
+		}
+	}
+
+
+	private interface Transfer
+	{
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,683 @@
+package org.terifan.net.ftp.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+
+/**
+ * A minimal FTP server running in the test process. Files are kept in memory and each session is served by a thread of it's own.
+ */
+class LocalFTPServer implements Closeable
+{
+	private final ServerSocket mServerSocket;
+	private final Map<String, byte[]> mFiles;
+	private final Map<String, Long> mModified;
+	private final Set<String> mDirectories;
+	private final List<Socket> mSockets;
+	private final AtomicInteger mCommandCount;
+	private final List<String> mTLSSessionIds;
+	private volatile int mReplyDelay;
+	private volatile SSLContext mSSLContext;
+	private volatile boolean mCloseNotify;
+
+
+	LocalFTPServer() throws IOException
+	{
+		mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		mFiles = new ConcurrentHashMap<>();
+		mModified = new ConcurrentHashMap<>();
+		mDirectories = ConcurrentHashMap.newKeySet();
+		mSockets = Collections.synchronizedList(new ArrayList<>());
+		mCommandCount = new AtomicInteger();
+		mTLSSessionIds = Collections.synchronizedList(new ArrayList<>());
+		mCloseNotify = true;
+
+		mDirectories.add("/");
+
+		Thread thread = new Thread(this::acceptSessions, "local-ftp-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	int getPort()
+	{
+		return mServerSocket.getLocalPort();
+	}
+
+
+	/**
+	 * Creates a client connecting to this server using passive data connections. Listings are sent in the format of Unix servers.
+	 */
+	FTPClient createClient()
+	{
+		FTPClient client = new FTPClient(mServerSocket.getInetAddress().getHostAddress(), getPort(), true);
+		client.setIsUnixServer(true);
+		return client;
+	}
+
+
+	/**
+	 * Delays every reply, making operations take long enough for threads to contend for a client.
+	 */
+	void setReplyDelay(int aReplyDelay)
+	{
+		mReplyDelay = aReplyDelay;
+	}
+
+
+	/**
+	 * Enables the AUTH TLS, PBSZ and PROT commands. Only TLS 1.2 is enabled, a session resumed with TLS 1.3 is given a new id, hence the ids
+	 * of sessions resumed by data connections couldn't be compared with the id of the control connection.
+	 */
+	void setSSLContext(SSLContext aSSLContext)
+	{
+		mSSLContext = aSSLContext;
+	}
+
+
+	/**
+	 * When false protected data connections are closed without sending a close_notify, as done by many servers.
+	 */
+	void setCloseNotify(boolean aCloseNotify)
+	{
+		mCloseNotify = aCloseNotify;
+	}
+
+
+	/**
+	 * Returns the ids of the TLS sessions of the control and data connections in the order the handshakes were completed.
+	 */
+	List<String> getTLSSessionIds()
+	{
+		synchronized (mTLSSessionIds)
+		{
+			return new ArrayList<>(mTLSSessionIds);
+		}
+	}
+
+
+	int getCommandCount()
+	{
+		return mCommandCount.get();
+	}
+
+
+	void putFile(String aPath, byte[] aContent)
+	{
+		putFile(aPath, aContent, System.currentTimeMillis());
+	}
+
+
+	/**
+	 * Stores a file with a modification time, reported by MDTM with a resolution of seconds.
+	 */
+	void putFile(String aPath, byte[] aContent, long aModified)
+	{
+		mModified.put(aPath, aModified);
+		mFiles.put(aPath, aContent);
+	}
+
+
+	void createDirectory(String aPath)
+	{
+		mDirectories.add(aPath);
+	}
+
+
+	byte[] getFile(String aPath)
+	{
+		return mFiles.get(aPath);
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		mServerSocket.close();
+
+		synchronized (mSockets)
+		{
+			for (Socket socket : mSockets)
+			{
+				socket.close();
+			}
+		}
+	}
+
+
+	private void acceptSessions()
+	{
+		try
+		{
+			for (;;)
+			{
+				Socket socket = mServerSocket.accept();
+				socket.setTcpNoDelay(true);
+				mSockets.add(socket);
+
+				Thread thread = new Thread(() -> new Session(socket).run(), "local-ftp-session");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		catch (IOException e)
+		{
+			// the server was closed
+		}
+	}
+
+
+	private class Session
+	{
+		private Socket mSocket;
+		private Socket mDataSocket;
+		private boolean mProtected;
+		private boolean mAscii;
+		private InputStream mInput;
+		private OutputStream mOutput;
+		private String mWorkingDirectory;
+		private ServerSocket mPassiveSocket;
+		private InetSocketAddress mActiveAddress;
+		private long mRestartOffset;
+		private String mRenameFrom;
+
+
+		Session(Socket aSocket)
+		{
+			mSocket = aSocket;
+			mWorkingDirectory = "/";
+		}
+
+
+		void run()
+		{
+			try
+			{
+				mInput = mSocket.getInputStream();
+				mOutput = mSocket.getOutputStream();
+
+				reply("220 local server ready");
+
+				for (String line; (line = readLine()) != null;)
+				{
+					mCommandCount.incrementAndGet();
+
+					int space = line.indexOf(' ');
+					String command = (space == -1 ? line : line.substring(0, space)).toUpperCase();
+					String argument = space == -1 ? "" : line.substring(space + 1);
+
+					if (mReplyDelay > 0)
+					{
+						Thread.sleep(mReplyDelay);
+					}
+
+					if (!execute(command, argument))
+					{
+						break;
+					}
+				}
+			}
+			catch (IOException | InterruptedException e)
+			{
+				// the connection was closed
+			}
+			finally
+			{
+				try
+				{
+					mSocket.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+
+
+		/**
+		 * @return false if the session has ended.
+		 */
+		boolean execute(String aCommand, String aArgument) throws IOException
+		{
+			switch (aCommand)
+			{
+				case "USER":
+					reply("331 password required");
+					break;
+				case "PASS":
+					reply("230 logged on");
+					break;
+				case "AUTH":
+					secure(aArgument);
+					break;
+				case "PBSZ":
+					reply(mSocket instanceof SSLSocket ? "200 PBSZ=0" : "503 AUTH TLS required");
+					break;
+				case "PROT":
+					protect(aArgument);
+					break;
+				case "QUIT":
+					reply("221 goodbye");
+					return false;
+				case "NOOP":
+					reply("200 ok");
+					break;
+				case "FEAT":
+					reply("211-Features:\r\n SIZE\r\n MDTM\r\n REST STREAM\r\n211 End");
+					break;
+				case "TYPE":
+					mAscii = aArgument.equalsIgnoreCase("A");
+					reply("200 type set");
+					break;
+				case "MODE":
+					reply(aArgument.equalsIgnoreCase("S") ? "200 mode set" : "504 mode not supported");
+					break;
+				case "PWD":
+					reply("257 \"" + mWorkingDirectory + "\" is the current directory");
+					break;
+				case "CWD":
+					changeDirectory(aArgument);
+					break;
+				case "PASV":
+					openPassive();
+					break;
+				case "PORT":
+					String[] values = aArgument.split(",");
+					mActiveAddress = new InetSocketAddress(values[0] + "." + values[1] + "." + values[2] + "." + values[3], Integer.parseInt(values[4]) * 256 + Integer.parseInt(values[5]));
+					reply("200 port set");
+					break;
+				case "REST":
+					mRestartOffset = Long.parseLong(aArgument);
+					reply("350 restarting at " + mRestartOffset);
+					break;
+				case "RETR":
+					retrieve(resolve(aArgument));
+					break;
+				case "STOR":
+					store(resolve(aArgument));
+					break;
+				case "SIZE":
+					byte[] content = mFiles.get(resolve(aArgument));
+					reply(content == null ? "550 no such file" : "213 " + content.length);
+					break;
+				case "MDTM":
+					Long modified = mFiles.containsKey(resolve(aArgument)) ? mModified.get(resolve(aArgument)) : null;
+					reply(modified == null ? "550 no such file" : "213 " + new SimpleDateFormat("yyyyMMddHHmmss").format(modified));
+					break;
+				case "DELE":
+					mModified.remove(resolve(aArgument));
+					reply(mFiles.remove(resolve(aArgument)) == null ? "550 no such file" : "250 deleted");
+					break;
+				case "MKD":
+					reply(mDirectories.add(resolve(aArgument)) ? "257 \"" + resolve(aArgument) + "\" created" : "550 exists");
+					break;
+				case "RMD":
+					reply(mDirectories.remove(resolve(aArgument)) ? "250 removed" : "550 no such directory");
+					break;
+				case "RNFR":
+					mRenameFrom = resolve(aArgument);
+					reply(mFiles.containsKey(mRenameFrom) ? "350 ready" : "550 no such file");
+					break;
+				case "RNTO":
+					rename(resolve(aArgument));
+					break;
+				case "LIST":
+				case "NLST":
+					list(aArgument.isEmpty() || aArgument.startsWith("-") ? mWorkingDirectory : resolve(aArgument));
+					break;
+				case "ABOR":
+					reply("226 abort successful");
+					break;
+				default:
+					reply("502 command not implemented");
+					break;
+			}
+
+			return true;
+		}
+
+
+		private void secure(String aMechanism) throws IOException
+		{
+			if (mSSLContext == null || !aMechanism.equalsIgnoreCase("TLS"))
+			{
+				reply("504 security mechanism not supported");
+				return;
+			}
+
+			reply("234 proceed with negotiation");
+
+			mSocket = handshake(mSocket);
+			mInput = mSocket.getInputStream();
+			mOutput = mSocket.getOutputStream();
+		}
+
+
+		private void protect(String aLevel) throws IOException
+		{
+			if (!(mSocket instanceof SSLSocket))
+			{
+				reply("503 AUTH TLS required");
+			}
+			else if (aLevel.equalsIgnoreCase("P") || aLevel.equalsIgnoreCase("C"))
+			{
+				mProtected = aLevel.equalsIgnoreCase("P");
+				reply("200 protection level set");
+			}
+			else
+			{
+				reply("504 protection level not supported");
+			}
+		}
+
+
+		/**
+		 * Performs the server side of a TLS handshake on a connection, recording the id of the session.
+		 */
+		private SSLSocket handshake(Socket aSocket) throws IOException
+		{
+			SSLSocket socket = (SSLSocket)mSSLContext.getSocketFactory().createSocket(aSocket, null, true);
+			socket.setUseClientMode(false);
+			socket.setEnabledProtocols(new String[]{"TLSv1.2"});
+			socket.startHandshake();
+
+			StringBuilder id = new StringBuilder();
+			for (byte b : socket.getSession().getId())
+			{
+				id.append(String.format("%02x", b));
+			}
+			mTLSSessionIds.add(id.toString());
+
+			return socket;
+		}
+
+
+		private void changeDirectory(String aPath) throws IOException
+		{
+			String path = resolve(aPath);
+
+			if (mDirectories.contains(path))
+			{
+				mWorkingDirectory = path;
+				reply("250 directory changed");
+			}
+			else
+			{
+				reply("550 no such directory");
+			}
+		}
+
+
+		private void openPassive() throws IOException
+		{
+			closePassive();
+
+			mPassiveSocket = new ServerSocket(0, 1, mServerSocket.getInetAddress());
+
+			byte[] address = mPassiveSocket.getInetAddress().getAddress();
+			int port = mPassiveSocket.getLocalPort();
+
+			reply("227 Entering Passive Mode (" + (address[0] & 255) + "," + (address[1] & 255) + "," + (address[2] & 255) + "," + (address[3] & 255) + "," + (port >> 8) + "," + (port & 255) + ")");
+		}
+
+
+		private void closePassive() throws IOException
+		{
+			if (mPassiveSocket != null)
+			{
+				mPassiveSocket.close();
+				mPassiveSocket = null;
+			}
+		}
+
+
+		/**
+		 * Accepts the data connection of a transfer, or connects to the client when the PORT command was sent. A protected data connection
+		 * is returned after the TLS handshake.
+		 */
+		Socket acceptData() throws IOException
+		{
+			if (mActiveAddress != null)
+			{
+				InetSocketAddress address = mActiveAddress;
+				mActiveAddress = null;
+				mDataSocket = new Socket(address.getAddress(), address.getPort());
+			}
+			else if (mPassiveSocket == null)
+			{
+				throw new IOException("No data connection");
+			}
+			else
+			{
+				try
+				{
+					mDataSocket = mPassiveSocket.accept();
+				}
+				finally
+				{
+					closePassive();
+				}
+			}
+
+			return mProtected ? handshake(mDataSocket) : mDataSocket;
+		}
+
+
+		/**
+		 * Closes the connection below a protected data connection before a close_notify is sent, unless enabled.
+		 */
+		private void closeData(Socket aSocket) throws IOException
+		{
+			if (aSocket instanceof SSLSocket && !mCloseNotify)
+			{
+				aSocket.getOutputStream().flush();
+				mDataSocket.close();
+			}
+		}
+
+
+		private void retrieve(String aPath) throws IOException
+		{
+			byte[] content = mFiles.get(aPath);
+
+			if (content == null)
+			{
+				mRestartOffset = 0;
+				reply("550 no such file");
+				return;
+			}
+
+			int offset = (int)Math.min(mRestartOffset, content.length);
+			mRestartOffset = 0;
+
+			reply("150 opening data connection (" + (content.length - offset) + " bytes)");
+
+			try (Socket socket = acceptData())
+			{
+				if (mAscii)
+				{
+					// like a Unix server, line feeds are sent as CRLF in ASCII mode
+					socket.getOutputStream().write(new String(content, offset, content.length - offset, "ISO-8859-1").replace("\n", "\r\n").getBytes("ISO-8859-1"));
+				}
+				else
+				{
+					socket.getOutputStream().write(content, offset, content.length - offset);
+				}
+				closeData(socket);
+			}
+			catch (IOException e)
+			{
+				reply("426 transfer aborted");
+				return;
+			}
+
+			reply("226 transfer complete");
+		}
+
+
+		private void store(String aPath) throws IOException
+		{
+			reply("150 opening data connection");
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+			try (Socket socket = acceptData())
+			{
+				InputStream in = socket.getInputStream();
+				byte[] buf = new byte[8192];
+				for (int len; (len = in.read(buf)) != -1;)
+				{
+					buffer.write(buf, 0, len);
+				}
+			}
+			catch (IOException e)
+			{
+				reply("426 transfer aborted");
+				return;
+			}
+
+			byte[] content = buffer.toByteArray();
+
+			if (mRestartOffset > 0)
+			{
+				byte[] existing = mFiles.getOrDefault(aPath, new byte[0]);
+				byte[] joined = Arrays.copyOf(existing, (int)mRestartOffset + content.length);
+				System.arraycopy(content, 0, joined, (int)mRestartOffset, content.length);
+				content = joined;
+				mRestartOffset = 0;
+			}
+
+			putFile(aPath, content);
+
+			reply("226 transfer complete");
+		}
+
+
+		private void rename(String aPath) throws IOException
+		{
+			byte[] content = mRenameFrom == null ? null : mFiles.remove(mRenameFrom);
+			Long modified = mRenameFrom == null ? null : mModified.remove(mRenameFrom);
+			mRenameFrom = null;
+
+			if (content == null)
+			{
+				reply("503 bad sequence of commands");
+				return;
+			}
+
+			putFile(aPath, content, modified == null ? System.currentTimeMillis() : modified);
+
+			reply("250 renamed");
+		}
+
+
+		private void list(String aDirectory) throws IOException
+		{
+			// a file is listed as the single entry of the listing, like Unix servers do
+			boolean file = mFiles.containsKey(aDirectory);
+
+			if (!file && !mDirectories.contains(aDirectory))
+			{
+				reply("550 no such directory");
+				return;
+			}
+
+			String prefix = file ? aDirectory.substring(0, aDirectory.lastIndexOf('/') + 1) : aDirectory.endsWith("/") ? aDirectory : aDirectory + "/";
+
+			TreeMap<String, String> lines = new TreeMap<>();
+			for (Map.Entry<String, byte[]> entry : mFiles.entrySet())
+			{
+				String name = entry.getKey();
+				if (name.startsWith(prefix) && name.indexOf('/', prefix.length()) == -1 && (!file || name.equals(aDirectory)))
+				{
+					lines.put(name, "-rw-r--r-- 1 user group " + entry.getValue().length + " Jan  1 00:00 " + name.substring(prefix.length()) + "\r\n");
+				}
+			}
+			for (String name : mDirectories)
+			{
+				if (!file && name.startsWith(prefix) && name.length() > prefix.length() && name.indexOf('/', prefix.length()) == -1)
+				{
+					lines.put(name, "drwxr-xr-x 1 user group 0 Jan  1 00:00 " + name.substring(prefix.length()) + "\r\n");
+				}
+			}
+
+			reply("150 opening data connection");
+
+			try (Socket socket = acceptData())
+			{
+				socket.getOutputStream().write(String.join("", lines.values()).getBytes("UTF-8"));
+				closeData(socket);
+			}
+
+			reply("226 transfer complete");
+		}
+
+
+		private String resolve(String aPath)
+		{
+			String path = aPath.startsWith("/") ? aPath : (mWorkingDirectory.endsWith("/") ? mWorkingDirectory : mWorkingDirectory + "/") + aPath;
+
+			ArrayList<String> names = new ArrayList<>();
+			for (String name : path.split("/"))
+			{
+				if (name.equals(".."))
+				{
+					if (!names.isEmpty())
+					{
+						names.remove(names.size() - 1);
+					}
+				}
+				else if (!name.isEmpty() && !name.equals("."))
+				{
+					names.add(name);
+				}
+			}
+
+			return "/" + String.join("/", names);
+		}
+
+
+		private String readLine() throws IOException
+		{
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+			for (int c; (c = mInput.read()) != -1;)
+			{
+				if (c == '\n')
+				{
+					return new String(line.toByteArray(), "UTF-8").trim();
+				}
+				line.write(c);
+			}
+
+			return null;
+		}
+
+
+		private void reply(String aReply) throws IOException
+		{
+			mOutput.write((aReply + "\r\n").getBytes("UTF-8"));
+			mOutput.flush();
+		}
+	}
+}